@@ -1,6 +1,8 @@
 package com.jamie.android_ros.arcore_ros;
 
 /* OpenGL Imports */
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import javax.microedition.khronos.egl.EGLConfig;
@@ -9,6 +11,7 @@ import javax.microedition.khronos.opengles.GL10;
 /* Android Imports */
 import android.os.Handler;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -34,12 +37,18 @@ import com.jamie.android_ros.arcore_ros.ros.GPSPermissionHelper;
 import com.jamie.android_ros.arcore_ros.arcore.BackgroundRenderer;
 import com.jamie.android_ros.arcore_ros.arcore.CameraPermissionHelper;
 import com.jamie.android_ros.arcore_ros.arcore.DisplayRotationHelper;
+import com.jamie.android_ros.arcore_ros.arcore.PoseTracker;
+import com.jamie.android_ros.arcore_ros.arcore.TrackingThread;
 
 /* ROS Imports */
 import org.ros.android.RosActivity;
 import org.ros.node.NodeConfiguration;
 import org.ros.node.NodeMainExecutor;
+import com.jamie.android_ros.arcore_ros.ros.IMUPublisher;
+import com.jamie.android_ros.arcore_ros.ros.LatencyHistogram;
+import com.jamie.android_ros.arcore_ros.ros.QualityGovernor;
 import com.jamie.android_ros.arcore_ros.ros.SensorPublisher;
+import com.jamie.android_ros.arcore_ros.ros.StoreAndForward;
 
 import java.io.IOException;
 
@@ -51,29 +60,99 @@ public class MainActivity extends RosActivity implements GLSurfaceView.Renderer
     private boolean mUserRequestedInstall = true;
     private Session mSession = null;
     SensorPublisher mPublisher = null;
+    private StoreAndForward mForwarder = null;
 
     /* UI Elements */
     private GLSurfaceView surfaceView = null;
     Button mArButton = null;
     TextView mPoseView = null;
 
-    Pose deviceToPhysical = null;
+    // camera pose relative to the first tracked pose, computed without per-frame garbage
+    private final PoseTracker mPoseTracker = new PoseTracker();
+
+    /* Headless mode : tracking on its own thread, preview optional and throttled */
+    // e.g. adb shell am start -n <pkg>/.MainActivity --ez headless true --ei preview_interval_ms 0
+    public static final String EXTRA_HEADLESS = "headless";
+    public static final String EXTRA_PREVIEW_INTERVAL = "preview_interval_ms";
+    // record everything published to bags under the app's external files dir
+    public static final String EXTRA_RECORD = "record";
+    // queue messages while the master is unreachable, reconnect when it is back and publish the
+    // backlog under android/backlog/ (default off)
+    public static final String EXTRA_STORE_AND_FORWARD = "store_and_forward";
+    // "latest_only" (default) or "every_sample"; the ~imu_mode parameter takes precedence
+    public static final String EXTRA_IMU_MODE = "imu_mode";
+    private static final int DEFAULT_PREVIEW_INTERVAL_MS = 200; // 5 fps
+
+    private boolean mHeadless = false;
+    private long mPreviewIntervalMs = DEFAULT_PREVIEW_INTERVAL_MS; // 0 disables the preview
+    private long mLastPreviewMs = 0;
+    // headless preview interval multiplier per quality governor level
+    private static final int[] PREVIEW_SCALE = {1, 2, 4, 8};
+    private volatile int mQualityLevel = 0;
+    private volatile boolean mHasFrame = false;
+
+    private boolean mSessionResumed = false;
+    private volatile EGLContext mSharedContext = null;
+    private TrackingThread mTrackingThread = null;
+
+    // Session.update() duration, on the GL or the tracking thread
+    private final LatencyHistogram mUpdateLatency = new LatencyHistogram();
 
     public MainActivity() {
         super("Odomobile", "Odomobile");
     }
 
     @Override
-    public void init(NodeMainExecutor n){
-        NodeConfiguration nodeConfiguration = NodeConfiguration.newPublic(getRosHostname());
-        nodeConfiguration.setMasterUri(getMasterUri());
-
+    public void init(final NodeMainExecutor n){
         mPublisher = new SensorPublisher(this, n);
+        mPublisher.getPipeline().getLatencies().add("Session.update", mUpdateLatency);
+        mPublisher.getQualityGovernor().addListener(new QualityGovernor.Listener() {
+            @Override
+            public void onLevelChanged(int level) {
+                mQualityLevel = level;
+            }
+        });
+        mPublisher.setImuMode(IMUPublisher.parseMode(getIntent().getStringExtra(EXTRA_IMU_MODE),
+                IMUPublisher.Mode.LATEST_ONLY));
+        if (getIntent().getBooleanExtra(EXTRA_RECORD, false)) {
+            mPublisher.setRecordingDirectory(getExternalFilesDir("bags"));
+        }
+        if (getIntent().getBooleanExtra(EXTRA_STORE_AND_FORWARD, false)) {
+            mForwarder = mPublisher.enableStoreAndForward(getCacheDir(), getMasterUri());
+            mForwarder.setListener(new StoreAndForward.Listener() {
+                @Override
+                public void onReconnected() {
+                    // the master may have restarted, and the device may have a new address
+                    n.shutdownNodeMain(mPublisher);
+                    n.execute(mPublisher, newNodeConfiguration());
+                }
+            });
+        }
 
         //register listeners - camera and other sensors
         mPublisher.registerListeners(this);
 
-        n.execute(mPublisher, nodeConfiguration);
+        n.execute(mPublisher, newNodeConfiguration());
+        if (mForwarder != null) {
+            mForwarder.start();
+        }
+    }
+
+    private NodeConfiguration newNodeConfiguration() {
+        NodeConfiguration nodeConfiguration = NodeConfiguration.newPublic(getRosHostname());
+        nodeConfiguration.setMasterUri(getMasterUri());
+        return nodeConfiguration;
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mForwarder != null) {
+            mForwarder.stop();
+        }
+        if (mPublisher != null) {
+            mPublisher.stopRecording();
+        }
+        super.onDestroy();
     }
 
     void initARCore(){
@@ -89,7 +168,12 @@ public class MainActivity extends RosActivity implements GLSurfaceView.Renderer
         surfaceView.setEGLContextClientVersion(2);
         surfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0); // Alpha used for plane blending.
         surfaceView.setRenderer(this);
-        surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        if (mHeadless) {
+            // only redrawn when the tracking thread asks for a preview frame
+            surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        } else {
+            surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        }
 
         maybeEnableArButton();
     }
@@ -98,6 +182,8 @@ public class MainActivity extends RosActivity implements GLSurfaceView.Renderer
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        mHeadless = getIntent().getBooleanExtra(EXTRA_HEADLESS, false);
+        mPreviewIntervalMs = getIntent().getIntExtra(EXTRA_PREVIEW_INTERVAL, DEFAULT_PREVIEW_INTERVAL_MS);
         initARCore();
     }
 
@@ -113,6 +199,56 @@ public class MainActivity extends RosActivity implements GLSurfaceView.Renderer
         } catch (IOException e) {
             Log.e("Surf", "Failed to read an asset file", e);
         }
+
+        if (mHeadless) {
+            // the tracking thread shares this context to reach the camera texture;
+            // (re)start it since the texture may have been recreated
+            mSharedContext = EGL14.eglGetCurrentContext();
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    stopTracking();
+                    startTracking();
+                }
+            });
+        }
+    }
+
+    /* Headless tracking, all called on the UI thread */
+    private void startTracking() {
+        if (!mHeadless || mTrackingThread != null || !mSessionResumed || mSharedContext == null) {
+            return;
+        }
+        mTrackingThread = new TrackingThread(mSession, displayRotationHelper, mSharedContext,
+                backgroundRenderer.getTextureId(), mUpdateLatency, new TrackingThread.Listener() {
+            @Override
+            public void onFrame(Frame frame) {
+                onTrackingFrame(frame);
+            }
+        });
+        mTrackingThread.start();
+    }
+
+    private void stopTracking() {
+        if (mTrackingThread != null) {
+            mTrackingThread.shutdown();
+            mTrackingThread = null;
+        }
+    }
+
+    /* Tracking thread */
+    private void onTrackingFrame(Frame frame) {
+        processFrame(frame);
+
+        if (mPreviewIntervalMs > 0) {
+            backgroundRenderer.updateDisplayGeometry(frame);
+            mHasFrame = true;
+            long now = SystemClock.uptimeMillis();
+            if (now - mLastPreviewMs >= mPreviewIntervalMs * PREVIEW_SCALE[mQualityLevel]) {
+                mLastPreviewMs = now;
+                surfaceView.requestRender();
+            }
+        }
     }
 
     @Override
@@ -129,6 +265,15 @@ public class MainActivity extends RosActivity implements GLSurfaceView.Renderer
         if (mSession == null) {
             return;
         }
+
+        if (mHeadless) {
+            // tracking happens elsewhere, just show the latest camera image
+            if (mHasFrame) {
+                backgroundRenderer.draw();
+            }
+            return;
+        }
+
         // Notify ARCore session that the view size changed so that the perspective matrix and
         // the video background can be properly adjusted.
         displayRotationHelper.updateSessionIfNeeded(mSession);
@@ -139,69 +284,17 @@ public class MainActivity extends RosActivity implements GLSurfaceView.Renderer
             // Obtain the current frame from ARSession. When the configuration is set to
             // UpdateMode.BLOCKING (it is by default), this will throttle the rendering to the
             // camera framerate.
+            long t0 = System.nanoTime();
             Frame frame = mSession.update();
-            Camera camera = frame.getCamera();
-
-            // get tracking pose + show
-            if(camera.getTrackingState() == TrackingState.TRACKING){
-
-                Pose pose = camera.getPose();
-                //Log.i("pose", pose.toString());
-
-                if(deviceToPhysical == null) {
-                    // Can be done once after camera permission is granted.
-//                    CameraManager cm = getSystemService(CameraManager.class);
-//                    int sensorOrientation = Arrays.stream(cm.getCameraIdList()).map((id) -> {
-//                        try {
-//                            if (cm.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING) ==
-//                                    CameraMetadata.LENS_FACING_BACK) {
-//                                return cm.getCameraCharacteristics(id).get(CameraCharacteristics.SENSOR_ORIENTATION);
-//                            }
-//                        } catch (CameraAccessException e) {
-//                            throw new RuntimeException(e);
-//                        }
-//                        return -1;
-//                    }).filter((orientation) -> orientation != -1).findFirst().orElse(0);
-//                    deviceToPhysical = Pose.makeInterpolated(
-//                            Pose.IDENTITY,
-//                            Pose.makeRotation(0, 0, -(float) Math.sqrt(0.5), (float) Math.sqrt(0.5)),
-//                            sensorOrientation / 90);
-                    deviceToPhysical = pose.inverse();
-                }
+            mUpdateLatency.record(System.nanoTime() - t0);
 
-                if(deviceToPhysical != null){
-                    //Pose cameraPose = camera.getPose().compose(deviceToPhysical);
-                    Pose cameraPose = deviceToPhysical.compose(pose);
-                    // Per frame.
-                    this.mPublisher.onOdomChanged(
-                            cameraPose.getTranslation(),
-                            cameraPose.getRotationQuaternion()
-                    );
-                }
-
-            }
+            processFrame(frame);
 
             // Draw background.
             backgroundRenderer.draw(frame);
 
-            // If not tracking, don't draw 3d objects.
-            if (camera.getTrackingState() == TrackingState.PAUSED) {
-                return;
-            }
-
-            // Get projection matrix.
-            float[] projmtx = new float[16];
-            camera.getProjectionMatrix(projmtx, 0, 0.1f, 100.0f);
-
-            // Get camera matrix and draw.
-            float[] viewmtx = new float[16];
-            camera.getViewMatrix(viewmtx, 0);
-
-            // Compute lighting from average intensity of the image.
-            // The first three components are color scaling factors.
-            // The last one is the average pixel intensity in gamma space.
-            final float[] colorCorrectionRgba = new float[4];
-            frame.getLightEstimate().getColorCorrection(colorCorrectionRgba, 0);
+            // No 3d objects are drawn, so the projection / view matrices and light estimate
+            // are not queried.
 
         } catch (Throwable t) {
             // Avoid crashing the application due to unhandled exceptions.
@@ -209,12 +302,48 @@ public class MainActivity extends RosActivity implements GLSurfaceView.Renderer
         }
     }
 
+    /* Pose extraction, on whichever thread calls Session.update() */
+    private void processFrame(Frame frame) {
+        Camera camera = frame.getCamera();
+        boolean tracking = camera.getTrackingState() == TrackingState.TRACKING;
+        if(mPublisher != null){
+            // covariance is inflated after tracking losses
+            mPublisher.onTrackingStateChanged(camera.getTrackingState());
+            // camera image goes out whether or not we are tracking
+            mPublisher.onCameraFrame(frame, mPoseTracker);
+        }
+
+        // get tracking pose + show
+        if(tracking){
+
+            // the only allocation left : ARCore has no in-place camera pose getter
+            Pose pose = camera.getPose();
+            //Log.i("pose", pose.toString());
+
+            // the first tracked pose becomes the odom origin
+            mPoseTracker.update(pose);
+
+            if(mPublisher != null){
+                // Per frame.
+                this.mPublisher.onOdomChanged(
+                        frame.getTimestamp(),
+                        mPoseTracker.getTranslation(),
+                        mPoseTracker.getRotation()
+                );
+            }
+
+        }
+    }
+
     @Override
     protected void onPause(){
         super.onPause();
 
         // stop ARCore?
         if(mSession != null) {
+            // tracking thread must stop calling update() before the session pauses
+            stopTracking();
+            mSessionResumed = false;
             displayRotationHelper.onPause();
             surfaceView.onPause();
             mSession.pause();
@@ -270,11 +399,13 @@ public class MainActivity extends RosActivity implements GLSurfaceView.Renderer
                 if(CameraPermissionHelper.hasCameraPermission(this)) {
                     mSession.setCameraTextureName(backgroundRenderer.getTextureId());
                     mSession.resume();
+                    mSessionResumed = true;
 
                     if(surfaceView != null) {
                         surfaceView.onResume();
                     }
                     displayRotationHelper.onResume();
+                    startTracking();
                 }
             }catch(CameraNotAvailableException e){
                 Toast.makeText(this, "TODO: handle exception " + e, Toast.LENGTH_LONG)
@@ -129,11 +129,7 @@ public class BackgroundRenderer {
    * @param frame The last {@code Frame} returned by {@link Session#update()}.
    */
   public void draw(Frame frame) {
-    // If display rotation changed (also includes view size change), we need to re-query the uv
-    // coordinates for the screen rect, as they may have changed as well.
-    if (frame.hasDisplayGeometryChanged()) {
-      frame.transformDisplayUvCoords(quadTexCoord, quadTexCoordTransformed);
-    }
+    updateDisplayGeometry(frame);
 
     if (frame.getTimestamp() == 0) {
       // Suppress rendering if the camera did not produce the first frame yet. This is to avoid
@@ -141,6 +137,28 @@ public class BackgroundRenderer {
       return;
     }
 
+    draw();
+  }
+
+  /**
+   * Re-queries the screen rect uv coordinates if the display geometry changed. Used together with
+   * {@link #draw()} when {@link Session#update()} runs on a different thread than the renderer.
+   *
+   * @param frame The last {@code Frame} returned by {@link Session#update()}.
+   */
+  public synchronized void updateDisplayGeometry(Frame frame) {
+    // If display rotation changed (also includes view size change), we need to re-query the uv
+    // coordinates for the screen rect, as they may have changed as well.
+    if (frame.hasDisplayGeometryChanged()) {
+      frame.transformDisplayUvCoords(quadTexCoord, quadTexCoordTransformed);
+    }
+  }
+
+  /**
+   * Draws whatever the camera texture currently holds, using the uv coordinates from the last
+   * {@link #updateDisplayGeometry(Frame)}.
+   */
+  public synchronized void draw() {
     // No need to test or write depth, the screen quad has arbitrary depth, and is expected
     // to be drawn first.
     GLES20.glDisable(GLES20.GL_DEPTH_TEST);
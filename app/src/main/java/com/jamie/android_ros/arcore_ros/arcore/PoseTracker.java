@@ -0,0 +1,87 @@
+package com.jamie.android_ros.arcore_ros.arcore;
+
+import com.google.ar.core.Pose;
+import com.jamie.android_ros.arcore_ros.ros.Quaternion;
+
+/**
+ * Expresses ARCore camera poses in the odometry frame, i.e. relative to the first tracked pose.
+ *
+ * All math runs on preallocated primitives; apart from the {@link Pose} ARCore hands out, nothing
+ * is allocated per frame. Not thread-safe, use it from the thread that calls Session.update().
+ */
+public class PoseTracker {
+    // odom <- ARCore world, the inverse of the first tracked pose
+    private final Quaternion originRot = new Quaternion(1, 0, 0, 0);
+    private final float[] originTxn = new float[3];
+    private boolean hasOrigin = false;
+
+    // scratch
+    private final float[] poseTxn = new float[3];
+    private final float[] poseRxn = new float[4]; // x,y,z,w
+    private final Quaternion poseRot = new Quaternion(1, 0, 0, 0);
+
+    // latest camera pose in the odom frame
+    private final float[] txn = new float[3];
+    private final float[] rxn = new float[4]; // x,y,z,w
+    private final Quaternion rot = new Quaternion(1, 0, 0, 0);
+
+    /**
+     * Updates the odom-frame pose from a tracked ARCore pose. The first call defines the origin.
+     */
+    public void update(Pose pose) {
+        pose.getTranslation(poseTxn, 0);
+        pose.getRotationQuaternion(poseRxn, 0);
+        poseRot.set(poseRxn[3], poseRxn[0], poseRxn[1], poseRxn[2]);
+
+        if (!hasOrigin) {
+            // origin = pose^-1 : R = q^-1, t = -(q^-1 * p)
+            poseRot.conjugate(originRot);
+            originRot.rotate(poseTxn, 0, originTxn, 0);
+            originTxn[0] = -originTxn[0];
+            originTxn[1] = -originTxn[1];
+            originTxn[2] = -originTxn[2];
+            hasOrigin = true;
+        }
+
+        // origin.compose(pose)
+        originRot.mul(poseRot, rot);
+        transformPoint(poseTxn, 0, txn, 0);
+
+        rxn[0] = rot.x;
+        rxn[1] = rot.y;
+        rxn[2] = rot.z;
+        rxn[3] = rot.w;
+    }
+
+    /** Maps a point from the ARCore world frame into the odom frame; may alias. */
+    public void transformPoint(float[] in, int off, float[] out, int outOff) {
+        originRot.rotate(in, off, out, outOff);
+        out[outOff] += originTxn[0];
+        out[outOff + 1] += originTxn[1];
+        out[outOff + 2] += originTxn[2];
+    }
+
+    /** Forgets the origin; the next tracked pose becomes the new one. */
+    public void reset() {
+        hasOrigin = false;
+    }
+
+    public boolean hasOrigin() {
+        return hasOrigin;
+    }
+
+    /** Translation in the odom frame {x,y,z}. The array is reused. */
+    public float[] getTranslation() {
+        return txn;
+    }
+
+    /** Rotation in the odom frame {x,y,z,w}. The array is reused. */
+    public float[] getRotation() {
+        return rxn;
+    }
+
+    /** Rotation from the ARCore world frame to the odom frame. */
+    public Quaternion getOriginRotation() {
+        return originRot;
+    }
+}
@@ -0,0 +1,169 @@
+package com.jamie.android_ros.arcore_ros.arcore;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.util.Log;
+
+import com.google.ar.core.Config;
+import com.google.ar.core.Frame;
+import com.google.ar.core.Session;
+import com.jamie.android_ros.arcore_ros.ros.LatencyHistogram;
+
+/**
+ * Runs {@link Session#update()} on a dedicated thread instead of the GLSurfaceView renderer, so
+ * that pose output is no longer tied to display vsync or rendering hiccups.
+ *
+ * ARCore writes the camera image into the session's camera texture during update(), so the thread
+ * owns an offscreen (1x1 pbuffer) EGL context. The context is shared with the preview renderer's
+ * context, which lets the preview draw the same texture at whatever rate it likes.
+ *
+ * The session is switched to {@link Config.UpdateMode#LATEST_CAMERA_IMAGE}; update() then returns
+ * immediately, and frames whose timestamp did not change are skipped.
+ */
+public class TrackingThread extends Thread {
+    private static final String TAG = TrackingThread.class.getSimpleName();
+
+    public interface Listener {
+        /** Called on the tracking thread for every new camera frame. */
+        void onFrame(Frame frame);
+    }
+
+    // how long to back off when no new camera image is available yet
+    private static final long IDLE_SLEEP_MS = 2;
+
+    private final Session session;
+    private final DisplayRotationHelper displayRotationHelper;
+    private final EGLContext sharedContext;
+    private final int textureId;
+    private final LatencyHistogram updateLatency;
+    private final Listener listener;
+
+    private volatile boolean running = true;
+
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+
+    /**
+     * @param sharedContext context of the preview renderer, which owns {@code textureId}
+     * @param textureId camera texture, created with {@link BackgroundRenderer#createOnGlThread}
+     * @param updateLatency receives the duration of every {@link Session#update()}
+     */
+    public TrackingThread(Session session, DisplayRotationHelper displayRotationHelper,
+                          EGLContext sharedContext, int textureId, LatencyHistogram updateLatency,
+                          Listener listener) {
+        super("ARCoreTracking");
+        this.session = session;
+        this.displayRotationHelper = displayRotationHelper;
+        this.sharedContext = sharedContext;
+        this.textureId = textureId;
+        this.updateLatency = updateLatency;
+        this.listener = listener;
+    }
+
+    /** Stops the loop and waits for it, must be called before {@link Session#pause()}. */
+    public void shutdown() {
+        running = false;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!initEgl()) {
+            releaseEgl();
+            return;
+        }
+        try {
+            Config config = session.getConfig();
+            config.setUpdateMode(Config.UpdateMode.LATEST_CAMERA_IMAGE);
+            session.configure(config);
+            session.setCameraTextureName(textureId);
+
+            long lastTimestamp = 0;
+            while (running) {
+                displayRotationHelper.updateSessionIfNeeded(session);
+                long t0 = System.nanoTime();
+                Frame frame = session.update();
+                updateLatency.record(System.nanoTime() - t0);
+                long timestamp = frame.getTimestamp();
+                if (timestamp == 0 || timestamp == lastTimestamp) {
+                    Thread.sleep(IDLE_SLEEP_MS);
+                    continue;
+                }
+                lastTimestamp = timestamp;
+                listener.onFrame(frame);
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        } catch (Throwable t) {
+            Log.e(TAG, "Exception on the tracking thread", t);
+        } finally {
+            releaseEgl();
+        }
+    }
+
+    private boolean initEgl() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            Log.e(TAG, "eglInitialize failed");
+            return false;
+        }
+
+        int[] attribs = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, attribs, 0, configs, 0, 1, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            Log.e(TAG, "No pbuffer EGL config");
+            return false;
+        }
+
+        int[] contextAttribs = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        eglContext = EGL14.eglCreateContext(eglDisplay, configs[0], sharedContext, contextAttribs, 0);
+        if (eglContext == EGL14.EGL_NO_CONTEXT) {
+            Log.e(TAG, "eglCreateContext failed");
+            return false;
+        }
+
+        int[] surfaceAttribs = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+        eglSurface = EGL14.eglCreatePbufferSurface(eglDisplay, configs[0], surfaceAttribs, 0);
+        if (eglSurface == EGL14.EGL_NO_SURFACE) {
+            Log.e(TAG, "eglCreatePbufferSurface failed");
+            return false;
+        }
+        return EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+    }
+
+    private void releaseEgl() {
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                EGL14.EGL_NO_CONTEXT);
+        if (eglSurface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglDestroySurface(eglDisplay, eglSurface);
+        }
+        if (eglContext != EGL14.EGL_NO_CONTEXT) {
+            EGL14.eglDestroyContext(eglDisplay, eglContext);
+        }
+        eglSurface = EGL14.EGL_NO_SURFACE;
+        eglContext = EGL14.EGL_NO_CONTEXT;
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+    }
+}
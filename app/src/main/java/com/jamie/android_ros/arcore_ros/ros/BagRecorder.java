@@ -0,0 +1,602 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import android.util.Log;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.internal.message.DefaultMessageSerializer;
+import org.ros.internal.message.Md5Generator;
+import org.ros.internal.message.Message;
+import org.ros.internal.message.MessageBuffers;
+import org.ros.internal.message.RawMessage;
+import org.ros.internal.message.definition.MessageDefinitionReflectionProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records published messages to rosbag v2.0 files on the device, so nothing is lost while the
+ * link to the ROS master is down.
+ *
+ * {@link #record} serializes the message on the caller's thread into a pooled buffer and queues
+ * it; it never blocks, and drops the message when the pool or the in-flight byte budget is
+ * exhausted. A single writer thread appends the records straight into a memory-mapped window of
+ * the current segment file: uncompressed chunks, each followed by its index records. When a
+ * segment reaches {@code segmentBytes} it is finished (connection and chunk info records, then
+ * the bag header pointing at them) and the next one is started, so every closed segment is a
+ * complete, indexed bag that `rosbag play` reads as is.
+ */
+public class BagRecorder implements MessageSink {
+    private static final String TAG = "BagRecorder";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] MAGIC = bytes("#ROSBAG V2.0\n");
+
+    private static final byte OP_MSG_DATA = 0x02;
+    private static final byte OP_BAG_HEADER = 0x03;
+    private static final byte OP_INDEX_DATA = 0x04;
+    private static final byte OP_CHUNK = 0x05;
+    private static final byte OP_CHUNK_INFO = 0x06;
+    private static final byte OP_CONNECTION = 0x07;
+    private static final int BAG_HEADER_LENGTH = 4096; // padded, rewritten in place on close
+
+    private static final byte[] OP = bytes("op=");
+    private static final byte[] CONN = bytes("conn=");
+    private static final byte[] TIME = bytes("time=");
+    private static final byte[] VER = bytes("ver=");
+    private static final byte[] COUNT = bytes("count=");
+    private static final byte[] TOPIC = bytes("topic=");
+    private static final byte[] SIZE = bytes("size=");
+    private static final byte[] COMPRESSION_NONE = bytes("compression=none");
+    private static final byte[] CHUNK_POS = bytes("chunk_pos=");
+    private static final byte[] START_TIME = bytes("start_time=");
+    private static final byte[] END_TIME = bytes("end_time=");
+    private static final byte[] INDEX_POS = bytes("index_pos=");
+    private static final byte[] CONN_COUNT = bytes("conn_count=");
+    private static final byte[] CHUNK_COUNT = bytes("chunk_count=");
+
+    private static final long MAP_WINDOW = 32L << 20;
+    private static final int POOL_SIZE = 128;
+    // pooled buffers keep their capacity; past this total, large ones are given back to the GC
+    private static final long MAX_RETAINED_BYTES = 16L << 20;
+    private static final int SMALL_BUFFER = 64 << 10;
+    private static final long CHUNK_IDLE_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private final File directory;
+    private final String prefix;
+    private final long segmentBytes;
+    private final int chunkBytes;
+    private final long maxPendingBytes;
+
+    private final DefaultMessageSerializer serializer = new DefaultMessageSerializer();
+    private final Md5Generator md5Generator = new Md5Generator(new MessageDefinitionReflectionProvider());
+    private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<>();
+    private final List<Connection> connectionList = new ArrayList<>(); // writer thread only
+
+    private final ArrayBlockingQueue<Entry> free = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ArrayBlockingQueue<Entry> queue = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long written = 0;
+    private volatile int segments = 0;
+
+    private final Thread writer;
+    private volatile boolean running = false;
+
+    private static class Connection {
+        final int id;
+        final String topic;
+        final byte[] header; // connection header : topic, type, md5sum, message_definition
+
+        // segment / chunk bookkeeping, writer thread only
+        boolean inSegment;
+        int chunkCount;
+        long[] chunkTimes = new long[64];
+        int[] chunkOffsets = new int[64];
+
+        Connection(int id, String topic, byte[] header) {
+            this.id = id;
+            this.topic = topic;
+            this.header = header;
+        }
+    }
+
+    private static class Entry {
+        Connection connection;
+        long stamp;
+        ChannelBuffer data = MessageBuffers.dynamicBuffer();
+        int capacity; // as last seen by the writer
+    }
+    private long retainedBytes; // writer thread only
+
+    private static class ChunkInfo {
+        long position, start, end;
+        int[] connections, counts;
+    }
+
+    // segment state, writer thread only
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private ByteBuffer mapView;
+    private long mapStart;
+    private long pos;
+    private final List<ChunkInfo> chunkInfos = new ArrayList<>();
+
+    // open chunk
+    private boolean chunkOpen;
+    private long chunkPos, chunkSizePos, chunkDataLenPos, chunkDataStart;
+    private long chunkStart, chunkEnd;
+    private long chunkOpenedNs;
+    private final List<Connection> chunkConnections = new ArrayList<>();
+
+    /**
+     * @param segmentBytes size after which a new file is started
+     * @param chunkBytes uncompressed chunk size
+     * @param maxPendingBytes serialized bytes allowed to wait for the writer
+     */
+    public BagRecorder(File directory, String prefix, long segmentBytes, int chunkBytes, long maxPendingBytes) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentBytes = segmentBytes;
+        this.chunkBytes = chunkBytes;
+        this.maxPendingBytes = maxPendingBytes;
+        for (int i = 0; i < POOL_SIZE; ++i) {
+            free.add(new Entry());
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "BagRecorder");
+        writer.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    public BagRecorder(File directory, String prefix) {
+        this(directory, prefix, 512L << 20, 1 << 20, 32L << 20);
+    }
+
+    public void start() {
+        running = true;
+        writer.start();
+    }
+
+    /**
+     * Finishes the current segment once everything queued is written. The writer notices within
+     * one poll; it is not interrupted, since an interrupt during a channel write or map closes the
+     * channel and the segment would be left without its index.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Serializes {@code msg} and queues it for writing. Never blocks; safe from any thread.
+     * @param stamp receive time in ROS nanoseconds
+     * @return false if the message was dropped
+     */
+    @Override
+    public boolean record(String topic, Message msg, long stamp) {
+        if (!running) {
+            return false;
+        }
+        Connection c = connections.get(topic);
+        if (c == null) {
+            c = newConnection(topic, msg);
+        }
+        Entry e = free.poll();
+        if (e == null) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        e.data.clear();
+        serializer.serialize(msg, e.data);
+        int n = e.data.readableBytes();
+        if (pendingBytes.addAndGet(n) > maxPendingBytes) {
+            pendingBytes.addAndGet(-n);
+            free.offer(e);
+            dropped.incrementAndGet();
+            return false;
+        }
+        e.connection = c;
+        e.stamp = stamp;
+        queue.offer(e); // never full, there are only POOL_SIZE entries
+        return true;
+    }
+
+    private synchronized Connection newConnection(String topic, Message msg) {
+        Connection c = connections.get(topic);
+        if (c != null) {
+            return c;
+        }
+        RawMessage raw = msg.toRawMessage();
+        String type = raw.getType();
+        byte[][] fields = {
+                field("topic", topic.getBytes(ASCII)),
+                field("type", type.getBytes(ASCII)),
+                field("md5sum", md5Generator.generate(type).getBytes(ASCII)),
+                field("message_definition", raw.getDefinition().getBytes(Charset.forName("UTF-8"))),
+        };
+        int n = 0;
+        for (byte[] f : fields) {
+            n += f.length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(n);
+        for (byte[] f : fields) {
+            header.put(f);
+        }
+        c = new Connection(connections.size(), topic, header.array());
+        connections.put(topic, c);
+        return c;
+    }
+
+    /** Length-prefixed name=value. */
+    private static byte[] field(String name, byte[] value) {
+        byte[] n = name.getBytes(ASCII);
+        ByteBuffer b = ByteBuffer.allocate(4 + n.length + 1 + value.length).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(n.length + 1 + value.length).put(n).put((byte) '=').put(value);
+        return b.array();
+    }
+
+    @Override
+    public boolean isRecording() {
+        return running;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWrittenBytes() {
+        return written;
+    }
+
+    public int getSegmentCount() {
+        return segments;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /* Writer thread */
+
+    private void writeLoop() {
+        try {
+            while (running || !queue.isEmpty()) {
+                Entry e;
+                try {
+                    e = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    continue; // nobody interrupts the writer; stop() clears running instead
+                }
+                if (e == null) {
+                    if (chunkOpen && System.nanoTime() - chunkOpenedNs > CHUNK_IDLE_NS) {
+                        closeChunk(); // keep the unindexed tail short
+                    }
+                    continue;
+                }
+                int n = e.data.readableBytes();
+                try {
+                    write(e);
+                } finally {
+                    pendingBytes.addAndGet(-n);
+                    recycle(e);
+                }
+            }
+            closeSegment();
+        } catch (IOException ex) {
+            Log.e(TAG, "Recording stopped", ex);
+            running = false;
+        }
+    }
+
+    private void recycle(Entry e) {
+        int cap = e.data.capacity();
+        retainedBytes += cap - e.capacity;
+        e.capacity = cap;
+        if (retainedBytes > MAX_RETAINED_BYTES && cap > SMALL_BUFFER) {
+            e.data = MessageBuffers.dynamicBuffer();
+            retainedBytes -= cap;
+            e.capacity = 0;
+        }
+        free.offer(e);
+    }
+
+    private void write(Entry e) throws IOException {
+        int n = e.data.readableBytes();
+        if (channel != null && pos + n > segmentBytes && !chunkInfos.isEmpty()) {
+            closeSegment();
+        }
+        if (channel == null) {
+            openSegment();
+        }
+        if (!chunkOpen) {
+            openChunk();
+        }
+
+        Connection c = e.connection;
+        if (!c.inSegment) {
+            c.inSegment = true;
+            connectionList.add(c);
+            writeConnection(c);
+        }
+        if (c.chunkCount == 0) {
+            chunkConnections.add(c);
+        }
+        if (c.chunkCount == c.chunkTimes.length) {
+            c.chunkTimes = java.util.Arrays.copyOf(c.chunkTimes, c.chunkCount * 2);
+            c.chunkOffsets = java.util.Arrays.copyOf(c.chunkOffsets, c.chunkCount * 2);
+        }
+        c.chunkTimes[c.chunkCount] = e.stamp;
+        c.chunkOffsets[c.chunkCount] = (int) (pos - chunkDataStart);
+        ++c.chunkCount;
+        chunkStart = Math.min(chunkStart, e.stamp);
+        chunkEnd = Math.max(chunkEnd, e.stamp);
+
+        // message data record : conn, op, time | serialized message
+        ensure(64 + n);
+        long headerLen = pos;
+        putInt(0);
+        putIntField(CONN, c.id);
+        putOpField(OP_MSG_DATA);
+        putTimeField(TIME, e.stamp);
+        patchInt(headerLen, (int) (pos - headerLen - 4));
+        putInt(n);
+        mapView.limit((int) (pos - mapStart) + n).position((int) (pos - mapStart));
+        e.data.getBytes(e.data.readerIndex(), mapView);
+        pos += n;
+        written += n;
+
+        if (pos - chunkDataStart >= chunkBytes) {
+            closeChunk();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File f = new File(directory, String.format("%s_%03d.bag", prefix, segments));
+        file = new RandomAccessFile(f, "rw");
+        channel = file.getChannel();
+        pos = 0;
+        mapAt(0, MAP_WINDOW);
+        ensure(MAGIC.length);
+        putBytes(MAGIC);
+        writeBagHeader(0, 0, 0);
+        ++segments;
+        Log.i(TAG, "Recording to " + f);
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        closeChunk();
+        long indexPos = pos;
+        for (Connection c : connectionList) {
+            writeConnection(c);
+        }
+        for (ChunkInfo ci : chunkInfos) {
+            ensure(128 + ci.connections.length * 8);
+            long headerLen = pos;
+            putInt(0);
+            putOpField(OP_CHUNK_INFO);
+            putIntField(VER, 1);
+            putLongField(CHUNK_POS, ci.position);
+            putTimeField(START_TIME, ci.start);
+            putTimeField(END_TIME, ci.end);
+            putIntField(COUNT, ci.connections.length);
+            patchInt(headerLen, (int) (pos - headerLen - 4));
+            putInt(ci.connections.length * 8);
+            for (int i = 0; i < ci.connections.length; ++i) {
+                putInt(ci.connections[i]);
+                putInt(ci.counts[i]);
+            }
+        }
+        long end = pos;
+        pos = MAGIC.length;
+        writeBagHeader(indexPos, connectionList.size(), chunkInfos.size());
+
+        map.force();
+        channel.truncate(end);
+        channel.close();
+        file.close();
+        channel = null;
+        file = null;
+        map = null;
+        mapView = null;
+        for (Connection c : connectionList) {
+            c.inSegment = false;
+        }
+        connectionList.clear();
+        chunkInfos.clear();
+    }
+
+    private void writeBagHeader(long indexPos, int connCount, int chunkCount) throws IOException {
+        long start = pos;
+        if (start < mapStart) {
+            // closing a segment longer than one window : rewrite the header through a fresh mapping
+            map.force();
+            mapAt(0, BAG_HEADER_LENGTH + MAGIC.length);
+        }
+        long headerLen = pos;
+        putInt(0);
+        putOpField(OP_BAG_HEADER);
+        putLongField(INDEX_POS, indexPos);
+        putIntField(CONN_COUNT, connCount);
+        putIntField(CHUNK_COUNT, chunkCount);
+        patchInt(headerLen, (int) (pos - headerLen - 4));
+        int padding = (int) (start + BAG_HEADER_LENGTH - pos - 4);
+        putInt(padding);
+        for (int i = 0; i < padding; ++i) {
+            map.put((int) (pos - mapStart) + i, (byte) ' ');
+        }
+        pos += padding;
+    }
+
+    private void writeConnection(Connection c) throws IOException {
+        byte[] topic = c.topic.getBytes(ASCII);
+        ensure(64 + topic.length + c.header.length);
+        long headerLen = pos;
+        putInt(0);
+        putOpField(OP_CONNECTION);
+        putIntField(CONN, c.id);
+        putInt(TOPIC.length + topic.length);
+        putBytes(TOPIC);
+        putBytes(topic);
+        patchInt(headerLen, (int) (pos - headerLen - 4));
+        putInt(c.header.length);
+        putBytes(c.header);
+    }
+
+    private void openChunk() throws IOException {
+        ensure(64);
+        chunkPos = pos;
+        long headerLen = pos;
+        putInt(0);
+        putInt(COMPRESSION_NONE.length);
+        putBytes(COMPRESSION_NONE);
+        putOpField(OP_CHUNK);
+        putInt(SIZE.length + 4);
+        putBytes(SIZE);
+        chunkSizePos = pos;
+        putInt(0);
+        patchInt(headerLen, (int) (pos - headerLen - 4));
+        chunkDataLenPos = pos;
+        putInt(0);
+        chunkDataStart = pos;
+        chunkStart = Long.MAX_VALUE;
+        chunkEnd = Long.MIN_VALUE;
+        chunkOpen = true;
+        chunkOpenedNs = System.nanoTime();
+    }
+
+    private void closeChunk() throws IOException {
+        if (!chunkOpen) {
+            return;
+        }
+        chunkOpen = false;
+        int size = (int) (pos - chunkDataStart);
+        patchInt(chunkSizePos, size);
+        patchInt(chunkDataLenPos, size);
+
+        ChunkInfo ci = new ChunkInfo();
+        ci.position = chunkPos;
+        ci.start = chunkStart;
+        ci.end = chunkEnd;
+        ci.connections = new int[chunkConnections.size()];
+        ci.counts = new int[chunkConnections.size()];
+        for (int i = 0; i < chunkConnections.size(); ++i) {
+            Connection c = chunkConnections.get(i);
+            ci.connections[i] = c.id;
+            ci.counts[i] = c.chunkCount;
+
+            // index data record : ver, conn, count | (time, offset) per message
+            ensure(64 + c.chunkCount * 12);
+            long headerLen = pos;
+            putInt(0);
+            putOpField(OP_INDEX_DATA);
+            putIntField(VER, 1);
+            putIntField(CONN, c.id);
+            putIntField(COUNT, c.chunkCount);
+            patchInt(headerLen, (int) (pos - headerLen - 4));
+            putInt(c.chunkCount * 12);
+            for (int k = 0; k < c.chunkCount; ++k) {
+                putTime(c.chunkTimes[k]);
+                putInt(c.chunkOffsets[k]);
+            }
+            c.chunkCount = 0;
+        }
+        chunkConnections.clear();
+        chunkInfos.add(ci);
+    }
+
+    /* Raw writes into the mapped window */
+
+    private void mapAt(long position, long size) throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        mapView = map.duplicate();
+        mapStart = position;
+    }
+
+    /** Makes sure the next {@code n} bytes fall inside the mapped window. */
+    private void ensure(long n) throws IOException {
+        if (pos + n > mapStart + map.capacity()) {
+            map.force();
+            mapAt(pos, Math.max(MAP_WINDOW, n));
+        }
+    }
+
+    private void putInt(int v) {
+        map.putInt((int) (pos - mapStart), v);
+        pos += 4;
+    }
+
+    private void putBytes(byte[] b) {
+        mapView.limit((int) (pos - mapStart) + b.length).position((int) (pos - mapStart));
+        mapView.put(b);
+        pos += b.length;
+    }
+
+    private void putTime(long stamp) {
+        putInt((int) (stamp / 1000000000L));
+        putInt((int) (stamp % 1000000000L));
+    }
+
+    private void putOpField(byte op) {
+        putInt(OP.length + 1);
+        putBytes(OP);
+        map.put((int) (pos - mapStart), op);
+        pos += 1;
+    }
+
+    /* name includes the '=' */
+
+    private void putIntField(byte[] name, int v) {
+        putInt(name.length + 4);
+        putBytes(name);
+        putInt(v);
+    }
+
+    private void putLongField(byte[] name, long v) {
+        putInt(name.length + 8);
+        putBytes(name);
+        map.putLong((int) (pos - mapStart), v);
+        pos += 8;
+    }
+
+    private void putTimeField(byte[] name, long stamp) {
+        putInt(name.length + 8);
+        putBytes(name);
+        putTime(stamp);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(ASCII);
+    }
+
+    /** Backpatches an int written earlier, possibly before the current window. */
+    private void patchInt(long at, int v) throws IOException {
+        if (at >= mapStart) {
+            map.putInt((int) (at - mapStart), v);
+        } else {
+            ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(v).flip();
+            channel.write(b, at);
+        }
+    }
+}
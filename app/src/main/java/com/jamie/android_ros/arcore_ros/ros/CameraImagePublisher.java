@@ -0,0 +1,288 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.util.Log;
+
+import com.google.ar.core.CameraIntrinsics;
+import com.google.ar.core.Frame;
+import com.google.ar.core.exceptions.NotYetAvailableException;
+
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.ros.internal.message.MessageBuffers;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import sensor_msgs.CameraInfo;
+import sensor_msgs.CompressedImage;
+
+/**
+ * Publishes the ARCore camera image as sensor_msgs/CompressedImage (JPEG) plus CameraInfo.
+ *
+ * The thread that calls Session.update() only copies the YUV planes out of
+ * {@link Frame#acquireCameraImage()} into a recycled slot and releases the image; conversion and
+ * JPEG encoding run on a single encoder thread, which also publishes, so images and their
+ * CameraInfo go out in stamp order and in pairs. Only the newest captured frame is kept waiting for
+ * the encoder, so when encoding or the network falls behind, old frames are dropped instead of
+ * queued.
+ */
+public class CameraImagePublisher {
+    private static final String TAG = "CameraImagePublisher";
+    // one being encoded, one waiting, one being filled
+    private static final int NUM_SLOTS = 3;
+
+    private final Publisher<CompressedImage> imagePublisher;
+    private final Publisher<CameraInfo> infoPublisher;
+    private final ClockService clock;
+
+    private final ExecutorService encoder;
+    private final ArrayBlockingQueue<Slot> freeSlots = new ArrayBlockingQueue<>(NUM_SLOTS);
+    private final AtomicReference<Slot> pending = new AtomicReference<>();
+
+    private volatile double maxRate = 10.0; // Hz, 0 for every frame
+    private volatile int quality = 80;
+    private volatile int downsample = 1; // 1, 2 or 4
+    private long lastCaptureNs = 0;
+
+    private volatile long dropped = 0;
+    private volatile MessageSink recorder;
+    private final TopicStats stats = new TopicStats();
+
+    /** Raw YUV_420_888 planes of one camera image plus what is needed to publish it. */
+    private static class Slot {
+        long timestamp;
+        int width, height;
+        int yRowStride, uvRowStride, uvPixelStride;
+        byte[] y = new byte[0], u = new byte[0], v = new byte[0];
+        byte[] nv21 = new byte[0];
+        float fx, fy, cx, cy;
+        int intrinsicsWidth, intrinsicsHeight;
+    }
+
+    public CameraImagePublisher(ConnectedNode connectedNode, ClockService clock) {
+        this.imagePublisher = connectedNode.newPublisher("android/camera/image_raw/compressed",
+                CompressedImage._TYPE);
+        this.infoPublisher = connectedNode.newPublisher("android/camera/camera_info",
+                CameraInfo._TYPE);
+        this.clock = clock;
+        this.encoder = Executors.newSingleThreadExecutor();
+        for (int i = 0; i < NUM_SLOTS; ++i) {
+            freeSlots.add(new Slot());
+        }
+    }
+
+    public void setMaxRate(double hz) {
+        maxRate = hz;
+    }
+
+    public void setQuality(int q) {
+        quality = Math.max(1, Math.min(100, q));
+    }
+
+    /** Integer decimation of the published image; 1 keeps the camera resolution. */
+    public void setDownsample(int factor) {
+        downsample = factor >= 4 ? 4 : (factor >= 2 ? 2 : 1);
+    }
+
+    /** Frames skipped because a newer one replaced them or no slot was free. */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /** Rate and latency of the compressed images. */
+    public TopicStats getStats() {
+        return stats;
+    }
+
+    /** Also writes every published message to {@code recorder}; null to stop. */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    private boolean isRecording() {
+        MessageSink r = recorder;
+        return r != null && r.isRecording();
+    }
+
+    public void shutdown() {
+        encoder.shutdownNow();
+    }
+
+    /** Call on the thread that runs Session.update(), right after it. */
+    public void onFrame(Frame frame) {
+        if (imagePublisher.getNumberOfSubscribers() == 0 && infoPublisher.getNumberOfSubscribers() == 0
+                && !isRecording()) {
+            return;
+        }
+        long ts = frame.getTimestamp();
+        double rate = maxRate;
+        if (rate > 0 && ts - lastCaptureNs < (long) (1e9 / rate)) {
+            return;
+        }
+
+        Slot slot = freeSlots.poll();
+        if (slot == null) {
+            ++dropped;
+            return;
+        }
+
+        Image image = null;
+        try {
+            image = frame.acquireCameraImage();
+            copyPlanes(image, slot);
+        } catch (NotYetAvailableException e) {
+            freeSlots.offer(slot);
+            return;
+        } finally {
+            // give the image back to ARCore as early as possible
+            if (image != null) {
+                image.close();
+            }
+        }
+        lastCaptureNs = ts;
+        slot.timestamp = ts;
+
+        CameraIntrinsics intrinsics = frame.getCamera().getImageIntrinsics();
+        float[] f = intrinsics.getFocalLength();
+        float[] c = intrinsics.getPrincipalPoint();
+        int[] dims = intrinsics.getImageDimensions();
+        slot.fx = f[0];
+        slot.fy = f[1];
+        slot.cx = c[0];
+        slot.cy = c[1];
+        slot.intrinsicsWidth = dims[0];
+        slot.intrinsicsHeight = dims[1];
+
+        // newest frame wins; whatever was still waiting is dropped
+        Slot old = pending.getAndSet(slot);
+        if (old != null) {
+            ++dropped;
+            freeSlots.offer(old);
+        } else {
+            encoder.execute(encodeTask);
+        }
+    }
+
+    private static void copyPlanes(Image image, Slot slot) {
+        Image.Plane[] planes = image.getPlanes();
+        slot.width = image.getWidth();
+        slot.height = image.getHeight();
+        slot.yRowStride = planes[0].getRowStride();
+        slot.uvRowStride = planes[1].getRowStride();
+        slot.uvPixelStride = planes[1].getPixelStride();
+        slot.y = copy(planes[0].getBuffer(), slot.y);
+        slot.u = copy(planes[1].getBuffer(), slot.u);
+        slot.v = copy(planes[2].getBuffer(), slot.v);
+    }
+
+    private static byte[] copy(ByteBuffer src, byte[] dst) {
+        src.rewind();
+        int n = src.remaining();
+        if (dst.length < n) {
+            dst = new byte[n]; // only until the slot has seen a full-size image
+        }
+        src.get(dst, 0, n);
+        return dst;
+    }
+
+    private final Runnable encodeTask = new Runnable() {
+        @Override
+        public void run() {
+            Slot slot = pending.getAndSet(null);
+            if (slot == null) {
+                return;
+            }
+            try {
+                encode(slot);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to encode camera image", e);
+            } finally {
+                freeSlots.offer(slot);
+            }
+        }
+    };
+
+    private void encode(Slot slot) throws Exception {
+        int f = downsample;
+        int w = (slot.width / f) & ~1;
+        int h = (slot.height / f) & ~1;
+        toNv21(slot, f, w, h);
+
+        long stamp = clock.toRos(ClockService.CAMERA, slot.timestamp);
+
+        CompressedImage image = imagePublisher.newMessage();
+        Utilities.setHeader(image.getHeader(), Frames.CAMERA_OPTICAL, stamp);
+        image.setFormat("jpeg");
+        ChannelBufferOutputStream stream = new ChannelBufferOutputStream(MessageBuffers.dynamicBuffer());
+        new YuvImage(slot.nv21, ImageFormat.NV21, w, h, null)
+                .compressToJpeg(new Rect(0, 0, w, h), quality, stream);
+        image.setData(stream.buffer().copy());
+        imagePublisher.publish(image);
+        stats.published(clock.now() - stamp);
+
+        CameraInfo info = infoPublisher.newMessage();
+        Utilities.setHeader(info.getHeader(), Frames.CAMERA_OPTICAL, stamp);
+        fillCameraInfo(info, slot, w, h);
+        infoPublisher.publish(info);
+
+        MessageSink r = recorder;
+        if (r != null) {
+            r.record(imagePublisher.getTopicName().toString(), image, stamp);
+            r.record(infoPublisher.getTopicName().toString(), info, stamp);
+        }
+    }
+
+    /** Interleaves the planes into NV21 (Y, then VU pairs), decimating by {@code f}. */
+    private static void toNv21(Slot slot, int f, int w, int h) {
+        int size = w * h * 3 / 2;
+        if (slot.nv21.length < size) {
+            slot.nv21 = new byte[size];
+        }
+        byte[] out = slot.nv21;
+
+        int o = 0;
+        for (int r = 0; r < h; ++r) {
+            int row = r * f * slot.yRowStride;
+            if (f == 1) {
+                System.arraycopy(slot.y, row, out, o, w);
+                o += w;
+            } else {
+                for (int c = 0; c < w; ++c) {
+                    out[o++] = slot.y[row + c * f];
+                }
+            }
+        }
+        for (int r = 0; r < h / 2; ++r) {
+            int row = r * f * slot.uvRowStride;
+            for (int c = 0; c < w / 2; ++c) {
+                int i = row + c * f * slot.uvPixelStride;
+                out[o++] = slot.v[i];
+                out[o++] = slot.u[i];
+            }
+        }
+    }
+
+    private static void fillCameraInfo(CameraInfo info, Slot slot, int w, int h) {
+        // intrinsics are given for the CPU image, rescale them to what is published
+        double sx = (double) w / slot.intrinsicsWidth;
+        double sy = (double) h / slot.intrinsicsHeight;
+        double fx = slot.fx * sx, fy = slot.fy * sy;
+        double cx = slot.cx * sx, cy = slot.cy * sy;
+
+        info.setWidth(w);
+        info.setHeight(h);
+        info.setDistortionModel("plumb_bob");
+        info.setD(new double[]{0, 0, 0, 0, 0}); // ARCore reports no distortion
+        info.setK(new double[]{fx, 0, cx, 0, fy, cy, 0, 0, 1});
+        info.setR(new double[]{1, 0, 0, 0, 1, 0, 0, 0, 1});
+        info.setP(new double[]{fx, 0, cx, 0, 0, fy, cy, 0, 0, 0, 1, 0});
+    }
+}
@@ -0,0 +1,54 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import android.hardware.GeomagneticField;
+
+/**
+ * Magnetic declination for the current location, recomputed only when the location leaves its
+ * cell or the day changes.
+ *
+ * GeomagneticField evaluates the full World Magnetic Model in its constructor, while declination
+ * varies by well under a degree across a cell of {@link #CELL_DEG} degrees, so one evaluation per
+ * cell and day is plenty. Updated from the location callback, read from the sensor thread.
+ */
+public class DeclinationCache {
+    private static final double CELL_DEG = 0.5;
+    private static final double CELL_ALT = 1000.0; // m
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private long cellKey = Long.MIN_VALUE;
+    private volatile float declination = 0f; // radians, positive when magnetic north is east of true north
+    private long refreshes = 0;
+
+    /**
+     * @return true if the declination was recomputed
+     */
+    public synchronized boolean update(double latitude, double longitude, double altitude, long timeMillis) {
+        long key = key(latitude, longitude, altitude, timeMillis);
+        if (key == cellKey) {
+            return false;
+        }
+        cellKey = key;
+        GeomagneticField g = new GeomagneticField((float) latitude, (float) longitude,
+                (float) altitude, timeMillis);
+        declination = (float) Math.toRadians(g.getDeclination());
+        ++refreshes;
+        return true;
+    }
+
+    private static long key(double latitude, double longitude, double altitude, long timeMillis) {
+        long lat = (long) Math.floor((latitude + 90) / CELL_DEG); // < 2^9
+        long lon = (long) Math.floor((longitude + 180) / CELL_DEG); // < 2^10
+        long alt = (long) Math.floor(altitude / CELL_ALT) & 0xff;
+        long day = timeMillis / DAY_MS;
+        return (day << 27) | (alt << 19) | (lat << 10) | lon;
+    }
+
+    /** Declination in radians. */
+    public float getDeclination() {
+        return declination;
+    }
+
+    public synchronized long getRefreshes() {
+        return refreshes;
+    }
+}
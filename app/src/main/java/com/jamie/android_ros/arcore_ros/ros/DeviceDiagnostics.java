@@ -0,0 +1,162 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Debug;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import java.lang.reflect.Method;
+
+/**
+ * Device health for {@link DiagnosticsPublisher} : garbage collections, thermal state and battery.
+ *
+ * PowerManager's thermal status is only there from API 29 on, above the SDK this is built against,
+ * so it is looked up by reflection; on older devices the battery temperature stands in for it. That
+ * lags the SoC by a few seconds, but it rises well before the camera or the CPU get throttled.
+ */
+public class DeviceDiagnostics implements DiagnosticsPublisher.Source {
+    private static final float WARM_C = 40f;
+    private static final float HOT_C = 45f;
+    private static final float LIGHT_C = 38f; // battery temperatures mapped to thermal status
+    private static final float MODERATE_C = 41f;
+    private static final float SEVERE_C = 44f;
+
+    private final Context context;
+    private final BatteryManager battery;
+    private final PowerManager power;
+    private final Method thermalStatus; // PowerManager.getCurrentThermalStatus(), API 29
+
+    // diagnostics loop only
+    private long lastGcCount = -1;
+    private long lastGcTime;
+    private long lastBlockingGcCount;
+    private long lastReportMs;
+    private int startLevel = -1; // battery level when the report started, per mille
+    private long startMs;
+
+    public DeviceDiagnostics(Context context) {
+        this.context = context.getApplicationContext();
+        this.battery = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        this.power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        Method m = null;
+        if (Build.VERSION.SDK_INT >= 29 && power != null) {
+            try {
+                m = PowerManager.class.getMethod("getCurrentThermalStatus");
+            } catch (NoSuchMethodException e) {
+                // fall back to the battery temperature
+            }
+        }
+        this.thermalStatus = m;
+    }
+
+    /**
+     * PowerManager.THERMAL_STATUS_* (0 none to 6 shutdown), or on devices without it an
+     * approximation from the battery temperature, up to {@link QualityGovernor#THERMAL_SEVERE}.
+     */
+    public int getThermalStatus() {
+        if (thermalStatus != null) {
+            try {
+                return (Integer) thermalStatus.invoke(power);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // fall back to the battery temperature
+            }
+        }
+        float t = batteryTemperature();
+        if (t >= SEVERE_C) {
+            return QualityGovernor.THERMAL_SEVERE;
+        } else if (t >= MODERATE_C) {
+            return QualityGovernor.THERMAL_MODERATE;
+        } else if (t >= LIGHT_C) {
+            return QualityGovernor.THERMAL_LIGHT;
+        }
+        return QualityGovernor.THERMAL_NONE;
+    }
+
+    private float batteryTemperature() {
+        Intent b = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return b == null ? 0f : b.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) / 10f;
+    }
+
+    @Override
+    public void report(DiagnosticsPublisher.Status status) {
+        long nowMs = SystemClock.elapsedRealtime();
+        reportGc(status, nowMs);
+        reportBattery(status, nowMs);
+        lastReportMs = nowMs;
+    }
+
+    private void reportGc(DiagnosticsPublisher.Status status, long nowMs) {
+        // ART's counters are process-wide, since start
+        long count = runtimeStat("art.gc.gc-count");
+        long time = runtimeStat("art.gc.gc-time");
+        long blocking = runtimeStat("art.gc.blocking-gc-count");
+        status.put("gc count", count);
+        status.put("gc time (ms)", time);
+        status.put("blocking gc count", blocking);
+        if (lastGcCount >= 0 && nowMs > lastReportMs) {
+            double seconds = (nowMs - lastReportMs) / 1000.0;
+            status.put("gc rate (1/s)", (count - lastGcCount) / seconds);
+            status.put("gc time fraction", (time - lastGcTime) / 1000.0 / seconds);
+            if (blocking > lastBlockingGcCount) {
+                status.warn((blocking - lastBlockingGcCount) + " blocking GCs");
+            }
+        }
+        lastGcCount = count;
+        lastGcTime = time;
+        lastBlockingGcCount = blocking;
+    }
+
+    private void reportBattery(DiagnosticsPublisher.Status status, long nowMs) {
+        // sticky broadcast, no receiver is registered
+        Intent b = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (b == null) {
+            return;
+        }
+        float temperature = b.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) / 10f;
+        int scale = b.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        int level = scale > 0 ? b.getIntExtra(BatteryManager.EXTRA_LEVEL, 0) * 1000 / scale : 0;
+        boolean charging = b.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+        status.put("battery temperature (C)", temperature);
+        status.put("thermal status", getThermalStatus());
+        status.put("battery level (%)", level / 10.0);
+        status.put("charging", Boolean.toString(charging));
+        status.put("power save", Boolean.toString(power != null && power.isPowerSaveMode()));
+        if (battery != null) {
+            // microamperes; the sign convention varies across devices
+            int current = battery.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW);
+            if (current != Integer.MIN_VALUE) {
+                status.put("battery current (mA)", current / 1000.0);
+            }
+        }
+
+        if (charging || startLevel < 0 || level > startLevel) {
+            startLevel = level;
+            startMs = nowMs;
+        } else if (nowMs > startMs) {
+            status.put("battery drain (%/h)", (startLevel - level) / 10.0 * 3600000.0 / (nowMs - startMs));
+        }
+
+        if (temperature >= HOT_C) {
+            status.error("device hot, throttling likely");
+        } else if (temperature >= WARM_C) {
+            status.warn("device warm");
+        }
+    }
+
+    private static long runtimeStat(String name) {
+        String v = Debug.getRuntimeStat(name);
+        if (v == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import com.google.ar.core.Frame;
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+import com.google.ar.core.TrackingState;
+import com.jamie.android_ros.arcore_ros.arcore.PoseTracker;
+
+import org.ros.message.MessageFactory;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import geometry_msgs.Point;
+import geometry_msgs.Point32;
+import geometry_msgs.PolygonStamped;
+import visualization_msgs.Marker;
+import visualization_msgs.MarkerArray;
+
+/**
+ * Publishes ARCore planes as visualization_msgs/MarkerArray (outline per plane) and
+ * geometry_msgs/PolygonStamped, in the odom frame.
+ *
+ * On the marker topic only planes whose pose or polygon changed since they were last sent go out,
+ * plus DELETE markers for planes that were subsumed by another one or stopped tracking, so the
+ * bandwidth depends on how much the scene changes, not on how many planes were found. A
+ * PolygonStamped carries no id, so each flush sends the whole current set on the polygon topic
+ * instead, every polygon with the same stamp : the set at a stamp replaces the previous one, and
+ * an empty set goes out as a single polygon without points.
+ *
+ * Planes come from {@link Frame#getUpdatedTrackables(Class)}; changes are collected every frame
+ * and flushed at no more than {@link #setMaxRate(double)}. The topics are not latched, so whenever
+ * the marker topic gains a subscriber every known plane is sent again.
+ */
+public class PlanePublisher {
+    private static final String NS = "planes";
+
+    private final Publisher<MarkerArray> markerPublisher;
+    private final Publisher<PolygonStamped> polygonPublisher;
+    private final MessageFactory messageFactory;
+    private final ClockService clock;
+
+    private static class PlaneState {
+        final int id;
+        long signature;
+        boolean sent;
+
+        PlaneState(int id) {
+            this.id = id;
+        }
+    }
+
+    private final Map<Plane, PlaneState> planes = new HashMap<>();
+    private final LinkedHashSet<Plane> dirty = new LinkedHashSet<>();
+    private final List<Integer> removed = new ArrayList<>();
+    private int nextId = 0;
+    // subscriber counts at the previous frame
+    private int markerSubscribers = 0;
+    private int polygonSubscribers = 0;
+
+    private final TopicStats markerStats = new TopicStats();
+    private final TopicStats polygonStats = new TopicStats();
+
+    private volatile double maxRate = 2.0; // Hz, 0 for every update
+    private long lastPublishNs = 0;
+
+    // scratch for the plane -> odom transform
+    private final float[] centerTxn = new float[3];
+    private final float[] centerRxn = new float[4];
+    private final Quaternion centerRot = new Quaternion(1, 0, 0, 0);
+    private final float[] vertex = new float[3];
+
+    public PlanePublisher(ConnectedNode connectedNode, ClockService clock) {
+        this.markerPublisher = connectedNode.newPublisher("android/planes/markers", MarkerArray._TYPE);
+        this.polygonPublisher = connectedNode.newPublisher("android/planes/polygons", PolygonStamped._TYPE);
+        this.messageFactory = connectedNode.getTopicMessageFactory();
+        this.clock = clock;
+    }
+
+    public void setMaxRate(double hz) {
+        maxRate = hz;
+    }
+
+    public TopicStats getMarkerStats() {
+        return markerStats;
+    }
+
+    public TopicStats getPolygonStats() {
+        return polygonStats;
+    }
+
+    public int getPlaneCount() {
+        return planes.size();
+    }
+
+    /** Call on the thread that runs Session.update(), right after it. */
+    public void onFrame(Frame frame, PoseTracker tracker) {
+        if (!tracker.hasOrigin()) {
+            return;
+        }
+        int ms = markerPublisher.getNumberOfSubscribers();
+        int ps = polygonPublisher.getNumberOfSubscribers();
+        if (ms > markerSubscribers || ps > polygonSubscribers) {
+            // a late subscriber would otherwise only see the planes that change from now on
+            dirty.addAll(planes.keySet());
+        }
+        markerSubscribers = ms;
+        polygonSubscribers = ps;
+        for (Plane plane : frame.getUpdatedTrackables(Plane.class)) {
+            PlaneState state = planes.get(plane);
+            if (plane.getSubsumedBy() != null || plane.getTrackingState() == TrackingState.STOPPED) {
+                if (state != null) {
+                    planes.remove(plane);
+                    dirty.remove(plane);
+                    if (state.sent) {
+                        removed.add(state.id);
+                    }
+                }
+                continue;
+            }
+            if (plane.getTrackingState() != TrackingState.TRACKING) {
+                continue;
+            }
+            if (state == null) {
+                state = new PlaneState(nextId++);
+                planes.put(plane, state);
+            }
+            long sig = signature(plane);
+            if (sig != state.signature || !state.sent) {
+                state.signature = sig;
+                dirty.add(plane);
+            }
+        }
+
+        long ts = frame.getTimestamp();
+        double rate = maxRate;
+        if ((dirty.isEmpty() && removed.isEmpty()) || (rate > 0 && ts - lastPublishNs < (long) (1e9 / rate))) {
+            return;
+        }
+        lastPublishNs = ts;
+        publish(clock.toRos(ClockService.CAMERA, ts), tracker);
+    }
+
+    /** Cheap fingerprint of the plane pose and polygon, to detect changes. */
+    private long signature(Plane plane) {
+        long h = 1125899906842597L;
+        plane.getCenterPose().getTranslation(centerTxn, 0);
+        plane.getCenterPose().getRotationQuaternion(centerRxn, 0);
+        for (float f : centerTxn) h = 31 * h + Float.floatToIntBits(f);
+        for (float f : centerRxn) h = 31 * h + Float.floatToIntBits(f);
+        FloatBuffer polygon = plane.getPolygon();
+        for (int i = polygon.position(); i < polygon.limit(); ++i) {
+            h = 31 * h + Float.floatToIntBits(polygon.get(i));
+        }
+        return h;
+    }
+
+    private void publish(long stamp, PoseTracker tracker) {
+        MarkerArray array = markerPublisher.newMessage();
+        List<Marker> markers = array.getMarkers();
+
+        for (Integer id : removed) {
+            Marker m = messageFactory.newFromType(Marker._TYPE);
+            Utilities.setHeader(m.getHeader(), Frames.ODOM, stamp);
+            m.setNs(NS);
+            m.setId(id);
+            m.setAction(Marker.DELETE);
+            markers.add(m);
+        }
+        removed.clear();
+
+        for (Iterator<Plane> it = dirty.iterator(); it.hasNext(); ) {
+            Plane plane = it.next();
+            it.remove();
+            PlaneState state = planes.get(plane);
+            FloatBuffer verts = plane.getPolygon();
+            int n = verts.remaining() / 2;
+            if (state == null || n < 3) {
+                continue;
+            }
+            state.sent = true;
+
+            Marker m = messageFactory.newFromType(Marker._TYPE);
+            Utilities.setHeader(m.getHeader(), Frames.ODOM, stamp);
+            m.setNs(NS);
+            m.setId(state.id);
+            m.setType(Marker.LINE_STRIP);
+            m.setAction(Marker.ADD);
+            m.getPose().getOrientation().setW(1.0);
+            m.getScale().setX(0.01);
+            m.getColor().setR(0.2f);
+            m.getColor().setG(0.8f);
+            m.getColor().setB(1.0f);
+            m.getColor().setA(1.0f);
+
+            setCenter(plane);
+            List<Point> points = m.getPoints();
+            for (int i = 0; i <= n; ++i) {
+                toOdom(verts, i % n, tracker); // close the loop
+                Point p = messageFactory.newFromType(Point._TYPE);
+                p.setX(vertex[0]);
+                p.setY(vertex[1]);
+                p.setZ(vertex[2]);
+                points.add(p);
+            }
+            markers.add(m);
+        }
+
+        if (!markers.isEmpty()) {
+            markerPublisher.publish(array);
+            markerStats.published(clock.now() - stamp);
+        }
+        if (polygonPublisher.getNumberOfSubscribers() > 0) {
+            publishPolygons(stamp, tracker);
+        }
+    }
+
+    /** The whole current set, one PolygonStamped per plane, all stamped {@code stamp}. */
+    private void publishPolygons(long stamp, PoseTracker tracker) {
+        int sent = 0;
+        for (Plane plane : planes.keySet()) {
+            FloatBuffer verts = plane.getPolygon();
+            int n = verts.remaining() / 2;
+            if (n < 3) {
+                continue;
+            }
+            PolygonStamped polygon = polygonPublisher.newMessage();
+            Utilities.setHeader(polygon.getHeader(), Frames.ODOM, stamp);
+            setCenter(plane);
+            List<Point32> points = polygon.getPolygon().getPoints();
+            for (int i = 0; i < n; ++i) {
+                toOdom(verts, i, tracker);
+                Point32 q = messageFactory.newFromType(Point32._TYPE);
+                q.setX(vertex[0]);
+                q.setY(vertex[1]);
+                q.setZ(vertex[2]);
+                points.add(q);
+            }
+            polygonPublisher.publish(polygon);
+            ++sent;
+        }
+        if (sent == 0) {
+            PolygonStamped empty = polygonPublisher.newMessage();
+            Utilities.setHeader(empty.getHeader(), Frames.ODOM, stamp);
+            polygonPublisher.publish(empty);
+        }
+        polygonStats.published(clock.now() - stamp);
+    }
+
+    private void setCenter(Plane plane) {
+        Pose center = plane.getCenterPose();
+        center.getTranslation(centerTxn, 0);
+        center.getRotationQuaternion(centerRxn, 0);
+        centerRot.set(centerRxn[3], centerRxn[0], centerRxn[1], centerRxn[2]);
+    }
+
+    /** Vertex {@code i} of the polygon, an (x, z) pair in the plane's local frame, into {@link #vertex} in odom. */
+    private void toOdom(FloatBuffer verts, int i, PoseTracker tracker) {
+        int k = verts.position() + 2 * i;
+        vertex[0] = verts.get(k);
+        vertex[1] = 0f;
+        vertex[2] = verts.get(k + 1);
+        centerRot.rotate(vertex, 0, vertex, 0);
+        vertex[0] += centerTxn[0];
+        vertex[1] += centerTxn[1];
+        vertex[2] += centerTxn[2];
+        tracker.transformPoint(vertex, 0, vertex, 0);
+    }
+}
@@ -0,0 +1,248 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import com.google.ar.core.Frame;
+import com.google.ar.core.PointCloud;
+import com.jamie.android_ros.arcore_ros.arcore.PoseTracker;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.message.MessageFactory;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import sensor_msgs.PointCloud2;
+import sensor_msgs.PointField;
+
+/**
+ * Publishes ARCore feature points as sensor_msgs/PointCloud2 with fields
+ * x, y, z, confidence (float32) and id (uint32), in the odom frame.
+ *
+ * Points are read straight out of the ARCore {@link FloatBuffer} / {@link IntBuffer} and written
+ * into the buffer backing the message. Optionally, an accumulated map deduplicated by point id
+ * (see {@link PointMap}) is published at a lower rate, so mapping nodes don't have to aggregate
+ * every frame themselves.
+ */
+public class PointCloudPublisher {
+    private static final int POINT_STEP = 20;
+    private static final int POOL_SIZE = Utilities.PUBLISHER_POOL_SIZE;
+
+    private final Publisher<PointCloud2> publisher;
+    private final Publisher<PointCloud2> mapPublisher;
+    private final MessageFactory messageFactory;
+    private final ClockService clock;
+
+    private final PointCloud2[] pool = new PointCloud2[POOL_SIZE];
+    private int poolIndex;
+    private final PointMap map;
+
+    private volatile double maxRate = 10.0; // Hz, 0 for every update
+    private volatile double mapRate = 1.0; // Hz, 0 disables the map
+    private long lastCloudTimestamp = 0;
+    private long lastPublishNs = 0;
+    private long lastMapNs = 0;
+
+    private final float[] point = new float[3];
+    private volatile MessageSink recorder;
+    private final TopicStats stats = new TopicStats();
+    private final TopicStats mapStats = new TopicStats();
+
+    /**
+     * @param mapCapacity max number of points kept in the accumulated map, 0 disables it
+     */
+    public PointCloudPublisher(ConnectedNode connectedNode, ClockService clock, int mapCapacity) {
+        this.publisher = connectedNode.newPublisher("android/point_cloud", PointCloud2._TYPE);
+        this.mapPublisher = connectedNode.newPublisher("android/point_cloud/map", PointCloud2._TYPE);
+        this.messageFactory = connectedNode.getTopicMessageFactory();
+        this.clock = clock;
+        for (int i = 0; i < POOL_SIZE; ++i) {
+            pool[i] = newCloud(publisher, ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN, 512 * POINT_STEP));
+        }
+        if (mapCapacity > 0) {
+            map = new PointMap(mapCapacity);
+        } else {
+            map = null;
+        }
+    }
+
+    private PointCloud2 newCloud(Publisher<PointCloud2> p, ChannelBuffer data) {
+        PointCloud2 msg = p.newMessage();
+        List<PointField> fields = new ArrayList<>();
+        fields.add(newField("x", 0, PointField.FLOAT32));
+        fields.add(newField("y", 4, PointField.FLOAT32));
+        fields.add(newField("z", 8, PointField.FLOAT32));
+        fields.add(newField("confidence", 12, PointField.FLOAT32));
+        fields.add(newField("id", 16, PointField.UINT32));
+        msg.setFields(fields);
+        msg.setHeight(1);
+        msg.setPointStep(POINT_STEP);
+        msg.setIsBigendian(false);
+        msg.setIsDense(true);
+        msg.setData(data);
+        return msg;
+    }
+
+    private PointField newField(String name, int offset, byte type) {
+        PointField f = messageFactory.newFromType(PointField._TYPE);
+        f.setName(name);
+        f.setOffset(offset);
+        f.setDatatype(type);
+        f.setCount(1);
+        return f;
+    }
+
+    public void setMaxRate(double hz) {
+        maxRate = hz;
+    }
+
+    public void setMapRate(double hz) {
+        mapRate = hz;
+    }
+
+    public TopicStats getStats() {
+        return stats;
+    }
+
+    public TopicStats getMapStats() {
+        return mapStats;
+    }
+
+    /** Also writes every published message to {@code recorder}; null to stop. */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    private boolean isRecording() {
+        MessageSink r = recorder;
+        return r != null && r.isRecording();
+    }
+
+    public int getMapSize() {
+        return map == null ? 0 : map.size();
+    }
+
+    /** Call on the thread that runs Session.update(), right after it. */
+    public void onFrame(Frame frame, PoseTracker tracker) {
+        if (!tracker.hasOrigin()) {
+            return;
+        }
+        boolean wantCloud = publisher.getNumberOfSubscribers() > 0 || isRecording();
+        boolean wantMap = map != null && mapRate > 0;
+        if (!wantCloud && !wantMap) {
+            return;
+        }
+
+        PointCloud cloud = frame.acquirePointCloud();
+        try {
+            long ts = cloud.getTimestamp();
+            if (ts == lastCloudTimestamp) {
+                return; // ARCore did not refresh the points
+            }
+            lastCloudTimestamp = ts;
+            long stamp = clock.toRos(ClockService.CAMERA, ts);
+            double rate = maxRate;
+            if (wantCloud && (rate <= 0 || ts - lastPublishNs >= (long) (1e9 / rate))) {
+                lastPublishNs = ts;
+                publishCloud(cloud, tracker, stamp);
+            }
+            if (wantMap) {
+                accumulate(cloud, tracker);
+                if (ts - lastMapNs >= (long) (1e9 / mapRate)) {
+                    lastMapNs = ts;
+                    publishMap(stamp);
+                }
+            }
+        } finally {
+            cloud.release();
+        }
+    }
+
+    private void publishCloud(PointCloud cloud, PoseTracker tracker, long stamp) {
+        FloatBuffer points = cloud.getPoints();
+        IntBuffer ids = cloud.getIds();
+        int n = points.remaining() / 4;
+
+        PointCloud2 msg = pool[poolIndex];
+        poolIndex = (poolIndex + 1) % POOL_SIZE;
+
+        ChannelBuffer data = msg.getData();
+        data.clear();
+        data.ensureWritableBytes(n * POINT_STEP);
+        int base = points.position();
+        int idBase = ids.position();
+        for (int i = 0; i < n; ++i) {
+            int p = base + i * 4;
+            point[0] = points.get(p);
+            point[1] = points.get(p + 1);
+            point[2] = points.get(p + 2);
+            tracker.transformPoint(point, 0, point, 0);
+            data.writeFloat(point[0]);
+            data.writeFloat(point[1]);
+            data.writeFloat(point[2]);
+            data.writeFloat(points.get(p + 3));
+            data.writeInt(ids.get(idBase + i));
+        }
+
+        Utilities.setHeader(msg.getHeader(), Frames.ODOM, stamp);
+        msg.setWidth(n);
+        msg.setRowStep(n * POINT_STEP);
+        publisher.publish(msg);
+        stats.published(clock.now() - stamp);
+        MessageSink r = recorder;
+        if (r != null) {
+            r.record(publisher.getTopicName().toString(), msg, stamp);
+        }
+    }
+
+    private void accumulate(PointCloud cloud, PoseTracker tracker) {
+        FloatBuffer points = cloud.getPoints();
+        IntBuffer ids = cloud.getIds();
+        int n = points.remaining() / 4;
+        int base = points.position();
+        int idBase = ids.position();
+        for (int i = 0; i < n; ++i) {
+            int p = base + i * 4;
+            point[0] = points.get(p);
+            point[1] = points.get(p + 1);
+            point[2] = points.get(p + 2);
+            tracker.transformPoint(point, 0, point, 0);
+            map.put(ids.get(idBase + i), point[0], point[1], point[2], points.get(p + 3));
+        }
+    }
+
+    private void publishMap(long stamp) {
+        if (mapPublisher.getNumberOfSubscribers() == 0) {
+            return;
+        }
+        // a new message each time : at 1 Hz the allocation is cheap, and one that rosjava still
+        // queues is never rewritten
+        ChannelBuffer data = ChannelBuffers.buffer(ByteOrder.LITTLE_ENDIAN, map.size() * POINT_STEP);
+        PointCloud2 mapMsg = newCloud(mapPublisher, data);
+        float[] v = map.values();
+        for (int e = map.first(); e != -1; e = map.next(e)) {
+            int o = e * 4;
+            data.writeFloat(v[o]);
+            data.writeFloat(v[o + 1]);
+            data.writeFloat(v[o + 2]);
+            data.writeFloat(v[o + 3]);
+            data.writeInt(map.id(e));
+        }
+        Utilities.setHeader(mapMsg.getHeader(), Frames.ODOM, stamp);
+        mapMsg.setWidth(map.size());
+        mapMsg.setRowStep(map.size() * POINT_STEP);
+        mapPublisher.publish(mapMsg);
+        mapStats.published(clock.now() - stamp);
+    }
+
+    /** Drops the accumulated map, e.g. after the odom origin was reset. */
+    public void clearMap() {
+        if (map != null) {
+            map.clear();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import android.util.Log;
+
+import com.google.ar.core.Frame;
+import com.google.ar.core.exceptions.NotYetAvailableException;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import sensor_msgs.Image;
+
+/**
+ * Publishes the ARCore camera image uncompressed as sensor_msgs/Image (NV21), for links where
+ * CPU is scarcer than bandwidth.
+ *
+ * The YUV_420_888 plane buffers are copied straight into the direct buffers backing a fixed pool
+ * of preallocated messages; there is no intermediate byte[] and nothing is allocated per frame
+ * once the pool is warm. The ARCore image is closed as soon as the copy is done.
+ *
+ * Filled messages are handed to a publish thread. A message only returns to the pool once
+ * {@link #RETIRE_DEPTH} newer ones have been published after it, since rosjava serializes on its
+ * own thread after publish() returns and may hold a whole queue of messages until then. If no
+ * message is free, the frame is dropped on the spot, so a slow consumer can never stall the thread
+ * calling Session.update().
+ */
+public class RawImagePublisher {
+    private static final String TAG = "RawImagePublisher";
+    private static final int RETIRE_DEPTH = Utilities.PUBLISHER_QUEUE_SIZE;
+    // retiring, plus one being filled, one queued and one being published; about 8 MB at 640x480
+    private static final int POOL_SIZE = RETIRE_DEPTH + 3;
+    private static final int NV21_PROBES = 64; // chroma positions compared per frame until decided
+    private static final int NV21_EVIDENCE = 8; // telling probes needed to trust the bulk copy
+
+    private final Publisher<Image> publisher;
+    private final ClockService clock;
+
+    private final ArrayBlockingQueue<Slot> free = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ArrayBlockingQueue<Slot> filled = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ArrayDeque<Slot> retiring = new ArrayDeque<>(POOL_SIZE); // publish thread only
+    private final Thread publishThread;
+    private volatile boolean running = true;
+
+    private volatile double maxRate = 15.0; // Hz, 0 for every frame
+    private long lastCaptureNs = 0;
+    private Boolean nv21Layout; // GL thread only, null until the probes tell
+    private volatile long dropped = 0;
+    private volatile MessageSink recorder;
+    private final TopicStats stats = new TopicStats();
+
+    private static class Slot {
+        final Image msg;
+        ChannelBuffer data;
+        long timestamp;
+
+        Slot(Image msg) {
+            this.msg = msg;
+        }
+    }
+
+    public RawImagePublisher(ConnectedNode connectedNode, ClockService clock) {
+        this.publisher = connectedNode.newPublisher("android/camera/image_raw", Image._TYPE);
+        this.clock = clock;
+        for (int i = 0; i < POOL_SIZE; ++i) {
+            free.add(new Slot(publisher.newMessage()));
+        }
+        publishThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                publishLoop();
+            }
+        }, "RawImagePublisher");
+        publishThread.start();
+    }
+
+    public void setMaxRate(double hz) {
+        maxRate = hz;
+    }
+
+    /** Frames skipped because every pooled message was still in use. */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /** Messages filled and waiting for the publish thread. */
+    public int getQueueDepth() {
+        return filled.size();
+    }
+
+    public TopicStats getStats() {
+        return stats;
+    }
+
+    /** Also writes every published message to {@code recorder}; null to stop. */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    private boolean isRecording() {
+        MessageSink r = recorder;
+        return r != null && r.isRecording();
+    }
+
+    public void shutdown() {
+        running = false;
+        publishThread.interrupt();
+    }
+
+    /** Call on the thread that runs Session.update(), right after it. */
+    public void onFrame(Frame frame) {
+        if (publisher.getNumberOfSubscribers() == 0 && !isRecording()) {
+            return;
+        }
+        long ts = frame.getTimestamp();
+        double rate = maxRate;
+        if (rate > 0 && ts - lastCaptureNs < (long) (1e9 / rate)) {
+            return;
+        }
+
+        Slot slot = free.poll();
+        if (slot == null) {
+            ++dropped;
+            return;
+        }
+
+        android.media.Image image = null;
+        try {
+            image = frame.acquireCameraImage();
+            copyNv21(image, slot);
+        } catch (NotYetAvailableException e) {
+            free.offer(slot);
+            return;
+        } finally {
+            if (image != null) {
+                image.close();
+            }
+        }
+        lastCaptureNs = ts;
+        slot.timestamp = ts;
+        filled.offer(slot); // never full, there are only POOL_SIZE slots
+    }
+
+    private void copyNv21(android.media.Image image, Slot slot) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int size = w * h * 3 / 2;
+        if (slot.data == null || slot.data.capacity() < size) {
+            // first frame only, the camera resolution does not change within a session
+            slot.data = ChannelBuffers.directBuffer(ByteOrder.LITTLE_ENDIAN, size);
+        }
+        ChannelBuffer out = slot.data;
+
+        android.media.Image.Plane[] planes = image.getPlanes();
+        ByteBuffer y = planes[0].getBuffer();
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int yStride = planes[0].getRowStride();
+        int uvStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        if (nv21Layout == null) {
+            nv21Layout = probeNv21(u, v, uvPixelStride);
+        }
+        boolean nv21 = nv21Layout == Boolean.TRUE;
+
+        int o = 0;
+        for (int r = 0; r < h; ++r) {
+            y.limit(r * yStride + w).position(r * yStride);
+            out.setBytes(o, y);
+            o += w;
+        }
+
+        for (int r = 0; r < h / 2; ++r) {
+            int row = r * uvStride;
+            if (nv21) {
+                // the V plane already reads V,U,V,U,... and only misses the last U
+                v.limit(row + w - 1).position(row);
+                out.setBytes(o, v);
+                out.setByte(o + w - 1, u.get(row + w - 2));
+            } else {
+                for (int c = 0; c < w / 2; ++c) {
+                    out.setByte(o + 2 * c, v.get(row + c * uvPixelStride));
+                    out.setByte(o + 2 * c + 1, u.get(row + c * uvPixelStride));
+                }
+            }
+            o += w;
+        }
+        out.setIndex(0, size);
+
+        Image msg = slot.msg;
+        msg.setWidth(w);
+        msg.setHeight(h);
+        msg.setStep(w);
+        msg.setEncoding("nv21");
+        msg.setIsBigendian((byte) 0);
+    }
+
+    /**
+     * Whether the chroma planes share NV21 memory, V one byte before U, so that the V plane reads
+     * V,U,V,U,... A pixel stride of 2 alone does not say which plane comes first. The buffers do
+     * not expose their addresses, so bytes of V spread over the plane are compared with the U bytes
+     * they would alias. That only tells where two adjacent U samples differ, since with U first
+     * the V byte compared is the next U sample; flat chroma proves nothing.
+     * @return true once enough telling probes agree, false on any that disagrees, null if the
+     *         frame did not tell, in which case the generic loop copies it
+     */
+    private static Boolean probeNv21(ByteBuffer u, ByteBuffer v, int uvPixelStride) {
+        if (uvPixelStride != 2) {
+            return false;
+        }
+        int n = Math.min(u.limit() - 2, v.limit() - 1);
+        if (n < 2) {
+            return false;
+        }
+        int telling = 0;
+        for (int i = 0; i < NV21_PROBES; ++i) {
+            int k = (int) ((long) n * i / NV21_PROBES) & ~1;
+            byte uk = u.get(k);
+            if (uk == u.get(k + 2)) {
+                continue;
+            }
+            if (v.get(k + 1) != uk) {
+                return false;
+            }
+            ++telling;
+        }
+        return telling >= NV21_EVIDENCE ? Boolean.TRUE : null;
+    }
+
+    private void publishLoop() {
+        while (running) {
+            Slot slot;
+            try {
+                slot = filled.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (slot == null) {
+                continue;
+            }
+            try {
+                Image msg = slot.msg;
+                long stamp = clock.toRos(ClockService.CAMERA, slot.timestamp);
+                Utilities.setHeader(msg.getHeader(), Frames.CAMERA_OPTICAL, stamp);
+                msg.setData(slot.data);
+                publisher.publish(msg);
+                stats.published(clock.now() - stamp);
+                MessageSink r = recorder;
+                if (r != null) {
+                    r.record(publisher.getTopicName().toString(), msg, stamp);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to publish camera image", e);
+            }
+
+            retiring.addLast(slot);
+            if (retiring.size() > RETIRE_DEPTH) {
+                free.offer(retiring.removeFirst());
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.util.Log;
+
+import org.ros.node.parameter.ParameterTree;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Which Android sensors {@link SensorPublisher} listens to, and how fast.
+ *
+ * Each sensor has an enabled flag, a sampling rate in Hz (0 for as fast as possible) and a max
+ * report latency in ms. A non-zero latency lets sensors with a hardware FIFO batch events and
+ * deliver them together, so the application processor can sleep in between.
+ *
+ * Defaults are overridden first by the {@code sensors.properties} asset
+ * ({@code <sensor>.enabled}, {@code <sensor>.rate}, {@code <sensor>.max_latency_ms}), then by ROS
+ * parameters under {@code ~sensors/<sensor>/} (enabled, rate, max_latency_ms).
+ */
+public class SensorConfig {
+    private static final String TAG = "SensorConfig";
+    public static final String ASSET = "sensors.properties";
+
+    public static class Entry {
+        public final String name;
+        public final int type;
+        public boolean enabled;
+        public double rate; // Hz, 0 = fastest
+        public int maxLatencyMs; // 0 = deliver every event immediately
+
+        Entry(String name, int type, boolean enabled, double rate, int maxLatencyMs) {
+            this.name = name;
+            this.type = type;
+            this.enabled = enabled;
+            this.rate = rate;
+            this.maxLatencyMs = maxLatencyMs;
+        }
+
+        /** Sampling period for SensorManager.registerListener(). */
+        public int getPeriodUs() {
+            return rate > 0 ? (int) (1e6 / rate) : 0; // 0 = SENSOR_DELAY_FASTEST
+        }
+
+        public int getMaxLatencyUs() {
+            return maxLatencyMs * 1000;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public SensorConfig() {
+        // the IMU stays low-latency; slow environmental sensors are batched
+        add("linear_acceleration", Sensor.TYPE_LINEAR_ACCELERATION, true, 200, 0);
+        add("accelerometer", Sensor.TYPE_ACCELEROMETER, false, 200, 0);
+        add("gyroscope", Sensor.TYPE_GYROSCOPE, true, 200, 0);
+        add("gyroscope_uncalibrated", Sensor.TYPE_GYROSCOPE_UNCALIBRATED, false, 200, 0);
+        add("rotation_vector", Sensor.TYPE_ROTATION_VECTOR, true, 100, 0);
+        add("magnetic_field", Sensor.TYPE_MAGNETIC_FIELD, false, 50, 100);
+        add("pressure", Sensor.TYPE_PRESSURE, true, 5, 1000);
+    }
+
+    private void add(String name, int type, boolean enabled, double rate, int maxLatencyMs) {
+        entries.put(name, new Entry(name, type, enabled, rate, maxLatencyMs));
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public boolean isEnabled(int type) {
+        for (Entry e : entries.values()) {
+            if (e.type == type) {
+                return e.enabled;
+            }
+        }
+        return false;
+    }
+
+    /** Defaults, overridden by the {@link #ASSET} file if the app ships one. */
+    public static SensorConfig fromAssets(Context context) {
+        SensorConfig config = new SensorConfig();
+        try (InputStream in = context.getAssets().open(ASSET)) {
+            Properties p = new Properties();
+            p.load(in);
+            config.applyProperties(p);
+        } catch (IOException e) {
+            Log.i(TAG, "No " + ASSET + ", using default sensor settings");
+        }
+        return config;
+    }
+
+    public void applyProperties(Properties p) {
+        for (Entry e : entries.values()) {
+            String v;
+            if ((v = p.getProperty(e.name + ".enabled")) != null) {
+                e.enabled = Boolean.parseBoolean(v.trim());
+            }
+            try {
+                if ((v = p.getProperty(e.name + ".rate")) != null) {
+                    e.rate = Double.parseDouble(v.trim());
+                }
+                if ((v = p.getProperty(e.name + ".max_latency_ms")) != null) {
+                    e.maxLatencyMs = Integer.parseInt(v.trim());
+                }
+            } catch (NumberFormatException ex) {
+                Log.w(TAG, "Ignoring malformed setting for " + e.name, ex);
+            }
+        }
+    }
+
+    /**
+     * Applies ROS parameters under {@code ~sensors/}.
+     * @return true if anything changed
+     */
+    public boolean applyParameters(ParameterTree params) {
+        boolean changed = false;
+        for (Entry e : entries.values()) {
+            String base = "~sensors/" + e.name + "/";
+            if (params.has(base + "enabled")) {
+                boolean enabled = params.getBoolean(base + "enabled", e.enabled);
+                changed |= enabled != e.enabled;
+                e.enabled = enabled;
+            }
+            if (params.has(base + "rate")) {
+                double rate = toNumber(params.get(base + "rate", e.rate)).doubleValue();
+                changed |= rate != e.rate;
+                e.rate = rate;
+            }
+            if (params.has(base + "max_latency_ms")) {
+                int latency = toNumber(params.get(base + "max_latency_ms", e.maxLatencyMs)).intValue();
+                changed |= latency != e.maxLatencyMs;
+                e.maxLatencyMs = latency;
+            }
+        }
+        return changed;
+    }
+
+    // the parameter server hands back Integer or Double depending on how the value was written
+    private static Number toNumber(Object o) {
+        if (o instanceof Number) {
+            return (Number) o;
+        }
+        return Double.parseDouble(o.toString());
+    }
+}
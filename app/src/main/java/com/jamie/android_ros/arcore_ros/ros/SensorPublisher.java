@@ -18,30 +18,41 @@ package com.jamie.android_ros.arcore_ros.ros;
 
 import android.app.Activity;
 import android.content.Context;
-import android.hardware.GeomagneticField;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.location.Location;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
+import com.google.ar.core.Frame;
+import com.google.ar.core.Pose;
+import com.google.ar.core.TrackingState;
+import com.jamie.android_ros.arcore_ros.arcore.PoseTracker;
 
 import org.ros.concurrent.CancellableLoop;
+import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.AbstractNodeMain;
 import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
 import org.ros.node.NodeMain;
 import org.ros.node.NodeMainExecutor;
 import org.ros.node.topic.Publisher;
+import org.ros.node.topic.Subscriber;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import std_msgs.Empty;
 
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A simple {@link Publisher} {@link NodeMain}.
@@ -51,24 +62,110 @@ import java.util.List;
 public class SensorPublisher extends AbstractNodeMain implements
         SensorEventListener {
 
+    private static final String TAG = "SensorPublisher";
+
     // general multi-sensor manager
     private SensorManager mSensorManager;
-    private List<Sensor> sensors;
+    private final SensorConfig mConfig;
+    private volatile boolean mListening = false;
 
     // manage gps information separately
     private LocationRequest mLocationRequest;
     private LocationCallback mLocationCallback;
     private FusedLocationProviderClient mFusedLocationClient;
 
-    // ROS Publishers
-    private IMUPublisher imuPublisher;
-    private GPSPublisher gpsPublisher;
-    private OdomPublisher odomPublisher;
-
-    // IMU data
-    private float[] mAcceleration; //linear acceleration
-    private float[] mOrientation;
-    private float[] mGyroscope; // angular velocity
+    // IMU / GPS / odometry topics, shared with the desktop replay
+    private final SensorPipeline mPipeline = new SensorPipeline();
+
+    // the Android callbacks below only translate into these
+    private final ImuListener mImu = mPipeline;
+    private final FixListener mFixes = mPipeline;
+    private final PoseListener mPoses = mPipeline;
+
+    // ROS Publishers fed straight from the camera frames
+    private volatile CameraImagePublisher cameraImagePublisher;
+    private volatile RawImagePublisher rawImagePublisher;
+    private volatile PointCloudPublisher pointCloudPublisher;
+    private volatile PlanePublisher planePublisher;
+    private static final int POINT_MAP_CAPACITY = 20000; // points kept in the accumulated map
+
+    private final float[] mRotationScratch = new float[4]; // sensor thread only
+
+    // rotation vector is relative to magnetic north; rotated by -declination about up into ENU
+    private final DeclinationCache mDeclination = new DeclinationCache();
+    private float mAppliedDeclination = Float.NaN; // sensor thread only
+    private final Quaternion mDeclinationRot = new Quaternion(1, 0, 0, 0);
+    private final Quaternion mMagneticRot = new Quaternion(1, 0, 0, 0);
+    private final Quaternion mEnuRot = new Quaternion(1, 0, 0, 0);
+
+    // gravity in the odom frame, GL thread only
+    private final float[] mGravityScratch = new float[3];
+    private static final float[] GRAVITY_WORLD = {0, -SensorManager.GRAVITY_EARTH, 0}; // ARCore world is y up
+
+    // android -> android_imu, read off the first tracked frame
+    private final float[] mImuTxn = new float[3];
+    private final float[] mImuRxn = new float[4];
+
+    private boolean mTracking = false; // GL thread only
+
+    // tracker and camera health, written by the GL thread and read by the diagnostics loop
+    private volatile TrackingState mTrackingState = TrackingState.STOPPED;
+    private volatile long mTrackingStateSinceMs = SystemClock.elapsedRealtime();
+    private volatile long mCameraFrames = 0;
+    private volatile long mFrameAgeNs = 0; // ROS time of arrival minus the frame's own stamp
+
+    // pipeline health on /diagnostics
+    private static final long DIAGNOSTICS_PERIOD_MS = 1000;
+    private final DeviceDiagnostics mDeviceDiagnostics;
+
+    // hot-path latencies, recorded without allocating; dumped on android/dump_latency
+    private final LatencyHistogram mSensorDelivery; // sensor stamp to onSensorChanged
+    private final LatencyHistogram mPoseDelivery; // camera frame stamp to onOdomChanged
+    private final LatencyHistogram mImagePublish;
+    private final LatencyHistogram mRawImagePublish;
+    private final LatencyHistogram mPointCloudPublish;
+    private final LatencyHistogram mPlanePublish;
+    private final File mLatencyDirectory;
+    private final LatencyHistogram mFrameInterval; // between camera frames reaching the publisher
+    private long mLastFrameNs = 0; // GL thread only
+
+    // steps the camera outputs down when the device heats up or falls behind; odometry is untouched
+    private static final long FRAME_BUDGET_NS = 50000000L; // p90 frame interval, i.e. under ~20 fps
+    private final QualityGovernor mGovernor = new QualityGovernor(FRAME_BUDGET_NS);
+    private final LatencyHistogram.Snapshot mFramesBefore = new LatencyHistogram.Snapshot(); // diagnostics loop only
+    private final LatencyHistogram.Snapshot mFramesNow = new LatencyHistogram.Snapshot();
+    private long mLastDropped = 0; // diagnostics loop only
+    // per governor level : compressed image rate, decimation and JPEG quality, raw image, point
+    // cloud, point map and plane rates (Hz), and how many times slower the IMU topic runs
+    private static final double[] IMAGE_RATE = {10, 5, 2, 1};
+    private static final int[] IMAGE_DOWNSAMPLE = {1, 1, 2, 4};
+    private static final int[] IMAGE_QUALITY = {80, 75, 70, 60};
+    private static final double[] RAW_IMAGE_RATE = {15, 7.5, 3, 1};
+    private static final double[] POINT_CLOUD_RATE = {10, 5, 2, 1};
+    private static final double[] POINT_MAP_RATE = {1, 0.5, 0.2, 0.1};
+    private static final double[] PLANE_RATE = {2, 1, 0.5, 0.2};
+    // 200 down to 25 Hz in LATEST_ONLY; EVERY_SAMPLE only flushes less often, fused odometry is untouched
+    private static final int[] IMU_RATE_DIVISOR = {1, 2, 4, 8};
+
+    // on-device recording, for when the link to the master drops; it runs from
+    // setRecordingDirectory() to stopRecording(), across node restarts and without any node
+    private volatile File mRecordDirectory;
+    private volatile BagRecorder mRecorder;
+    private volatile SessionLog.Writer mSessionLog;
+    // while no node runs, the publishers run on an OfflineNode so the recorder still gets their output
+    private boolean mNodeRunning = false;
+    private Node mNode; // the node the publishers run on, null offline
+    private Thread mOfflineLoop;
+
+    // queues messages while the master is unreachable, and publishes them once it is back
+    private StoreAndForward mForwarder;
+    private static final long IMAGE_QUEUE_BYTES = 8L << 20; // a few dozen JPEGs
+    private static final long GPS_QUEUE_BYTES = 256L << 10;
+    private static final long GPS_SPILL_BYTES = 16L << 20;
+    private static final long IMU_QUEUE_BYTES = 4L << 20;
+    private static final long IMU_QUEUE_INTERVAL = 100; // ms, 10 Hz
+    private static final long ODOM_QUEUE_BYTES = 4L << 20;
+    private static final long ODOM_QUEUE_INTERVAL = 100;
 
     // GPS data
     private Location location;
@@ -76,19 +173,26 @@ public class SensorPublisher extends AbstractNodeMain implements
 
     public SensorPublisher(Context mContext, NodeMainExecutor n) {
         mSensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
-        List<Sensor> deviceSensors = mSensorManager.getSensorList(Sensor.TYPE_ALL);
-
-        sensors = new ArrayList<>();
-
-        sensors.add(mSensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION)); //TODO: use vanilla Accelerometer data?
-        sensors.add(mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR));
-        sensors.add(mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE));
-        sensors.add(mSensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE));
-        // hold off on other sensors
-
-        mAcceleration = new float[3];
-        mOrientation = new float[4]; //quaternion
-        mGyroscope = new float[3];
+        // which sensors run and how fast, see assets/sensors.properties
+        mConfig = SensorConfig.fromAssets(mContext);
+        mDeviceDiagnostics = new DeviceDiagnostics(mContext);
+
+        LatencyMonitor latencies = mPipeline.getLatencies();
+        mSensorDelivery = latencies.histogram("sensor event delivery");
+        mPoseDelivery = latencies.histogram("camera frame to pose");
+        mImagePublish = latencies.histogram("android/camera/image_raw/compressed publish");
+        mRawImagePublish = latencies.histogram("android/camera/image_raw publish");
+        mPointCloudPublish = latencies.histogram("android/point_cloud publish");
+        mPlanePublish = latencies.histogram("android/planes publish");
+        mLatencyDirectory = mContext.getExternalFilesDir("latency");
+        mFrameInterval = latencies.histogram("camera frame interval");
+
+        mGovernor.addListener(new QualityGovernor.Listener() {
+            @Override
+            public void onLevelChanged(int level) {
+                applyQuality(level);
+            }
+        });
 
         location = new Location(""); //probably ok
 
@@ -96,54 +200,67 @@ public class SensorPublisher extends AbstractNodeMain implements
         location.setLatitude(42.2932);
         location.setLongitude(-71.2637);
         location.setAltitude(88);
+        updateDeclination(location);
     }
 
     /* Sensor Callbacks Begin */
     @Override
     public void onSensorChanged(SensorEvent event) {
-        boolean orientationChanged = false;
+        // SensorEvent.timestamp and Frame.getTimestamp() count elapsed realtime
+        mSensorDelivery.record(SystemClock.elapsedRealtimeNanos() - event.timestamp);
+        // event.values is recycled by the framework, so everything is copied out here
         switch (event.sensor.getType()) {
-            case Sensor.TYPE_LINEAR_ACCELERATION:
-                // accelerometer minus gravity
-                mAcceleration = event.values;
+            case Sensor.TYPE_LINEAR_ACCELERATION: // accelerometer minus gravity
+            case Sensor.TYPE_ACCELEROMETER:
+                // only one of the two is registered
+                mImu.onAcceleration(event.timestamp, event.values);
                 break;
             case Sensor.TYPE_GYROSCOPE:
-                mGyroscope = event.values;
+            case Sensor.TYPE_GYROSCOPE_UNCALIBRATED:
+                // uncalibrated also carries the drift estimate in values[3..5], not published
+                mImu.onGyroscope(event.timestamp, event.values);
+                break;
+            case Sensor.TYPE_MAGNETIC_FIELD:
+                mImu.onMagneticField(event.timestamp, event.values);
                 break;
             case Sensor.TYPE_PRESSURE:
                 location.setAltitude(SensorManager.getAltitude(mSeaPressure, event.values[0]));
                 break;
             case Sensor.TYPE_ROTATION_VECTOR:
-                GeomagneticField g = new GeomagneticField((float) location.getLatitude(),
-                        (float) location.getLongitude(),
-                        (float) location.getAltitude(),
-                        System.currentTimeMillis());
-                double decl = Math.toRadians(g.getDeclination());
-
-                SensorManager.getQuaternionFromVector(mOrientation, event.values);
-
-                Quaternion q = new Quaternion(mOrientation); //w,x,y,z
-
-                // TODO : verify rectification for magnetic declination
-                // Quaternion q1 = Quaternion.fromAxisAngle(new float[]{0,0,1}, (float)(0));
-                // Correct for Magnetic Declination and x-y discrepancy
-                //q = q.mul(q1);
-
-                //q.normalize();
-                mOrientation[0] = q.w;
-                mOrientation[1] = q.x;
-                mOrientation[2] = q.y;
-                mOrientation[3] = q.z;
-
+                SensorManager.getQuaternionFromVector(mRotationScratch, event.values); //w,x,y,z
+                toEnu(mRotationScratch);
+                mImu.onOrientation(event.timestamp, mRotationScratch);
 
                 //TODO : use accuracy : event.values[4], assumed variance?
                 break;
         }
-        if (imuPublisher != null) {
-            //sometimes there's another application running to grab sensor data
-            //before imuPublisher is instantiated
-            imuPublisher.update(mAcceleration, mGyroscope, mOrientation);
+    }
+
+    /**
+     * The rotation vector's world frame has y on magnetic north; with declination d (east
+     * positive) true north is d counter-clockwise from it, so q_enu = Rz(-d) * q_mag. In place, w,x,y,z.
+     */
+    private void toEnu(float[] q) {
+        float d = mDeclination.getDeclination();
+        if (d != mAppliedDeclination) {
+            mAppliedDeclination = d;
+            mDeclinationRot.set((float) Math.cos(-d / 2), 0, 0, (float) Math.sin(-d / 2));
         }
+        mMagneticRot.set(q[0], q[1], q[2], q[3]);
+        mDeclinationRot.mul(mMagneticRot, mEnuRot);
+        q[0] = mEnuRot.w;
+        q[1] = mEnuRot.x;
+        q[2] = mEnuRot.y;
+        q[3] = mEnuRot.z;
+    }
+
+    private void updateDeclination(Location l) {
+        // only recomputed when the fix leaves the cached cell
+        mDeclination.update(l.getLatitude(), l.getLongitude(), l.getAltitude(), System.currentTimeMillis());
+    }
+
+    public DeclinationCache getDeclinationCache() {
+        return mDeclination;
     }
 
     /* GPS Callback */
@@ -156,16 +273,272 @@ public class SensorPublisher extends AbstractNodeMain implements
             this.location.setLongitude(location.getLongitude());
         }
         //this.location = location;
+        updateDeclination(this.location);
 
-        if (gpsPublisher != null) {
-            gpsPublisher.update(location);
-            gpsPublisher.updateCovariance(location.getAccuracy());
-        }
+        // fixes carry elapsed-realtime stamps; sample that clock directly to calibrate it
+        mFixes.onFix(SystemClock.elapsedRealtimeNanos(), location.getElapsedRealtimeNanos(),
+                location.getLatitude(), location.getLongitude(),
+                location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                location.hasAccuracy() ? location.getAccuracy() : 0f);
     }
 
     /* Odom Callback */
-    public void onOdomChanged(float[] txn, float[] rxn) {
-        odomPublisher.update(txn, rxn);
+    public void onOdomChanged(long timestamp, float[] txn, float[] rxn) {
+        // timestamp : ARCore Frame.getTimestamp()
+        mPoses.onPose(timestamp, txn, rxn, mGravityScratch);
+        mPoseDelivery.record(SystemClock.elapsedRealtimeNanos() - timestamp);
+    }
+
+    /* Camera Frame Callback, on the thread that calls Session.update() */
+    public void onCameraFrame(Frame frame, PoseTracker tracker) {
+        ClockService clock = mPipeline.getClock();
+        mFrameAgeNs = clock.now() - clock.toRos(ClockService.CAMERA, frame.getTimestamp());
+        mCameraFrames = mCameraFrames + 1;
+        long now = System.nanoTime();
+        if (mLastFrameNs != 0) {
+            mFrameInterval.record(now - mLastFrameNs);
+        }
+        mLastFrameNs = now;
+        if (!mPoses.isImuExtrinsicKnown() && frame.getCamera().getTrackingState() == TrackingState.TRACKING) {
+            updateImuExtrinsic(frame);
+        }
+        if (tracker.hasOrigin()) {
+            // the odom frame is the first camera pose, so it is not gravity aligned
+            tracker.getOriginRotation().rotate(GRAVITY_WORLD, 0, mGravityScratch, 0);
+        }
+        CameraImagePublisher p = cameraImagePublisher;
+        long t0 = System.nanoTime(), t1;
+        if (p != null) {
+            p.onFrame(frame);
+            t1 = System.nanoTime();
+            mImagePublish.record(t1 - t0);
+            t0 = t1;
+        }
+        RawImagePublisher r = rawImagePublisher;
+        if (r != null) {
+            r.onFrame(frame);
+            t1 = System.nanoTime();
+            mRawImagePublish.record(t1 - t0);
+            t0 = t1;
+        }
+        PointCloudPublisher pc = pointCloudPublisher;
+        if (pc != null) {
+            pc.onFrame(frame, tracker);
+            t1 = System.nanoTime();
+            mPointCloudPublish.record(t1 - t0);
+            t0 = t1;
+        }
+        PlanePublisher pp = planePublisher;
+        if (pp != null) {
+            pp.onFrame(frame, tracker);
+            mPlanePublish.record(System.nanoTime() - t0);
+        }
+    }
+
+    private void updateImuExtrinsic(Frame frame) {
+        // the camera and the android sensor frame are rigidly attached; once is enough
+        Pose imu = frame.getCamera().getPose().inverse().compose(frame.getAndroidSensorPose());
+        imu.getTranslation(mImuTxn, 0);
+        imu.getRotationQuaternion(mImuRxn, 0);
+        mPoses.setImuExtrinsic(mImuTxn, mImuRxn);
+    }
+
+    /* Tracking state Callback */
+    public void onTrackingStateChanged(TrackingState state) {
+        if (state != mTrackingState) {
+            mTrackingState = state;
+            mTrackingStateSinceMs = SystemClock.elapsedRealtime();
+        }
+        boolean tracking = state == TrackingState.TRACKING;
+        if (mTracking && !tracking) {
+            mPoses.onTrackingLost();
+        }
+        mTracking = tracking;
+    }
+
+    public void setImuMode(IMUPublisher.Mode mode) {
+        // takes effect on the next node start
+        mPipeline.setImuMode(mode);
+    }
+
+    /** Publishes IMU-rate fused odometry on android/odom/fused; takes effect on the next node start. */
+    public void setFusedOdometry(boolean enabled) {
+        mPipeline.setFusedOdometry(enabled);
+    }
+
+    public SensorPipeline getPipeline() {
+        return mPipeline;
+    }
+
+    public CameraImagePublisher getCameraImagePublisher() {
+        return cameraImagePublisher;
+    }
+
+    public RawImagePublisher getRawImagePublisher() {
+        return rawImagePublisher;
+    }
+
+    public PointCloudPublisher getPointCloudPublisher() {
+        return pointCloudPublisher;
+    }
+
+    public SensorConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * Records every published message as rosbags in {@code dir}, and the pipeline input as a
+     * {@link SessionLog} for {@link SessionReplay}, from now until {@link #stopRecording()},
+     * whether a master is reachable or not.
+     */
+    public void setRecordingDirectory(File dir) {
+        mRecordDirectory = dir;
+        startRecording();
+    }
+
+    private synchronized void startRecording() {
+        File dir = mRecordDirectory;
+        if (dir == null || mRecorder != null) {
+            return;
+        }
+        String prefix = "android_" + System.currentTimeMillis() / 1000;
+        BagRecorder recorder = new BagRecorder(dir, prefix);
+        recorder.start();
+        mRecorder = recorder;
+        try {
+            mSessionLog = new SessionLog.Writer(new File(dir, prefix + ".slog"), TimeSource.SYSTEM);
+            mPipeline.setLog(mSessionLog);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot open the session log", e);
+        }
+        if (mNodeRunning) {
+            applySinks();
+        } else {
+            startOffline();
+        }
+    }
+
+    /** Finishes the bags and the session log; call when the activity goes away. */
+    public synchronized void stopRecording() {
+        BagRecorder recorder = mRecorder;
+        if (recorder == null) {
+            return;
+        }
+        stopOffline();
+        if (mSessionLog != null) {
+            mPipeline.setLog(null);
+            mSessionLog.close();
+            mSessionLog = null;
+        }
+        mRecorder = null;
+        if (mNodeRunning) {
+            applySinks();
+        }
+        // flushes the queue and finishes the current segment
+        recorder.stop();
+    }
+
+    /** Creates the publishers on {@code node}; the caller drives the scheduler. */
+    private void startPublishers(ConnectedNode node) {
+        mPipeline.start(node);
+        cameraImagePublisher = new CameraImagePublisher(node, mPipeline.getClock());
+        rawImagePublisher = new RawImagePublisher(node, mPipeline.getClock());
+        pointCloudPublisher = new PointCloudPublisher(node, mPipeline.getClock(), POINT_MAP_CAPACITY);
+        planePublisher = new PlanePublisher(node, mPipeline.getClock());
+        applyQuality(mGovernor.getLevel());
+    }
+
+    private void stopPublishers() {
+        CameraImagePublisher p = cameraImagePublisher;
+        if (p != null) {
+            cameraImagePublisher = null;
+            p.shutdown();
+        }
+        RawImagePublisher r = rawImagePublisher;
+        if (r != null) {
+            rawImagePublisher = null;
+            r.shutdown();
+        }
+        pointCloudPublisher = null;
+        planePublisher = null;
+        mPipeline.stop();
+    }
+
+    /** Points the running publishers at the recorder, and at the forwarder while a node runs. */
+    private void applySinks() {
+        MessageSink sink = mRecorder;
+        if (mNodeRunning && mForwarder != null) {
+            sink = sink != null ? new MessageSink.Both(sink, mForwarder) : mForwarder;
+        }
+        mPipeline.setRecorder(sink);
+        CameraImagePublisher p = cameraImagePublisher;
+        if (p != null) {
+            p.setRecorder(sink);
+        }
+        RawImagePublisher r = rawImagePublisher;
+        if (r != null) {
+            r.setRecorder(sink);
+        }
+        PointCloudPublisher pc = pointCloudPublisher;
+        if (pc != null) {
+            pc.setRecorder(sink);
+        }
+    }
+
+    private void startOffline() {
+        startPublishers(OfflineNode.newConnectedNode());
+        applySinks();
+        mOfflineLoop = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mPipeline.publishLoop();
+                } catch (InterruptedException e) {
+                    // nobody interrupts it; stopOffline() stops the pipeline instead
+                }
+            }
+        }, "OfflinePublisher");
+        mOfflineLoop.start();
+    }
+
+    private void stopOffline() {
+        Thread t = mOfflineLoop;
+        if (t == null) {
+            return;
+        }
+        mOfflineLoop = null;
+        // waits for the loop to exit
+        stopPublishers();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public BagRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    /**
+     * Queues images (drop oldest), GPS (keep all, spilled to {@code spillDirectory}), IMU and
+     * odometry (downsampled to 10 Hz) while {@code masterUri} is unreachable. Call before the node
+     * starts; the caller starts the returned forwarder and restarts the node when it reconnects.
+     * The backlog is published under {@link StoreAndForward#BACKLOG_NAMESPACE}, not on the live topics.
+     */
+    public StoreAndForward enableStoreAndForward(File spillDirectory, URI masterUri) {
+        StoreAndForward f = new StoreAndForward(spillDirectory, masterUri);
+        f.setPolicy("android/camera/image_raw/compressed", StoreAndForward.Policy.DROP_OLDEST,
+                IMAGE_QUEUE_BYTES, 0, 0);
+        f.setPolicy("android/gps", StoreAndForward.Policy.KEEP_ALL, GPS_QUEUE_BYTES, 0, GPS_SPILL_BYTES);
+        f.setPolicy("android/imu", StoreAndForward.Policy.DOWNSAMPLE, IMU_QUEUE_BYTES, IMU_QUEUE_INTERVAL, 0);
+        f.setPolicy("android/odom", StoreAndForward.Policy.DOWNSAMPLE, ODOM_QUEUE_BYTES, ODOM_QUEUE_INTERVAL, 0);
+        mForwarder = f;
+        return f;
+    }
+
+    public StoreAndForward getStoreAndForward() {
+        return mForwarder;
     }
 
     /* Sensor Accuracy Callback */
@@ -177,10 +550,8 @@ public class SensorPublisher extends AbstractNodeMain implements
 
     /* Callbacks Registration */
     public void registerListeners(Activity activity) {
-        // register all listeners
-        for (Sensor s : sensors) {
-            mSensorManager.registerListener(this, s, SensorManager.SENSOR_DELAY_FASTEST);
-        }
+        registerSensors();
+        startRecording();
 
         mFusedLocationClient = LocationServices.getFusedLocationProviderClient(activity);
 
@@ -200,8 +571,37 @@ public class SensorPublisher extends AbstractNodeMain implements
         };
     }
 
-    public void unregisterListeners() {
+    private synchronized void registerSensors() {
+        // a raw accelerometer / uncalibrated gyro replaces its processed counterpart
+        boolean rawAccel = mConfig.isEnabled(Sensor.TYPE_ACCELEROMETER);
+        boolean rawGyro = mConfig.isEnabled(Sensor.TYPE_GYROSCOPE_UNCALIBRATED);
+        mImu.setRawAccelerometer(rawAccel);
+
+        for (SensorConfig.Entry e : mConfig.getEntries()) {
+            if (!e.enabled
+                    || (rawAccel && e.type == Sensor.TYPE_LINEAR_ACCELERATION)
+                    || (rawGyro && e.type == Sensor.TYPE_GYROSCOPE)) {
+                continue;
+            }
+            Sensor s = mSensorManager.getDefaultSensor(e.type);
+            if (s == null) {
+                Log.w(TAG, "No " + e.name + " sensor on this device");
+                continue;
+            }
+            // with a non-zero latency, sensors that have a hardware FIFO deliver in batches
+            mSensorManager.registerListener(this, s, e.getPeriodUs(), e.getMaxLatencyUs());
+        }
+        mListening = true;
+    }
+
+    private synchronized void unregisterSensors() {
         mSensorManager.unregisterListener(this);
+        mListening = false;
+    }
+
+    public void unregisterListeners() {
+        unregisterSensors();
+        stopRecording();
         mFusedLocationClient.removeLocationUpdates(mLocationCallback);
     }
 
@@ -213,9 +613,45 @@ public class SensorPublisher extends AbstractNodeMain implements
 
     @Override
     public void onStart(final ConnectedNode connectedNode) {
-        imuPublisher = new IMUPublisher(connectedNode);
-        gpsPublisher = new GPSPublisher(connectedNode);
-        odomPublisher = new OdomPublisher(connectedNode);
+        if (mConfig.applyParameters(connectedNode.getParameterTree()) && mListening) {
+            // ROS parameters changed the sensor set or rates
+            unregisterSensors();
+            registerSensors();
+        }
+
+        synchronized (this) {
+            stopOffline();
+            if (mNode != null) {
+                // the previous node has not shut down yet; its publishers go now
+                stopPublishers();
+            }
+            mNodeRunning = true;
+            mNode = connectedNode;
+            startPublishers(connectedNode);
+            if (mForwarder != null) {
+                mForwarder.attach(connectedNode);
+            }
+            applySinks();
+        }
+
+        final DiagnosticsPublisher diagnostics = new DiagnosticsPublisher(connectedNode, mPipeline.getClock());
+        addDiagnostics(diagnostics);
+        Subscriber<Empty> dump = connectedNode.newSubscriber("android/dump_latency", Empty._TYPE);
+        dump.addMessageListener(new MessageListener<Empty>() {
+            @Override
+            public void onNewMessage(Empty message) {
+                dumpLatencies();
+            }
+        });
+        connectedNode.executeCancellableLoop(new CancellableLoop() {
+            @Override
+            protected void loop() throws InterruptedException {
+                // its own loop, so that a stuck publish thread still gets reported
+                Thread.sleep(DIAGNOSTICS_PERIOD_MS);
+                governQuality();
+                diagnostics.publish();
+            }
+        });
 
         // This CancellableLoop will be canceled automatically when the node shuts
         // down.
@@ -227,12 +663,184 @@ public class SensorPublisher extends AbstractNodeMain implements
 
             @Override
             protected void loop() throws InterruptedException {
-                // basically, keep on publishing if data exists
-                imuPublisher.publish();
-                gpsPublisher.publish();
-                odomPublisher.publish();
-                //TODO : implement and check publication flags
+                // returns once the pipeline is stopped or started again on another node
+                mPipeline.publishLoop();
+                cancel();
+            }
+        });
+    }
+
+    private void addDiagnostics(DiagnosticsPublisher diagnostics) {
+        mPipeline.addDiagnostics(diagnostics);
+        diagnostics.add("tracking", new DiagnosticsPublisher.Source() {
+            private long lastFrames = -1;
+            private long lastMs;
+
+            @Override
+            public void report(DiagnosticsPublisher.Status status) {
+                // ARCore 1.5 has no tracking failure reason, only the state
+                TrackingState state = mTrackingState;
+                long nowMs = SystemClock.elapsedRealtime();
+                long frames = mCameraFrames;
+                status.put("state", state.toString());
+                status.put("time in state (s)", (nowMs - mTrackingStateSinceMs) / 1000.0);
+                if (lastFrames >= 0 && nowMs > lastMs) {
+                    status.put("camera rate (Hz)", (frames - lastFrames) * 1000.0 / (nowMs - lastMs));
+                }
+                status.put("frame age (ms)", mFrameAgeNs / 1e6);
+                lastFrames = frames;
+                lastMs = nowMs;
+                if (state != TrackingState.TRACKING) {
+                    status.warn("not tracking");
+                }
             }
         });
+        diagnostics.add("camera", new DiagnosticsPublisher.Source() {
+            @Override
+            public void report(DiagnosticsPublisher.Status status) {
+                CameraImagePublisher p = cameraImagePublisher;
+                if (p != null) {
+                    status.put("compressed dropped", p.getDropped());
+                }
+                RawImagePublisher r = rawImagePublisher;
+                if (r != null) {
+                    status.put("raw dropped", r.getDropped());
+                    status.put("raw queue depth", r.getQueueDepth());
+                }
+                PointCloudPublisher pc = pointCloudPublisher;
+                if (pc != null) {
+                    status.put("point map size", pc.getMapSize());
+                }
+            }
+        });
+        // topics published from the camera frame rather than the scheduler
+        diagnostics.add("android/camera/image_raw/compressed", cameraImagePublisher.getStats());
+        diagnostics.add("android/camera/image_raw", rawImagePublisher.getStats());
+        diagnostics.add("android/point_cloud", pointCloudPublisher.getStats());
+        diagnostics.add("android/point_cloud/map", pointCloudPublisher.getMapStats());
+        diagnostics.add("android/planes/markers", planePublisher.getMarkerStats());
+        diagnostics.add("android/planes/polygons", planePublisher.getPolygonStats());
+        final StoreAndForward forwarder = mForwarder;
+        if (mRecordDirectory != null || forwarder != null) {
+            diagnostics.add("recording", new DiagnosticsPublisher.Source() {
+                @Override
+                public void report(DiagnosticsPublisher.Status status) {
+                    BagRecorder recorder = mRecorder;
+                    if (recorder != null) {
+                        status.put("bag dropped", recorder.getDropped());
+                        status.put("bag pending (bytes)", recorder.getPendingBytes());
+                        status.put("bag written (bytes)", recorder.getWrittenBytes());
+                    }
+                    SessionLog.Writer log = mSessionLog;
+                    if (log != null) {
+                        status.put("session log dropped", log.getDropped());
+                    }
+                    if (forwarder != null) {
+                        status.put("master reachable", Boolean.toString(forwarder.isOnline()));
+                        status.put("forward backlog", forwarder.getBacklog());
+                        status.put("forwarded", forwarder.getForwarded());
+                        status.put("outages", forwarder.getOutages());
+                        if (!forwarder.isOnline()) {
+                            status.warn("master unreachable, queueing");
+                        }
+                    }
+                }
+            });
+        }
+        diagnostics.add("device", mDeviceDiagnostics);
+        diagnostics.add("quality governor", mGovernor);
+        mPipeline.getLatencies().addDiagnostics(diagnostics);
+    }
+
+    /** Feeds the governor the thermal status, the recent frame interval and the output backlog. */
+    private void governQuality() {
+        mFrameInterval.snapshot(mFramesNow);
+        mFramesNow.subtract(mFramesBefore);
+        long frameTime = mFramesNow.getValueAtPercentile(90);
+        mFrameInterval.snapshot(mFramesBefore);
+
+        long dropped = 0;
+        boolean queued = false;
+        CameraImagePublisher p = cameraImagePublisher;
+        if (p != null) {
+            dropped += p.getDropped();
+        }
+        RawImagePublisher r = rawImagePublisher;
+        if (r != null) {
+            dropped += r.getDropped();
+            queued = r.getQueueDepth() > 1;
+        }
+        BagRecorder recorder = mRecorder;
+        if (recorder != null) {
+            dropped += recorder.getDropped();
+        }
+        boolean backlogged = dropped > mLastDropped || queued || mPipeline.isPublishLoopSaturated();
+        mLastDropped = dropped;
+
+        mGovernor.evaluate(SystemClock.elapsedRealtime(), mDeviceDiagnostics.getThermalStatus(),
+                frameTime, backlogged);
+    }
+
+    private void applyQuality(int level) {
+        CameraImagePublisher p = cameraImagePublisher;
+        if (p != null) {
+            p.setMaxRate(IMAGE_RATE[level]);
+            p.setDownsample(IMAGE_DOWNSAMPLE[level]);
+            p.setQuality(IMAGE_QUALITY[level]);
+        }
+        RawImagePublisher r = rawImagePublisher;
+        if (r != null) {
+            r.setMaxRate(RAW_IMAGE_RATE[level]);
+        }
+        PointCloudPublisher pc = pointCloudPublisher;
+        if (pc != null) {
+            pc.setMaxRate(POINT_CLOUD_RATE[level]);
+            pc.setMapRate(POINT_MAP_RATE[level]);
+        }
+        PlanePublisher pp = planePublisher;
+        if (pp != null) {
+            pp.setMaxRate(PLANE_RATE[level]);
+        }
+        mPipeline.setImuRateDivisor(IMU_RATE_DIVISOR[level]);
+    }
+
+    public QualityGovernor getQualityGovernor() {
+        return mGovernor;
+    }
+
+    /** Writes every latency histogram to a new file, see {@link LatencyMonitor#dump}. */
+    public File dumpLatencies() {
+        File dir = mLatencyDirectory;
+        if (dir == null || (!dir.isDirectory() && !dir.mkdirs())) {
+            Log.w(TAG, "No directory for the latency dump");
+            return null;
+        }
+        File file = new File(dir, "latency_" + System.currentTimeMillis() + ".txt");
+        try {
+            mPipeline.getLatencies().dump(file);
+            Log.i(TAG, "Latency histograms written to " + file);
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write the latency dump", e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void onShutdown(Node node) {
+        if (node != mNode) {
+            // a node that was replaced before its shutdown came through
+            return;
+        }
+        mNode = null;
+        stopPublishers();
+        if (mForwarder != null) {
+            mForwarder.detach();
+        }
+        mNodeRunning = false;
+        if (mRecorder != null) {
+            // keep recording until the next node starts
+            startOffline();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,499 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import android.util.Log;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.internal.message.DefaultMessageSerializer;
+import org.ros.internal.message.Message;
+import org.ros.internal.message.MessageBuffers;
+import org.ros.message.MessageDeserializer;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the messages published while the ROS master is unreachable and publishes them again
+ * once it is back.
+ *
+ * A background thread probes the master with a TCP connect every {@link #PROBE_PERIOD_MS}. While
+ * it is down, {@link #record} serializes the messages of every topic that has a policy into that
+ * topic's bounded queue:
+ * <ul>
+ * <li>{@link Policy#DROP_OLDEST} keeps the newest messages that fit, e.g. images;</li>
+ * <li>{@link Policy#KEEP_ALL} spills to a file once memory is full and only drops when the file is
+ * full too, e.g. GPS;</li>
+ * <li>{@link Policy#DOWNSAMPLE} keeps one message per interval, then behaves like drop-oldest,
+ * e.g. IMU.</li>
+ * </ul>
+ * When the master comes back, the {@link Listener} restarts the node, and the backlog goes out
+ * from the new node, oldest stamp first across all topics, throttled to
+ * {@link #setDrainRate bytes per second} (and at most one message per 5 ms) so that it does not
+ * compete with the live data. It is published under {@link #BACKLOG_NAMESPACE}, e.g. android/imu
+ * on android/backlog/imu, so that the stamps on the live topics never jump back; a topic is only
+ * drained once its backlog topic has a subscriber.
+ *
+ * Nothing is serialized while the master is reachable.
+ */
+public class StoreAndForward implements MessageSink {
+    private static final String TAG = "StoreAndForward";
+
+    public enum Policy {
+        DROP_OLDEST,
+        KEEP_ALL,
+        DOWNSAMPLE
+    }
+
+    public interface Listener {
+        /** The master is reachable again after an outage; called on the probe thread. */
+        void onReconnected();
+    }
+
+    /** Backlog topics are the live ones with android/ replaced by this. */
+    public static final String BACKLOG_NAMESPACE = "/android/backlog/";
+    private static final String LIVE_NAMESPACE = "/android/";
+
+    private static final long PROBE_PERIOD_MS = 2000;
+    private static final int PROBE_TIMEOUT_MS = 1000;
+    private static final long DEFAULT_DRAIN_RATE = 256 << 10; // bytes/s
+    // rosjava queues only a few messages per publisher; small messages are paced by count
+    private static final long MIN_SEND_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final int RECORD_HEADER = 12; // spill file : stamp, length
+
+    private final File spillDirectory;
+    private final String masterHost;
+    private final int masterPort;
+    private final DefaultMessageSerializer serializer = new DefaultMessageSerializer();
+    private final ConcurrentHashMap<String, TopicQueue> queues = new ConcurrentHashMap<>();
+
+    private volatile boolean online = true;
+    private volatile ConnectedNode node;
+    private volatile Listener listener;
+    private volatile long drainRate = DEFAULT_DRAIN_RATE;
+    private volatile long outages = 0;
+    private volatile long forwarded = 0;
+
+    private final Thread thread;
+    private volatile boolean running = false;
+
+    // drain thread only : backlog publishers and deserializers of the current node, by live topic
+    private ConnectedNode drainNode;
+    private final Map<String, Publisher<Message>> publishers = new HashMap<>();
+    private final Map<String, MessageDeserializer<Message>> deserializers = new HashMap<>();
+
+    private static class Entry {
+        final long stamp;
+        final byte[] data;
+
+        Entry(long stamp, byte[] data) {
+            this.stamp = stamp;
+            this.data = data;
+        }
+    }
+
+    private static class TopicQueue {
+        final String topic;
+        final Policy policy;
+        final long maxBytes;
+        final long minIntervalNs;
+        final File spillFile;
+        final long maxSpillBytes;
+
+        String type;
+        final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        long bytes;
+        long lastStamp = Long.MIN_VALUE;
+        final ChannelBuffer scratch = MessageBuffers.dynamicBuffer();
+
+        // spill file, a FIFO behind the entries in memory
+        RandomAccessFile spill;
+        byte[] spillScratch = new byte[RECORD_HEADER];
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        long spillRead, spillWrite;
+        long spillHead = -1; // stamp of the record at spillRead, -1 if not read yet
+
+        long queued, dropped;
+
+        TopicQueue(String topic, Policy policy, long maxBytes, long minIntervalNs, File spillFile,
+                   long maxSpillBytes) {
+            this.topic = topic;
+            this.policy = policy;
+            this.maxBytes = maxBytes;
+            this.minIntervalNs = minIntervalNs;
+            this.spillFile = spillFile;
+            this.maxSpillBytes = maxSpillBytes;
+        }
+
+        synchronized boolean offer(DefaultMessageSerializer serializer, Message msg, long stamp) {
+            if (policy == Policy.DOWNSAMPLE && lastStamp != Long.MIN_VALUE && stamp - lastStamp < minIntervalNs) {
+                ++dropped;
+                return false;
+            }
+            if (type == null) {
+                type = msg.toRawMessage().getType();
+            }
+            scratch.clear();
+            serializer.serialize(msg, scratch);
+            int n = scratch.readableBytes();
+
+            if (policy == Policy.KEEP_ALL && (spillRead < spillWrite || bytes + n > maxBytes)) {
+                // once spilling, everything goes to the file so that the order is kept
+                if (!spill(stamp, n)) {
+                    ++dropped;
+                    return false;
+                }
+            } else {
+                if (n > maxBytes) {
+                    ++dropped;
+                    return false;
+                }
+                while (bytes + n > maxBytes) {
+                    bytes -= entries.removeFirst().data.length;
+                    ++dropped;
+                }
+                byte[] data = new byte[n];
+                scratch.getBytes(scratch.readerIndex(), data);
+                entries.addLast(new Entry(stamp, data));
+                bytes += n;
+            }
+            lastStamp = stamp;
+            ++queued;
+            return true;
+        }
+
+        private boolean spill(long stamp, int n) {
+            if (spillWrite - spillRead + RECORD_HEADER + n > maxSpillBytes) {
+                return false;
+            }
+            try {
+                if (spill == null) {
+                    spill = new RandomAccessFile(spillFile, "rw");
+                    spill.setLength(0);
+                }
+                if (spillScratch.length < RECORD_HEADER + n) {
+                    spillScratch = new byte[RECORD_HEADER + n];
+                }
+                // one write per record
+                ByteBuffer.wrap(spillScratch).putLong(stamp).putInt(n);
+                scratch.getBytes(scratch.readerIndex(), spillScratch, RECORD_HEADER, n);
+                spill.seek(spillWrite);
+                spill.write(spillScratch, 0, RECORD_HEADER + n);
+                spillWrite += RECORD_HEADER + n;
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot spill " + topic, e);
+                return false;
+            }
+        }
+
+        /** @return stamp of the oldest message, or -1 if empty */
+        synchronized long peekStamp() {
+            if (!entries.isEmpty()) {
+                return entries.peekFirst().stamp;
+            }
+            if (spillRead < spillWrite && spillHead == -1) {
+                try {
+                    spill.seek(spillRead);
+                    spill.readFully(header.array());
+                    spillHead = header.getLong(0);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot read the spill file of " + topic, e);
+                    resetSpill();
+                }
+            }
+            return spillHead;
+        }
+
+        synchronized Entry poll() {
+            if (!entries.isEmpty()) {
+                Entry e = entries.removeFirst();
+                bytes -= e.data.length;
+                return e;
+            }
+            if (spillRead < spillWrite) {
+                try {
+                    spill.seek(spillRead);
+                    spill.readFully(header.array());
+                    long stamp = header.getLong(0);
+                    byte[] data = new byte[header.getInt(8)];
+                    spill.readFully(data);
+                    spillRead += RECORD_HEADER + data.length;
+                    spillHead = -1;
+                    if (spillRead == spillWrite) {
+                        resetSpill();
+                    }
+                    return new Entry(stamp, data);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot read the spill file of " + topic, e);
+                    resetSpill();
+                }
+            }
+            return null;
+        }
+
+        private void resetSpill() {
+            spillRead = spillWrite = 0;
+            spillHead = -1;
+            try {
+                spill.setLength(0);
+            } catch (IOException e) {
+                // rewritten from the start anyway
+            }
+        }
+
+        synchronized int size() {
+            return entries.size() + (spillRead < spillWrite ? 1 : 0);
+        }
+
+        synchronized void close() {
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    // nothing left to do
+                }
+                spill = null;
+                spillFile.delete();
+                spillRead = spillWrite = 0;
+            }
+        }
+    }
+
+    /**
+     * @param spillDirectory where {@link Policy#KEEP_ALL} topics overflow to
+     * @param masterUri master to watch
+     */
+    public StoreAndForward(File spillDirectory, URI masterUri) {
+        this.spillDirectory = spillDirectory;
+        this.masterHost = masterUri.getHost();
+        this.masterPort = masterUri.getPort() != -1 ? masterUri.getPort() : 11311;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * Queues {@code topic} while offline. Set before {@link #start()}.
+     * @param maxBytes memory for the queue
+     * @param minInterval {@link Policy#DOWNSAMPLE} only : minimum time between kept messages, ms
+     * @param maxSpillBytes {@link Policy#KEEP_ALL} only : size of the spill file
+     */
+    public void setPolicy(String topic, Policy policy, long maxBytes, long minInterval, long maxSpillBytes) {
+        String name = topic.startsWith("/") ? topic : "/" + topic;
+        File spillFile = new File(spillDirectory, name.substring(1).replace('/', '_') + ".spill");
+        queues.put(name, new TopicQueue(name, policy, maxBytes, TimeUnit.MILLISECONDS.toNanos(minInterval),
+                spillFile, maxSpillBytes));
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Backlog publish rate, in serialized bytes per second. */
+    public void setDrainRate(long bytesPerSecond) {
+        drainRate = Math.max(1, bytesPerSecond);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (TopicQueue q : queues.values()) {
+            q.close();
+        }
+    }
+
+    /** The backlog goes out from this node; call from NodeMain.onStart. */
+    public void attach(ConnectedNode node) {
+        this.node = node;
+    }
+
+    /** From NodeMain.onShutdown. */
+    public void detach() {
+        this.node = null;
+    }
+
+    @Override
+    public boolean record(String topic, Message msg, long stamp) {
+        if (online) {
+            return false;
+        }
+        TopicQueue q = queues.get(topic);
+        return q != null && q.offer(serializer, msg, stamp);
+    }
+
+    @Override
+    public boolean isRecording() {
+        return !online;
+    }
+
+    private void loop() {
+        long nextProbe = 0;
+        long nextSend = 0;
+        while (running) {
+            long now = System.nanoTime();
+            if (now >= nextProbe) {
+                probe();
+                nextProbe = now + TimeUnit.MILLISECONDS.toNanos(PROBE_PERIOD_MS);
+            }
+
+            ConnectedNode n = online ? node : null;
+            TopicQueue q = n != null ? oldest(n) : null;
+            long wait;
+            if (q == null) {
+                wait = nextProbe - System.nanoTime();
+            } else {
+                nextSend = Math.max(nextSend, now);
+                wait = Math.min(nextSend - now, nextProbe - now);
+                if (wait <= 0) {
+                    Entry e = q.poll();
+                    if (e != null) {
+                        forward(q, e);
+                        nextSend += Math.max(MIN_SEND_INTERVAL_NS, e.data.length * 1000000000L / drainRate);
+                    }
+                    continue;
+                }
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void probe() {
+        boolean up;
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(masterHost, masterPort), PROBE_TIMEOUT_MS);
+            up = true;
+        } catch (IOException e) {
+            up = false;
+        }
+        if (up == online) {
+            return;
+        }
+        online = up;
+        if (!up) {
+            outages = outages + 1;
+            Log.w(TAG, "Master unreachable, queueing messages");
+        } else {
+            Log.i(TAG, "Master reachable again, " + getBacklog() + " messages queued");
+            Listener l = listener;
+            if (l != null) {
+                l.onReconnected();
+            }
+        }
+    }
+
+    /** Queue with the oldest message among the topics that have subscribers on {@code n}. */
+    private TopicQueue oldest(ConnectedNode n) {
+        if (n != drainNode) {
+            // publishers of a previous node are gone
+            drainNode = n;
+            publishers.clear();
+            deserializers.clear();
+        }
+        TopicQueue best = null;
+        long bestStamp = Long.MAX_VALUE;
+        for (TopicQueue q : queues.values()) {
+            long stamp = q.peekStamp();
+            if (stamp == -1 || stamp >= bestStamp) {
+                continue;
+            }
+            Publisher<Message> p = publisher(n, q);
+            if (p != null && p.getNumberOfSubscribers() > 0) {
+                best = q;
+                bestStamp = stamp;
+            }
+        }
+        return best;
+    }
+
+    private Publisher<Message> publisher(ConnectedNode n, TopicQueue q) {
+        Publisher<Message> p = publishers.get(q.topic);
+        if (p == null && q.type != null) {
+            p = n.newPublisher(backlogTopic(q.topic), q.type);
+            publishers.put(q.topic, p);
+            MessageDeserializer<Message> d = n.getMessageSerializationFactory().newMessageDeserializer(q.type);
+            deserializers.put(q.topic, d);
+        }
+        return p;
+    }
+
+    /** Where the backlog of the live {@code topic} is published. */
+    public static String backlogTopic(String topic) {
+        String name = topic.startsWith("/") ? topic : "/" + topic;
+        if (name.startsWith(LIVE_NAMESPACE)) {
+            return BACKLOG_NAMESPACE + name.substring(LIVE_NAMESPACE.length());
+        }
+        return BACKLOG_NAMESPACE + name.substring(1);
+    }
+
+    private void forward(TopicQueue q, Entry e) {
+        Message msg = deserializers.get(q.topic).deserialize(
+                ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, e.data));
+        publishers.get(q.topic).publish(msg);
+        forwarded = forwarded + 1;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    /** Messages waiting to be forwarded, approximately (a spill file counts as one). */
+    public int getBacklog() {
+        int n = 0;
+        for (TopicQueue q : queues.values()) {
+            n += q.size();
+        }
+        return n;
+    }
+
+    public long getForwarded() {
+        return forwarded;
+    }
+
+    public long getOutages() {
+        return outages;
+    }
+
+    /** Messages not kept by the policy of {@code topic}, or because its queue was full. */
+    public long getDropped(String topic) {
+        TopicQueue q = queues.get(topic.startsWith("/") ? topic : "/" + topic);
+        if (q == null) {
+            return 0;
+        }
+        synchronized (q) {
+            return q.dropped;
+        }
+    }
+}
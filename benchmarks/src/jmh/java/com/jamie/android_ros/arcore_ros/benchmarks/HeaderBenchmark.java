@@ -0,0 +1,38 @@
+package com.jamie.android_ros.arcore_ros.benchmarks;
+
+import com.jamie.android_ros.arcore_ros.ros.OfflineNode;
+import com.jamie.android_ros.arcore_ros.ros.Utilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import std_msgs.Header;
+
+/**
+ * Header stamping : the in-place sensor stamp against the wall-clock one, which allocates a Time.
+ */
+@State(Scope.Thread)
+public class HeaderBenchmark {
+    private Header header;
+    private long stamp = 1500000000000000000L;
+
+    @Setup
+    public void setup() {
+        header = OfflineNode.getMessageFactory().newFromType(Header._TYPE);
+    }
+
+    @Benchmark
+    public Header sensorStamp() {
+        stamp += 5000000L;
+        Utilities.setHeader(header, "imu", stamp);
+        return header;
+    }
+
+    @Benchmark
+    public Header wallClockStamp() {
+        Utilities.setHeader(header, "imu");
+        return header;
+    }
+}
@@ -0,0 +1,51 @@
+package com.jamie.android_ros.arcore_ros.benchmarks;
+
+import com.jamie.android_ros.arcore_ros.ros.IMUPublisher;
+import com.jamie.android_ros.arcore_ros.ros.OfflineNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One IMU sample through {@link IMUPublisher}, as done by the publish thread per gyro sample.
+ */
+@State(Scope.Thread)
+public class ImuPublisherBenchmark {
+    private IMUPublisher latest;
+    private IMUPublisher everySample;
+    private final float[] acc = {0.1f, -9.8f, 0.2f};
+    private final float[] gyro = {0.01f, 0.02f, -0.03f};
+    private final float[] orientation = {1, 0, 0, 0};
+    private long stamp = 1500000000000000000L;
+
+    @Setup
+    public void setup() {
+        latest = new IMUPublisher(OfflineNode.newConnectedNode(), IMUPublisher.Mode.LATEST_ONLY);
+        everySample = new IMUPublisher(OfflineNode.newConnectedNode(), IMUPublisher.Mode.EVERY_SAMPLE);
+    }
+
+    @Benchmark
+    public void update() {
+        stamp += 5000000L;
+        latest.update(stamp, acc, gyro, orientation);
+    }
+
+    @Benchmark
+    public boolean updateAndPublish() {
+        stamp += 5000000L;
+        latest.update(stamp, acc, gyro, orientation);
+        return latest.publish();
+    }
+
+    /** Batched mode : one pooled message per sample, flushed when the batch is full. */
+    @Benchmark
+    public boolean addAndFlush() {
+        stamp += 5000000L;
+        if (everySample.add(stamp, acc, gyro, orientation)) {
+            return everySample.publish();
+        }
+        return false;
+    }
+}
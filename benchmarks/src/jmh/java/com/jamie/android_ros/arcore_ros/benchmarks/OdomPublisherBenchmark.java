@@ -0,0 +1,54 @@
+package com.jamie.android_ros.arcore_ros.benchmarks;
+
+import com.jamie.android_ros.arcore_ros.ros.OdomPublisher;
+import com.jamie.android_ros.arcore_ros.ros.OfflineNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One ARCore pose through {@link OdomPublisher} : pose, finite-difference twist and covariances.
+ */
+@State(Scope.Thread)
+public class OdomPublisherBenchmark {
+    private static final long FRAME_NS = 33000000L;
+
+    private OdomPublisher publisher;
+    private final float[] txn = new float[3];
+    private final float[] rxn = new float[4];
+    private long stamp = 1500000000000000000L;
+    private int frame;
+
+    @Setup
+    public void setup() {
+        publisher = new OdomPublisher(OfflineNode.newConnectedNode());
+    }
+
+    /** Walks a slow circle, so that the twist is never zero. */
+    private void next() {
+        double a = (++frame % 1000) * 2 * Math.PI / 1000;
+        txn[0] = (float) Math.cos(a);
+        txn[1] = (float) Math.sin(a);
+        txn[2] = 0;
+        rxn[0] = 0;
+        rxn[1] = 0;
+        rxn[2] = (float) Math.sin(a / 2);
+        rxn[3] = (float) Math.cos(a / 2);
+        stamp += FRAME_NS;
+    }
+
+    @Benchmark
+    public void update() {
+        next();
+        publisher.update(stamp, txn, rxn);
+    }
+
+    @Benchmark
+    public boolean updateAndPublish() {
+        next();
+        publisher.update(stamp, txn, rxn);
+        return publisher.publish();
+    }
+}
@@ -0,0 +1,30 @@
+package com.jamie.android_ros.arcore_ros.benchmarks;
+
+import com.jamie.android_ros.arcore_ros.ros.Quaternion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link Quaternion} products and normalization; the in-place product must stay allocation free.
+ */
+@State(Scope.Thread)
+public class QuaternionBenchmark {
+    private final Quaternion a = new Quaternion(0.9238795f, 0f, 0.3826834f, 0f);
+    private final Quaternion b = new Quaternion(0.7071068f, 0.7071068f, 0f, 0f);
+    private final Quaternion out = new Quaternion(1, 0, 0, 0);
+    private final Quaternion n = new Quaternion(1, 0, 0, 0);
+
+    @Benchmark
+    public Quaternion mulInPlace() {
+        return a.mul(b, out);
+    }
+
+    @Benchmark
+    public Quaternion normalize() {
+        n.set(1.1f, 0.2f, -0.3f, 0.4f);
+        n.normalize();
+        return n;
+    }
+}
@@ -0,0 +1,68 @@
+package com.jamie.android_ros.arcore_ros.benchmarks;
+
+import com.jamie.android_ros.arcore_ros.ros.OfflineNode;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ros.internal.message.DefaultMessageSerializer;
+import org.ros.internal.message.MessageBuffers;
+
+import nav_msgs.Odometry;
+import sensor_msgs.Imu;
+import sensor_msgs.NavSatFix;
+
+/**
+ * What rosjava does to every published message on its own thread : serialize it into a buffer.
+ * The buffer is reused, as rosjava's outgoing queue does, so B/op is the serializer's own cost.
+ */
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    private final DefaultMessageSerializer serializer = new DefaultMessageSerializer();
+    private final ChannelBuffer buffer = MessageBuffers.dynamicBuffer();
+    private Imu imu;
+    private Odometry odom;
+    private NavSatFix fix;
+
+    @Setup
+    public void setup() {
+        imu = OfflineNode.getMessageFactory().newFromType(Imu._TYPE);
+        imu.getHeader().setFrameId("imu");
+        imu.getLinearAcceleration().setY(-9.8);
+        imu.getOrientation().setW(1);
+
+        odom = OfflineNode.getMessageFactory().newFromType(Odometry._TYPE);
+        odom.getHeader().setFrameId("odom");
+        odom.setChildFrameId("base_link");
+        odom.getPose().getPose().getOrientation().setW(1);
+
+        fix = OfflineNode.getMessageFactory().newFromType(NavSatFix._TYPE);
+        fix.getHeader().setFrameId("gps");
+        fix.setLatitude(37.4275);
+        fix.setLongitude(-122.1697);
+        fix.setAltitude(30);
+    }
+
+    @Benchmark
+    public int imu() {
+        buffer.clear();
+        serializer.serialize(imu, buffer);
+        return buffer.writerIndex();
+    }
+
+    @Benchmark
+    public int odometry() {
+        buffer.clear();
+        serializer.serialize(odom, buffer);
+        return buffer.writerIndex();
+    }
+
+    @Benchmark
+    public int navSatFix() {
+        buffer.clear();
+        serializer.serialize(fix, buffer);
+        return buffer.writerIndex();
+    }
+}
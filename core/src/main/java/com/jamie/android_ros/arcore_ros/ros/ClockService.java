@@ -0,0 +1,160 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Maps the timestamps carried by the data sources to ROS time.
+ *
+ * Sensor events, ARCore frames and location fixes are each stamped by their own monotonic clock.
+ * For every source this keeps a running estimate of
+ *
+ *     ros_time = source_time + offset + drift * (source_time - reference)
+ *
+ * from pairs of (source timestamp, arrival time) observed when the data comes in. Arrival is
+ * always later than acquisition, so the offset tracks the lower envelope of the observed
+ * differences: it snaps down to any smaller difference and only creeps up slowly, which filters
+ * out delivery latency. Drift is the slope of the offset, measured over {@link #DRIFT_WINDOW_NS}.
+ *
+ * ROS time itself is the wall clock at construction advanced by the monotonic clock of the
+ * {@link TimeSource}, which gives monotonic nanosecond stamps instead of millisecond wall-clock ones.
+ *
+ * Each source must be observed from a single thread; conversions may happen on any thread. The
+ * observer publishes each estimate under a per-source sequence number (a seqlock), so a reader
+ * never mixes the offset of one update with the reference or drift of another, and never sees a
+ * torn long or double; nothing is allocated per observation.
+ */
+public class ClockService {
+    public static final int SENSOR = 0;  // SensorEvent.timestamp
+    public static final int CAMERA = 1;  // ARCore Frame.getTimestamp()
+    public static final int ELAPSED = 2; // SystemClock.elapsedRealtimeNanos(), Location fixes
+    private static final int NUM_SOURCES = 3;
+
+    private static final double LEAK = 1e-3; // upward correction per observation
+    private static final double DRIFT_GAIN = 0.2;
+    private static final long DRIFT_WINDOW_NS = 10000000000L;
+
+    private final TimeSource time;
+    private final long wallAnchorNs;
+    private final long monoAnchorNs;
+
+    // observer thread only
+    private final boolean[] initialized = new boolean[NUM_SOURCES];
+    private final long[] offset = new long[NUM_SOURCES];
+    private final long[] reference = new long[NUM_SOURCES];
+    private final double[] drift = new double[NUM_SOURCES];
+    // start of the current drift window
+    private final long[] windowSrc = new long[NUM_SOURCES];
+    private final long[] windowOffset = new long[NUM_SOURCES];
+
+    // published estimates, per source : sequence (odd while being written, 0 before the first
+    // observation), offset, reference, drift as raw double bits
+    private static final int SEQ = 0, OFFSET = 1, REFERENCE = 2, DRIFT = 3, FIELDS = 4;
+    private final AtomicLongArray published = new AtomicLongArray(NUM_SOURCES * FIELDS);
+
+    public ClockService() {
+        this(TimeSource.SYSTEM);
+    }
+
+    public ClockService(TimeSource time) {
+        this.time = time;
+        monoAnchorNs = time.nanoTime();
+        wallAnchorNs = time.currentTimeNanos();
+    }
+
+    /** Current ROS time in nanoseconds. */
+    public long now() {
+        return wallAnchorNs + (time.nanoTime() - monoAnchorNs);
+    }
+
+    /** Records that a sample stamped {@code sourceNs} by {@code source} arrived just now. */
+    public void observe(int source, long sourceNs) {
+        observe(source, sourceNs, now());
+    }
+
+    /** Records that a sample stamped {@code sourceNs} by {@code source} arrived at {@code rosNs}. */
+    public void observe(int source, long sourceNs, long rosNs) {
+        long observed = rosNs - sourceNs;
+        if (!initialized[source]) {
+            offset[source] = observed;
+            reference[source] = sourceNs;
+            windowSrc[source] = sourceNs;
+            windowOffset[source] = observed;
+            initialized[source] = true;
+            publish(source);
+            return;
+        }
+
+        long predicted = offset[source] + (long) (drift[source] * (sourceNs - reference[source]));
+        long next;
+        if (observed < predicted) {
+            next = observed;
+        } else {
+            next = predicted + (long) (LEAK * (observed - predicted));
+        }
+
+        long span = sourceNs - windowSrc[source];
+        if (span >= DRIFT_WINDOW_NS) {
+            double d = (double) (next - windowOffset[source]) / span;
+            drift[source] += DRIFT_GAIN * (d - drift[source]);
+            windowSrc[source] = sourceNs;
+            windowOffset[source] = next;
+        }
+
+        offset[source] = next;
+        reference[source] = sourceNs;
+        publish(source);
+    }
+
+    private void publish(int source) {
+        int i = source * FIELDS;
+        long seq = published.get(i + SEQ);
+        published.set(i + SEQ, seq + 1);
+        published.set(i + OFFSET, offset[source]);
+        published.set(i + REFERENCE, reference[source]);
+        published.set(i + DRIFT, Double.doubleToRawLongBits(drift[source]));
+        published.set(i + SEQ, seq + 2);
+    }
+
+    /**
+     * Converts a source timestamp to ROS time. Falls back to the current time if the source has
+     * not been observed yet.
+     */
+    public long toRos(int source, long sourceNs) {
+        int i = source * FIELDS;
+        long seq, off, ref, d;
+        do {
+            seq = published.get(i + SEQ);
+            off = published.get(i + OFFSET);
+            ref = published.get(i + REFERENCE);
+            d = published.get(i + DRIFT);
+        } while ((seq & 1) != 0 || published.get(i + SEQ) != seq);
+        if (seq == 0) {
+            return now();
+        }
+        return sourceNs + off + (long) (Double.longBitsToDouble(d) * (sourceNs - ref));
+    }
+
+    /** Current offset estimate (ROS minus source) in nanoseconds. */
+    public long getOffsetNanos(int source) {
+        // a single field, so no retry is needed
+        return published.get(source * FIELDS + OFFSET);
+    }
+
+    /** Current drift estimate of the source relative to ROS time, in parts per million. */
+    public double getDriftPpm(int source) {
+        return Double.longBitsToDouble(published.get(source * FIELDS + DRIFT)) * 1e6;
+    }
+
+    public static String sourceName(int source) {
+        switch (source) {
+            case SENSOR:
+                return "sensor";
+            case CAMERA:
+                return "camera";
+            case ELAPSED:
+                return "elapsed_realtime";
+            default:
+                return "unknown";
+        }
+    }
+}
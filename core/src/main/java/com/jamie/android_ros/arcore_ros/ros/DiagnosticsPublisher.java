@@ -0,0 +1,119 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.message.MessageFactory;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import diagnostic_msgs.DiagnosticArray;
+import diagnostic_msgs.DiagnosticStatus;
+import diagnostic_msgs.KeyValue;
+
+/**
+ * Publishes pipeline health on /diagnostics as diagnostic_msgs/DiagnosticArray, one
+ * DiagnosticStatus per registered {@link Source}, e.g. per topic, for the tracker and the device.
+ *
+ * {@link #publish()} is meant to run about once a second on its own loop, so that the report
+ * still goes out when the publish thread is stuck. Sources therefore only read counters that
+ * other threads maintain. At that rate the messages are simply built anew on every call.
+ */
+public class DiagnosticsPublisher {
+    private static final String HARDWARE_ID = "android";
+
+    public interface Source {
+        /** Fills in {@code status}, which starts out OK with no message and no values. */
+        void report(Status status);
+    }
+
+    /** One DiagnosticStatus under construction. */
+    public static final class Status {
+        private final MessageFactory factory;
+        private final DiagnosticStatus msg;
+        private final List<KeyValue> values = new ArrayList<>();
+
+        private Status(MessageFactory factory, String name) {
+            this.factory = factory;
+            this.msg = factory.newFromType(DiagnosticStatus._TYPE);
+            msg.setName(name);
+            msg.setHardwareId(HARDWARE_ID);
+            msg.setLevel(DiagnosticStatus.OK);
+            msg.setMessage("");
+        }
+
+        /** Raises the level to WARN, keeping the first message of the highest level. */
+        public void warn(String message) {
+            level(DiagnosticStatus.WARN, message);
+        }
+
+        public void error(String message) {
+            level(DiagnosticStatus.ERROR, message);
+        }
+
+        private void level(byte level, String message) {
+            if (level > msg.getLevel() || (level == msg.getLevel() && msg.getMessage().isEmpty())) {
+                msg.setLevel(level);
+                msg.setMessage(message);
+            }
+        }
+
+        public void put(String key, String value) {
+            KeyValue kv = factory.newFromType(KeyValue._TYPE);
+            kv.setKey(key);
+            kv.setValue(value);
+            values.add(kv);
+        }
+
+        public void put(String key, long value) {
+            put(key, Long.toString(value));
+        }
+
+        public void put(String key, double value) {
+            put(key, String.format(Locale.US, "%.3f", value));
+        }
+
+        private DiagnosticStatus build() {
+            msg.setValues(values);
+            return msg;
+        }
+    }
+
+    private final Publisher<DiagnosticArray> publisher;
+    private final MessageFactory messageFactory;
+    private final ClockService clock;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Source> sources = new ArrayList<>();
+
+    public DiagnosticsPublisher(final ConnectedNode connectedNode, ClockService clock) {
+        this.publisher = connectedNode.newPublisher("/diagnostics", DiagnosticArray._TYPE);
+        this.messageFactory = connectedNode.getTopicMessageFactory();
+        this.clock = clock;
+    }
+
+    /** Adds a status to every report; {@code name} is prefixed with the node, as rqt expects. */
+    public synchronized void add(String name, Source source) {
+        names.add(name);
+        sources.add(source);
+    }
+
+    public synchronized void publish() {
+        DiagnosticArray msg = publisher.newMessage();
+        Utilities.setHeader(msg.getHeader(), "", clock.now());
+        List<DiagnosticStatus> status = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); ++i) {
+            Status s = new Status(messageFactory, "arcore_ros: " + names.get(i));
+            try {
+                sources.get(i).report(s);
+            } catch (RuntimeException e) {
+                // a broken source must not take the whole report down with it
+                s.error(e.toString());
+            }
+            status.add(s.build());
+        }
+        msg.setStatus(status);
+        publisher.publish(msg);
+    }
+}
@@ -0,0 +1,15 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * Position fixes, as delivered by the platform's location provider.
+ */
+public interface FixListener {
+    /**
+     * @param elapsedNow elapsed-realtime clock sampled on arrival, calibrates the fix stamps
+     * @param stamp elapsed-realtime stamp of the fix, 0 if unknown
+     * @param altitude m above the WGS84 ellipsoid, NaN if unknown
+     * @param accuracy horizontal accuracy in m, 0 if unknown
+     */
+    void onFix(long elapsedNow, long stamp, double latitude, double longitude, double altitude,
+               float accuracy);
+}
@@ -0,0 +1,18 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * TF frame ids used by the publishers.
+ *
+ * odom -> android is the tracked ARCore camera pose (ARCore camera axes: x right, y up, z back,
+ * in the sensor's natural orientation); the camera optical and IMU frames hang off it statically.
+ */
+public final class Frames {
+    public static final String MAP = "map";
+    public static final String ODOM = "odom";
+    public static final String DEVICE = "android";
+    public static final String CAMERA_OPTICAL = "android_camera_optical";
+    public static final String IMU = "android_imu";
+
+    private Frames() {
+    }
+}
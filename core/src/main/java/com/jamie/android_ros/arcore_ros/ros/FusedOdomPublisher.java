@@ -0,0 +1,103 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import geometry_msgs.Pose;
+import geometry_msgs.Twist;
+import nav_msgs.Odometry;
+
+/**
+ * Publishes the IMU-rate {@link FusedOdometry} state as nav_msgs/Odometry.
+ */
+public class FusedOdomPublisher {
+    private static final double POSITION_STD = 0.01; // m, right after a correction
+    private static final double ORIENTATION_STD = 0.01; // rad
+    private static final double LINEAR_VEL_STD = 0.05; // m/s
+    private static final double ANGULAR_VEL_STD = 0.02; // rad/s
+    // accelerometer error integrated since the last correction
+    private static final double ACCEL_STD = 0.5; // m/s^2
+    private static final double GYRO_STD = 0.01; // rad/s
+
+    private static final int POOL_SIZE = Utilities.PUBLISHER_POOL_SIZE;
+
+    private final Publisher<Odometry> publisher;
+    private final Odometry[] pool = new Odometry[POOL_SIZE];
+    private int poolIndex;
+    private long lastTime = -1;
+    private volatile MessageSink recorder;
+
+    private final double[] position = new double[3];
+    private final double[] orientation = new double[4];
+    private final double[] velocity = new double[3];
+    private final double[] angular = new double[3];
+
+    public FusedOdomPublisher(final ConnectedNode connectedNode) {
+        this.publisher = connectedNode.newPublisher("android/odom/fused", Odometry._TYPE);
+        for (int i = 0; i < POOL_SIZE; ++i) {
+            pool[i] = publisher.newMessage();
+            pool[i].setChildFrameId(Frames.DEVICE);
+        }
+    }
+
+    /** Also writes every published message to {@code recorder}; null to stop. */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    /** Publishes the newest state, if it changed since the last call. */
+    public boolean publish(FusedOdometry odometry) {
+        if (!odometry.isInitialized() || odometry.getTime() == lastTime) {
+            return false;
+        }
+        lastTime = odometry.getTime();
+
+        Odometry msg = pool[poolIndex];
+        poolIndex = (poolIndex + 1) % POOL_SIZE;
+
+        odometry.getPosition(position);
+        odometry.getOrientation(orientation);
+        odometry.getBodyVelocity(velocity);
+        odometry.getAngularVelocity(angular);
+
+        Pose p = msg.getPose().getPose();
+        p.getPosition().setX(position[0]);
+        p.getPosition().setY(position[1]);
+        p.getPosition().setZ(position[2]);
+        p.getOrientation().setX(orientation[0]);
+        p.getOrientation().setY(orientation[1]);
+        p.getOrientation().setZ(orientation[2]);
+        p.getOrientation().setW(orientation[3]);
+
+        Twist t = msg.getTwist().getTwist();
+        t.getLinear().setX(velocity[0]);
+        t.getLinear().setY(velocity[1]);
+        t.getLinear().setZ(velocity[2]);
+        t.getAngular().setX(angular[0]);
+        t.getAngular().setY(angular[1]);
+        t.getAngular().setZ(angular[2]);
+
+        // uncertainty grows with the time spent dead-reckoning since the last ARCore pose
+        double dt = odometry.getTimeSinceCorrection();
+        double ps = POSITION_STD + 0.5 * ACCEL_STD * dt * dt;
+        double os = ORIENTATION_STD + GYRO_STD * dt;
+        double vs = LINEAR_VEL_STD + ACCEL_STD * dt;
+        // written into each pooled message's own arrays, queued messages are not shared
+        double[] poseCovariance = msg.getPose().getCovariance();
+        double[] twistCovariance = msg.getTwist().getCovariance();
+        for (int i = 0; i < 3; ++i) {
+            poseCovariance[i * 7] = ps * ps;
+            poseCovariance[(i + 3) * 7] = os * os;
+            twistCovariance[i * 7] = vs * vs;
+            twistCovariance[(i + 3) * 7] = ANGULAR_VEL_STD * ANGULAR_VEL_STD;
+        }
+
+        Utilities.setHeader(msg.getHeader(), Frames.ODOM, lastTime);
+        publisher.publish(msg);
+        MessageSink r = recorder;
+        if (r != null) {
+            r.record(publisher.getTopicName().toString(), msg, lastTime);
+        }
+        return true;
+    }
+}
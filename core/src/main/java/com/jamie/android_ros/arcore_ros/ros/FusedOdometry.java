@@ -0,0 +1,294 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * Propagates the ARCore pose at IMU rate.
+ *
+ * Between camera frames, the state (position, velocity, orientation of the device in the odom
+ * frame) is integrated from gyro and accelerometer samples expressed in the device frame. Every
+ * ARCore pose is a correction: it arrives late, so the state history is searched for the sample
+ * at the pose's timestamp, the state there is replaced by the measured pose (velocity is only
+ * blended towards the finite-difference ARCore velocity), and the IMU samples received since are
+ * integrated again on top of it. The output therefore never waits for a camera frame, but also
+ * never drifts further than the IMU can over one camera latency.
+ *
+ * All timestamps share one time base (ROS nanoseconds). Not thread-safe; nothing is allocated
+ * after construction.
+ */
+public class FusedOdometry {
+    // state layout : position (3), velocity (3), orientation w,x,y,z (4)
+    private static final int P = 0, V = 3, Q = 6, STATE = 10;
+    private static final int INPUT = 6; // gyro (3), accel (3)
+
+    // longest gap integrated across; longer ones only advance the time
+    private static final double MAX_DT = 0.1; // s
+    // weight of the ARCore finite-difference velocity against the integrated one
+    private static final double VELOCITY_GAIN = 0.2;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] times;
+    private final double[] inputs;
+    private final double[] states;
+    private long count; // entries ever written; the newest is at (count - 1) & mask
+    private boolean initialized;
+
+    private final double[] gravity = new double[3]; // added to the rotated accelerometer, odom frame
+
+    // previous ARCore pose, for its finite-difference velocity
+    private long measTime;
+    private final double[] measPosition = new double[3];
+    private boolean hasMeas;
+    private long correctionTime;
+
+    private long dropped;
+    private long corrections;
+    private long replayed;
+
+    // scratch
+    private final double[] acc = new double[3];
+    private final double[] dq = new double[4];
+    private final double[] tmp = new double[4];
+
+    /**
+     * @param capacity IMU samples kept for replay; must cover the ARCore pose latency
+     */
+    public FusedOdometry(int capacity) {
+        int c = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.capacity = c;
+        this.mask = c - 1;
+        this.times = new long[c];
+        this.inputs = new double[c * INPUT];
+        this.states = new double[c * STATE];
+    }
+
+    /**
+     * Constant acceleration added to the rotated accelerometer reading, in the odom frame.
+     * Zero for gravity-compensated (linear) acceleration, minus gravity for a raw accelerometer.
+     */
+    public void setGravity(double x, double y, double z) {
+        gravity[0] = x;
+        gravity[1] = y;
+        gravity[2] = z;
+    }
+
+    /** Forgets everything; nothing is output until the next correction. */
+    public void reset() {
+        count = 0;
+        initialized = false;
+        hasMeas = false;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Integrates one IMU sample, both vectors in the device frame.
+     * @return false if the sample was dropped (not initialized yet, or older than the state)
+     */
+    public boolean propagate(long t, float[] gyro, float[] accel) {
+        if (!initialized || t <= times[(int) ((count - 1) & mask)]) {
+            ++dropped;
+            return false;
+        }
+        int e = (int) (count & mask);
+        times[e] = t;
+        int in = e * INPUT;
+        inputs[in] = gyro[0];
+        inputs[in + 1] = gyro[1];
+        inputs[in + 2] = gyro[2];
+        inputs[in + 3] = accel[0];
+        inputs[in + 4] = accel[1];
+        inputs[in + 5] = accel[2];
+        ++count;
+        integrate((int) ((count - 2) & mask), e);
+        return true;
+    }
+
+    /**
+     * Applies an ARCore pose taken at {@code t} and replays the IMU samples received after it.
+     * @param rxn orientation {x,y,z,w}
+     */
+    public void correct(long t, float[] txn, float[] rxn) {
+        ++corrections;
+        correctionTime = t;
+
+        // newest entry at or before t
+        long k = count - 1;
+        long oldest = Math.max(0, count - capacity);
+        while (k >= oldest && times[(int) (k & mask)] > t) {
+            --k;
+        }
+
+        int e;
+        if (k == count - 1 || count == 0) {
+            // the pose is newer than every IMU sample : it becomes the newest state
+            e = (int) (count & mask);
+            int in = e * INPUT;
+            if (count > 0) {
+                System.arraycopy(inputs, (int) ((count - 1) & mask) * INPUT, inputs, in, INPUT);
+                System.arraycopy(states, (int) ((count - 1) & mask) * STATE, states, e * STATE, STATE);
+            } else {
+                for (int i = 0; i < INPUT; ++i) inputs[in + i] = 0;
+                for (int i = 0; i < STATE; ++i) states[e * STATE + i] = 0;
+            }
+            times[e] = t;
+            ++count;
+            k = count - 1;
+        } else {
+            // older than the whole history : the best we can do is the oldest entry
+            k = Math.max(k, oldest);
+            e = (int) (k & mask);
+        }
+
+        int s = e * STATE;
+        double dt = (t - measTime) * 1e-9;
+        if (initialized && hasMeas && dt > 0 && dt <= MAX_DT * 5) {
+            for (int i = 0; i < 3; ++i) {
+                double v = (txn[i] - measPosition[i]) / dt;
+                states[s + V + i] += VELOCITY_GAIN * (v - states[s + V + i]);
+            }
+        } else if (!initialized) {
+            states[s + V] = states[s + V + 1] = states[s + V + 2] = 0;
+        }
+        states[s + P] = txn[0];
+        states[s + P + 1] = txn[1];
+        states[s + P + 2] = txn[2];
+        states[s + Q] = rxn[3];
+        states[s + Q + 1] = rxn[0];
+        states[s + Q + 2] = rxn[1];
+        states[s + Q + 3] = rxn[2];
+
+        measTime = t;
+        measPosition[0] = txn[0];
+        measPosition[1] = txn[1];
+        measPosition[2] = txn[2];
+        hasMeas = true;
+        initialized = true;
+
+        // replay everything received after the pose
+        for (long j = k + 1; j < count; ++j) {
+            integrate((int) ((j - 1) & mask), (int) (j & mask));
+            ++replayed;
+        }
+    }
+
+    /** state[e] = state[prev] integrated with the input of e. */
+    private void integrate(int prev, int e) {
+        int ps = prev * STATE, s = e * STATE, in = e * INPUT;
+        System.arraycopy(states, ps, states, s, STATE);
+        double dt = (times[e] - times[prev]) * 1e-9;
+        if (dt <= 0 || dt > MAX_DT) {
+            return;
+        }
+
+        // world acceleration from the orientation at the start of the step
+        rotate(states, ps + Q, inputs[in + 3], inputs[in + 4], inputs[in + 5], acc);
+        for (int i = 0; i < 3; ++i) {
+            double a = acc[i] + gravity[i];
+            states[s + P + i] += states[ps + V + i] * dt + 0.5 * a * dt * dt;
+            states[s + V + i] += a * dt;
+        }
+
+        // q = q * exp(w dt / 2), body rates
+        double wx = inputs[in], wy = inputs[in + 1], wz = inputs[in + 2];
+        double n = Math.sqrt(wx * wx + wy * wy + wz * wz);
+        double half = 0.5 * n * dt;
+        double k = n > 1e-12 ? Math.sin(half) / n : 0.5 * dt;
+        dq[0] = Math.cos(half);
+        dq[1] = wx * k;
+        dq[2] = wy * k;
+        dq[3] = wz * k;
+        mul(states, ps + Q, dq, tmp);
+        double norm = Math.sqrt(tmp[0] * tmp[0] + tmp[1] * tmp[1] + tmp[2] * tmp[2] + tmp[3] * tmp[3]);
+        for (int i = 0; i < 4; ++i) {
+            states[s + Q + i] = tmp[i] / norm;
+        }
+    }
+
+    private static void mul(double[] a, int o, double[] b, double[] out) {
+        double aw = a[o], ax = a[o + 1], ay = a[o + 2], az = a[o + 3];
+        out[0] = aw * b[0] - ax * b[1] - ay * b[2] - az * b[3];
+        out[1] = aw * b[1] + ax * b[0] + ay * b[3] - az * b[2];
+        out[2] = aw * b[2] - ax * b[3] + ay * b[0] + az * b[1];
+        out[3] = aw * b[3] + ax * b[2] - ay * b[1] + az * b[0];
+    }
+
+    /** out = q * v * q^-1 for the unit quaternion q = a[o..o+3] (w,x,y,z). */
+    private static void rotate(double[] a, int o, double vx, double vy, double vz, double[] out) {
+        double w = a[o], x = a[o + 1], y = a[o + 2], z = a[o + 3];
+        // t = 2 * cross(q.xyz, v); v' = v + w * t + cross(q.xyz, t)
+        double tx = 2 * (y * vz - z * vy);
+        double ty = 2 * (z * vx - x * vz);
+        double tz = 2 * (x * vy - y * vx);
+        out[0] = vx + w * tx + (y * tz - z * ty);
+        out[1] = vy + w * ty + (z * tx - x * tz);
+        out[2] = vz + w * tz + (x * ty - y * tx);
+    }
+
+    /* Latest state */
+
+    public long getTime() {
+        return count == 0 ? -1 : times[(int) ((count - 1) & mask)];
+    }
+
+    /** Time since the newest state was last pinned to an ARCore pose, in seconds. */
+    public double getTimeSinceCorrection() {
+        return count == 0 ? 0 : (getTime() - correctionTime) * 1e-9;
+    }
+
+    private int latest() {
+        return (int) ((count - 1) & mask);
+    }
+
+    /** {x,y,z} in the odom frame. */
+    public void getPosition(double[] out) {
+        System.arraycopy(states, latest() * STATE + P, out, 0, 3);
+    }
+
+    /** {x,y,z} in the odom frame. */
+    public void getVelocity(double[] out) {
+        System.arraycopy(states, latest() * STATE + V, out, 0, 3);
+    }
+
+    /** {x,y,z} in the device frame. */
+    public void getBodyVelocity(double[] out) {
+        int s = latest() * STATE;
+        tmp[0] = states[s + Q];
+        tmp[1] = -states[s + Q + 1];
+        tmp[2] = -states[s + Q + 2];
+        tmp[3] = -states[s + Q + 3];
+        rotate(tmp, 0, states[s + V], states[s + V + 1], states[s + V + 2], out);
+    }
+
+    /** {x,y,z,w} */
+    public void getOrientation(double[] out) {
+        int s = latest() * STATE;
+        out[0] = states[s + Q + 1];
+        out[1] = states[s + Q + 2];
+        out[2] = states[s + Q + 3];
+        out[3] = states[s + Q];
+    }
+
+    /** Latest gyro reading, device frame. */
+    public void getAngularVelocity(double[] out) {
+        System.arraycopy(inputs, latest() * INPUT, out, 0, 3);
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getCorrections() {
+        return corrections;
+    }
+
+    /** IMU samples integrated a second time after a correction. */
+    public long getReplayed() {
+        return replayed;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
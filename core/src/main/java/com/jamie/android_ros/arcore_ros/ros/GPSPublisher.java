@@ -0,0 +1,98 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import sensor_msgs.NavSatFix;
+import sensor_msgs.NavSatStatus;
+
+/**
+ * Created by jamiecho on 2/4/17.
+ */
+
+
+public class GPSPublisher{
+    private final Publisher<NavSatFix> publisher;
+    private final NavSatFix[] pool = new NavSatFix[Utilities.PUBLISHER_POOL_SIZE];
+    private int poolIndex;
+    private boolean updated;
+    private long stamp = -1; // acquisition time in ROS nanoseconds, -1 to stamp at publish time
+    private volatile MessageSink recorder;
+
+    private double latitude, longitude, altitude;
+    private double variance; // of each axis, m^2
+
+    public GPSPublisher(final ConnectedNode connectedNode) {
+        this.publisher = connectedNode.newPublisher("android/gps", NavSatFix._TYPE);
+        initialize();
+    }
+
+    private void initialize(){
+        for (int i = 0; i < pool.length; ++i) {
+            NavSatFix msg = publisher.newMessage();
+            msg.getStatus().setStatus(NavSatStatus.STATUS_FIX);
+            msg.getStatus().setService(NavSatStatus.SERVICE_GPS);
+            msg.setPositionCovarianceType(NavSatFix.COVARIANCE_TYPE_DIAGONAL_KNOWN); //known-ish
+            pool[i] = msg;
+        }
+
+        // no value yet
+        updated = false;
+    }
+
+
+    public void update(double latitude, double longitude, double altitude, double accuracy) {
+        update(-1, latitude, longitude, altitude, accuracy);
+    }
+
+    /** @param accuracy horizontal accuracy in m, as Location.getAccuracy() */
+    public void update(long stamp, double latitude, double longitude, double altitude, double accuracy) {
+        updated = true;
+        this.stamp = stamp;
+
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+
+        //location.getSpeed(); TODO : figure out value of this?
+        //location.getBearing();
+
+        updateCovariance(accuracy);
+    }
+
+
+    public void updateCovariance(double a){
+        variance = a * a;
+    }
+
+    /** Also writes every published message to {@code recorder}; null to stop. */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    public boolean publish() {
+        //only publish when data got updated
+        if(updated){
+            updated = false;
+            NavSatFix msg = pool[poolIndex];
+            poolIndex = (poolIndex + 1) % pool.length;
+            msg.setLatitude(latitude);
+            msg.setLongitude(longitude);
+            msg.setAltitude(altitude);
+            double[] c = msg.getPositionCovariance();
+            c[0] = c[4] = c[8] = variance;
+            if (stamp != -1) {
+                Utilities.setHeader(msg.getHeader(), Frames.DEVICE, stamp);
+            } else {
+                Utilities.setHeader(msg.getHeader()); // populate header
+            }
+            publisher.publish(msg);
+            MessageSink r = recorder;
+            if (r != null) {
+                r.record(publisher.getTopicName().toString(), msg, msg.getHeader().getStamp().totalNsecs());
+            }
+            return true;
+        }
+        return false;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.internal.message.Message;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import geometry_msgs.Pose;
+import geometry_msgs.PoseWithCovarianceStamped;
+import sensor_msgs.NavSatFix;
+import sensor_msgs.NavSatStatus;
+
+/**
+ * Publishes the odometry pose in the GPS-aligned map frame (see {@link GpsAlignment}) as
+ * geometry_msgs/PoseWithCovarianceStamped, and the map datum as a latched sensor_msgs/NavSatFix.
+ */
+public class GlobalPosePublisher {
+    private static final double YAW_STD = 0.05; // rad, no per-axis rotation uncertainty is tracked
+    private static final double VERTICAL_VARIANCE_SCALE = 4.0; // GPS altitude is ~2x worse
+
+    private final Publisher<PoseWithCovarianceStamped> publisher;
+    private final Publisher<NavSatFix> datumPublisher;
+    private final PoseWithCovarianceStamped[] pool =
+            new PoseWithCovarianceStamped[Utilities.PUBLISHER_POOL_SIZE];
+    private int poolIndex;
+    // the datum last published : it goes out again when it changes, e.g. once a fix has an altitude
+    private final double[] datum = new double[3];
+    private final double[] sentDatum = new double[3];
+    private boolean datumSent = false;
+    private volatile MessageSink recorder;
+
+    private final double[] position = new double[3];
+    private final double[] orientation = new double[4];
+
+    public GlobalPosePublisher(final ConnectedNode connectedNode) {
+        this.publisher = connectedNode.newPublisher("android/global_pose", PoseWithCovarianceStamped._TYPE);
+        this.datumPublisher = connectedNode.newPublisher("android/gps/datum", NavSatFix._TYPE);
+        this.datumPublisher.setLatchMode(true);
+        for (int i = 0; i < pool.length; ++i) {
+            pool[i] = publisher.newMessage();
+        }
+    }
+
+    /** Also writes every published message to {@code recorder}; null to stop. */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    /** Publishes an odom pose taken at {@code stamp} in the map frame, once the alignment is valid. */
+    public boolean publish(GpsAlignment alignment, long stamp, float[] txn, float[] rxn) {
+        if (!alignment.isValid()) {
+            return false;
+        }
+        alignment.getDatum(datum);
+        if (!datumSent || !sameDatum()) {
+            publishDatum(stamp);
+            System.arraycopy(datum, 0, sentDatum, 0, 3);
+            datumSent = true;
+        }
+
+        PoseWithCovarianceStamped msg = pool[poolIndex];
+        poolIndex = (poolIndex + 1) % pool.length;
+        alignment.transform(txn, rxn, position, orientation);
+        Pose p = msg.getPose().getPose();
+        p.getPosition().setX(position[0]);
+        p.getPosition().setY(position[1]);
+        p.getPosition().setZ(position[2]);
+        p.getOrientation().setX(orientation[0]);
+        p.getOrientation().setY(orientation[1]);
+        p.getOrientation().setZ(orientation[2]);
+        p.getOrientation().setW(orientation[3]);
+
+        double v = alignment.getVariance();
+        double[] covariance = msg.getPose().getCovariance();
+        covariance[0] = v;
+        covariance[7] = v;
+        covariance[14] = VERTICAL_VARIANCE_SCALE * v;
+        covariance[21] = covariance[28] = covariance[35] = YAW_STD * YAW_STD;
+
+        Utilities.setHeader(msg.getHeader(), Frames.MAP, stamp);
+        publisher.publish(msg);
+        record(publisher.getTopicName().toString(), msg, stamp);
+        return true;
+    }
+
+    private boolean sameDatum() {
+        for (int i = 0; i < 3; ++i) {
+            // NaN altitude counts as unchanged while it stays unknown
+            if (Double.compare(datum[i], sentDatum[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void publishDatum(long stamp) {
+        NavSatFix fix = datumPublisher.newMessage();
+        Utilities.setHeader(fix.getHeader(), Frames.MAP, stamp);
+        fix.getStatus().setStatus(NavSatStatus.STATUS_FIX);
+        fix.getStatus().setService(NavSatStatus.SERVICE_GPS);
+        fix.setLatitude(datum[0]);
+        fix.setLongitude(datum[1]);
+        fix.setAltitude(datum[2]);
+        fix.setPositionCovarianceType(NavSatFix.COVARIANCE_TYPE_UNKNOWN);
+        datumPublisher.publish(fix);
+        record(datumPublisher.getTopicName().toString(), fix, stamp);
+    }
+
+    private void record(String topic, Message m, long stamp) {
+        MessageSink r = recorder;
+        if (r != null) {
+            r.record(topic, m, stamp);
+        }
+    }
+}
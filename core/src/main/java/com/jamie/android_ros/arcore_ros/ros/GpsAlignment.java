@@ -0,0 +1,259 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * Estimates the map (ENU) -> odom alignment from GPS fixes paired with odometry positions.
+ *
+ * The map frame is a local ENU tangent plane anchored at the first fix. Odom positions are
+ * first levelled with the gravity direction ARCore reports, which leaves a yaw and a translation
+ * to estimate. That is a weighted 2D Procrustes problem whose solution only depends on a handful
+ * of sums, so each fix costs O(1): the sums are decayed by {@link #FORGETTING} (ARCore drifts, old
+ * fixes should count less) and the new pair is added, weighted by the inverse fix variance.
+ * Fixes without an altitude only contribute to the horizontal part; the datum altitude comes
+ * from the first fix that has one.
+ *
+ * Not thread-safe; nothing is allocated per fix.
+ */
+public class GpsAlignment {
+    private static final double EARTH_RADIUS = 6378137.0; // m, WGS84 equatorial
+    private static final double FORGETTING = 0.98; // per fix
+    // rms horizontal spread of the fixes needed before the yaw is trusted
+    private static final double MIN_SPREAD = 3.0; // m
+    private static final double MIN_ACCURACY = 1.0; // m, floor on the reported fix accuracy
+
+    // datum
+    private boolean hasDatum;
+    private double lat0, lon0, alt0, cosLat0;
+
+    // odom -> level frame (z up), from the gravity direction; w,x,y,z
+    private final double[] level = new double[]{1, 0, 0, 0};
+    private final double[] gravity = new double[3];
+    private boolean hasLevel;
+
+    // weighted sums over pairs (a = levelled odom, b = ENU)
+    private double w, ax, ay, bx, by, dot, cross, aa;
+    private double wz, dz; // fixes with an altitude only
+    private int fixes;
+
+    // solution : map <- odom
+    private boolean valid;
+    private double yaw;
+    private final double[] translation = new double[3];
+    private final double[] rotation = new double[]{1, 0, 0, 0}; // w,x,y,z
+
+    // scratch
+    private final double[] a = new double[3];
+    private final double[] b = new double[3];
+
+    public void reset() {
+        hasDatum = false;
+        hasLevel = false;
+        w = ax = ay = bx = by = dot = cross = aa = wz = dz = 0;
+        fixes = 0;
+        valid = false;
+    }
+
+    /**
+     * Adds a fix and the odom position of the device at the time of the fix.
+     * @param altitude NaN if the fix has none
+     * @param accuracy horizontal 1-sigma accuracy of the fix in m
+     * @param gravityOdom gravity direction in the odom frame (any length)
+     * @return true if the alignment is valid after this fix
+     */
+    public boolean addFix(double latitude, double longitude, double altitude, double accuracy,
+                          float[] odomTxn, float[] gravityOdom) {
+        if (norm(gravityOdom) < 1e-3) {
+            return valid; // gravity not known yet
+        }
+        if (!hasDatum) {
+            lat0 = latitude;
+            lon0 = longitude;
+            alt0 = altitude; // NaN until a fix has an altitude
+            cosLat0 = Math.cos(Math.toRadians(latitude));
+            hasDatum = true;
+        } else if (Double.isNaN(alt0)) {
+            alt0 = altitude;
+        }
+        if (!hasLevel || changed(gravityOdom)) {
+            // the odom origin moved, earlier pairs no longer apply
+            setLevel(gravityOdom);
+            w = ax = ay = bx = by = dot = cross = aa = wz = dz = 0;
+            fixes = 0;
+            valid = false;
+        }
+
+        toEnu(latitude, longitude, altitude, b);
+        rotate(level, odomTxn[0], odomTxn[1], odomTxn[2], a);
+
+        double s = Math.max(accuracy, MIN_ACCURACY);
+        double wi = 1.0 / (s * s);
+        w = FORGETTING * w + wi;
+        ax = FORGETTING * ax + wi * a[0];
+        ay = FORGETTING * ay + wi * a[1];
+        bx = FORGETTING * bx + wi * b[0];
+        by = FORGETTING * by + wi * b[1];
+        dot = FORGETTING * dot + wi * (a[0] * b[0] + a[1] * b[1]);
+        cross = FORGETTING * cross + wi * (a[0] * b[1] - a[1] * b[0]);
+        aa = FORGETTING * aa + wi * (a[0] * a[0] + a[1] * a[1]);
+        boolean vertical = !Double.isNaN(b[2]);
+        wz = FORGETTING * wz + (vertical ? wi : 0);
+        dz = FORGETTING * dz + (vertical ? wi * (b[2] - a[2]) : 0);
+        ++fixes;
+
+        solve();
+        return valid;
+    }
+
+    private void solve() {
+        double spread = (aa - (ax * ax + ay * ay) / w) / w;
+        if (fixes < 2 || spread < MIN_SPREAD * MIN_SPREAD) {
+            valid = false;
+            return;
+        }
+        // centered sums
+        double c = cross - (ax * by - ay * bx) / w;
+        double d = dot - (ax * bx + ay * by) / w;
+        yaw = Math.atan2(c, d);
+
+        double cy = Math.cos(yaw), sy = Math.sin(yaw);
+        double mx = ax / w, my = ay / w;
+        translation[0] = bx / w - (cy * mx - sy * my);
+        translation[1] = by / w - (sy * mx + cy * my);
+        translation[2] = wz > 0 ? dz / wz : 0;
+
+        // rotation = Rz(yaw) * level
+        double hw = Math.cos(yaw / 2), hz = Math.sin(yaw / 2);
+        rotation[0] = hw * level[0] - hz * level[3];
+        rotation[1] = hw * level[1] - hz * level[2];
+        rotation[2] = hw * level[2] + hz * level[1];
+        rotation[3] = hw * level[3] + hz * level[0];
+        valid = true;
+    }
+
+    private boolean changed(float[] g) {
+        double n = norm(g);
+        double c = (g[0] * gravity[0] + g[1] * gravity[1] + g[2] * gravity[2]) / n;
+        return c < Math.cos(Math.toRadians(5));
+    }
+
+    /** Shortest rotation taking -g onto +z. */
+    private void setLevel(float[] g) {
+        double n = norm(g);
+        gravity[0] = g[0] / n;
+        gravity[1] = g[1] / n;
+        gravity[2] = g[2] / n;
+        double ux = -gravity[0], uy = -gravity[1], uz = -gravity[2];
+        // q = (1 + u.z, u x z), normalized
+        double qw = 1 + uz, qx = uy, qy = -ux, qz = 0;
+        if (qw < 1e-6) {
+            // upside down : half turn about x
+            qw = 0;
+            qx = 1;
+            qy = 0;
+        }
+        double qn = Math.sqrt(qw * qw + qx * qx + qy * qy + qz * qz);
+        level[0] = qw / qn;
+        level[1] = qx / qn;
+        level[2] = qy / qn;
+        level[3] = qz / qn;
+        hasLevel = true;
+    }
+
+    private static double norm(float[] v) {
+        return Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+    }
+
+    /** Local tangent plane around the datum; fine over a few km. */
+    public void toEnu(double latitude, double longitude, double altitude, double[] out) {
+        out[0] = Math.toRadians(longitude - lon0) * cosLat0 * EARTH_RADIUS;
+        out[1] = Math.toRadians(latitude - lat0) * EARTH_RADIUS;
+        out[2] = altitude - alt0;
+    }
+
+    /** Inverse of {@link #toEnu}; out = {latitude, longitude, altitude}. */
+    public void fromEnu(double e, double n, double u, double[] out) {
+        out[0] = lat0 + Math.toDegrees(n / EARTH_RADIUS);
+        out[1] = lon0 + Math.toDegrees(e / (EARTH_RADIUS * cosLat0));
+        out[2] = alt0 + u;
+    }
+
+    /** out = q * v * q^-1, q = w,x,y,z */
+    private static void rotate(double[] q, double vx, double vy, double vz, double[] out) {
+        double qw = q[0], x = q[1], y = q[2], z = q[3];
+        double tx = 2 * (y * vz - z * vy);
+        double ty = 2 * (z * vx - x * vz);
+        double tz = 2 * (x * vy - y * vx);
+        out[0] = vx + qw * tx + (y * tz - z * ty);
+        out[1] = vy + qw * ty + (z * tx - x * tz);
+        out[2] = vz + qw * tz + (x * ty - y * tx);
+    }
+
+    /**
+     * Maps an odom pose into the map frame.
+     * @param rxn odom orientation {x,y,z,w}
+     * @param outPos map position {x,y,z}
+     * @param outRxn map orientation {x,y,z,w}
+     */
+    public void transform(float[] txn, float[] rxn, double[] outPos, double[] outRxn) {
+        rotate(rotation, txn[0], txn[1], txn[2], outPos);
+        outPos[0] += translation[0];
+        outPos[1] += translation[1];
+        outPos[2] += translation[2];
+
+        double aw = rotation[0], ax = rotation[1], ay = rotation[2], az = rotation[3];
+        double bw = rxn[3], bx = rxn[0], by = rxn[1], bz = rxn[2];
+        outRxn[3] = aw * bw - ax * bx - ay * by - az * bz;
+        outRxn[0] = aw * bx + ax * bw + ay * bz - az * by;
+        outRxn[1] = aw * by - ax * bz + ay * bw + az * bx;
+        outRxn[2] = aw * bz + ax * by - ay * bx + az * bw;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public boolean hasDatum() {
+        return hasDatum;
+    }
+
+    /** {latitude, longitude, altitude} of the map origin; the altitude is NaN until a fix had one. */
+    public double[] getDatum() {
+        double[] out = new double[3];
+        getDatum(out);
+        return out;
+    }
+
+    public void getDatum(double[] out) {
+        out[0] = lat0;
+        out[1] = lon0;
+        out[2] = alt0;
+    }
+
+    /** Heading of the levelled odom x axis, counter-clockwise from east, in radians. */
+    public double getYaw() {
+        return yaw;
+    }
+
+    /** map <- odom translation {x,y,z}. */
+    public void getTranslation(float[] out) {
+        out[0] = (float) translation[0];
+        out[1] = (float) translation[1];
+        out[2] = (float) translation[2];
+    }
+
+    /** map <- odom rotation {x,y,z,w}. */
+    public void getRotation(float[] out) {
+        out[0] = (float) rotation[1];
+        out[1] = (float) rotation[2];
+        out[2] = (float) rotation[3];
+        out[3] = (float) rotation[0];
+    }
+
+    /** Horizontal position variance of the alignment, m^2. */
+    public double getVariance() {
+        return w > 0 ? 1.0 / w : Double.POSITIVE_INFINITY;
+    }
+
+    public int getFixCount() {
+        return fixes;
+    }
+}
@@ -0,0 +1,208 @@
+package com.jamie.android_ros.arcore_ros.ros;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.util.Locale;
+
+import sensor_msgs.Imu;
+
+/**
+ * Created by jamiecho on 2/4/17.
+ */
+
+
+public class IMUPublisher{
+    public enum Mode {
+        LATEST_ONLY, // publish only the most recent sample
+        EVERY_SAMPLE // one message per gyro sample, stamped with the sensor time
+    }
+
+    // rosjava serializes published messages later, on its own thread, out of a queue of
+    // Utilities.PUBLISHER_QUEUE_SIZE messages that drops the oldest. A flush never publishes more
+    // than fits in that queue, and every message comes from a pool that also covers one batch, so
+    // a message is never rewritten while it may still be queued.
+    private static final int MAX_BATCH = Utilities.PUBLISHER_QUEUE_SIZE;
+    private static final int BATCH_POOL_SIZE = Utilities.PUBLISHER_POOL_SIZE + MAX_BATCH;
+
+    private final Publisher<Imu> publisher;
+    private final Mode mode;
+    private final Imu[] pool;
+    private int poolIndex;
+    private Imu msg; // LATEST_ONLY : the next message to go out
+    private boolean updated;
+    private long stamp = -1; // acquisition time of msg, -1 to stamp at publish time
+
+    // EVERY_SAMPLE
+    private final Imu[] batch;
+    private int batchSize;
+    private int maxBatch = MAX_BATCH;
+
+    private volatile MessageSink recorder;
+
+    public IMUPublisher(final ConnectedNode connectedNode) {
+        this(connectedNode, Mode.LATEST_ONLY);
+    }
+
+    public IMUPublisher(final ConnectedNode connectedNode, Mode mode) {
+        this.publisher = connectedNode.newPublisher("android/imu", sensor_msgs.Imu._TYPE);
+        this.mode = mode;
+
+        pool = new Imu[mode == Mode.EVERY_SAMPLE ? BATCH_POOL_SIZE : Utilities.PUBLISHER_POOL_SIZE];
+        for (int i = 0; i < pool.length; ++i) {
+            pool[i] = publisher.newMessage();
+        }
+        batch = mode == Mode.EVERY_SAMPLE ? new Imu[MAX_BATCH] : null;
+        msg = nextMessage();
+        initialize();
+    }
+
+    private void initialize(){
+
+        // initialize covariances
+        double[] lc = {
+                2e-4,0,0,
+                0,3e-4,0,
+                0,0,3e-4
+        };
+        double[] ac = {
+                1e-6,0,0,
+                0,1e-6,0,
+                0,0,1e-6
+        };
+        double[] oc = {
+                0.001,0,0,
+                0,0.001,0,
+                0,0,0.001
+        };
+
+        updateCovariance(lc,ac,oc);
+        // no value yet
+        updated = false;
+    }
+
+    /** Also writes every published message to {@code recorder}; null to stop. */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** The mode called {@code name} ("latest_only" or "every_sample", any case), else {@code fallback}. */
+    public static Mode parseMode(String name, Mode fallback) {
+        if (name != null) {
+            for (Mode m : Mode.values()) {
+                if (m.name().equals(name.trim().toUpperCase(Locale.US))) {
+                    return m;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    /** Number of buffered samples that triggers a flush in {@link Mode#EVERY_SAMPLE}. */
+    public void setBatchSize(int n) {
+        maxBatch = Math.max(1, Math.min(n, MAX_BATCH));
+    }
+
+    public void update(float[] linAcc, float[] angVel, float[] orientation) {
+        update(-1, linAcc, angVel, orientation);
+    }
+
+    /** @param stamp acquisition time in ROS nanoseconds, -1 to stamp at publish time */
+    public void update(long stamp, float[] linAcc, float[] angVel, float[] orientation) {
+        updated = true;
+        this.stamp = stamp;
+        fill(msg, linAcc, angVel, orientation);
+    }
+
+    /**
+     * Queues one sample as its own message ({@link Mode#EVERY_SAMPLE} only).
+     * @param stamp acquisition time in ROS nanoseconds
+     * @return true if the batch is full and should be flushed with {@link #publish()}
+     */
+    public boolean add(long stamp, float[] linAcc, float[] angVel, float[] orientation) {
+        if (batchSize == maxBatch) {
+            // caller did not flush; keep the newest samples flowing
+            publish();
+        }
+        Imu m = nextMessage();
+        fill(m, linAcc, angVel, orientation);
+        Utilities.setHeader(m.getHeader(), Frames.IMU, stamp);
+        batch[batchSize++] = m;
+        return batchSize == maxBatch;
+    }
+
+    private Imu nextMessage() {
+        Imu m = pool[poolIndex];
+        poolIndex = (poolIndex + 1) % pool.length;
+        return m;
+    }
+
+    private static void fill(Imu m, float[] linAcc, float[] angVel, float[] orientation) {
+        m.getLinearAcceleration().setX(linAcc[0]);
+        m.getLinearAcceleration().setY(linAcc[1]);
+        m.getLinearAcceleration().setZ(linAcc[2]);
+
+        m.getAngularVelocity().setX(angVel[0]);
+        m.getAngularVelocity().setY(angVel[1]);
+        m.getAngularVelocity().setZ(angVel[2]);
+
+        //orientation = w,x,y,z
+        m.getOrientation().setW(orientation[0]); // order is x,y,z,w in ROS
+        m.getOrientation().setX(orientation[1]);
+        m.getOrientation().setY(orientation[2]);
+        m.getOrientation().setZ(orientation[3]);
+    }
+
+    //TODO : Implement covariance updates
+    public void updateCovariance(double[] lc, double[] ac, double[] oc){
+        for (Imu m : pool) {
+            m.setLinearAccelerationCovariance(lc);
+            m.setAngularVelocityCovariance(ac);
+            m.setOrientationCovariance(oc);
+        }
+    }
+
+    public boolean publish() {
+        if (mode == Mode.EVERY_SAMPLE) {
+            return flush();
+        }
+        //only publish when data got updated
+        if(updated){
+            updated = false;
+            if (stamp != -1) {
+                Utilities.setHeader(msg.getHeader(), Frames.IMU, stamp);
+            } else {
+                Utilities.setHeader(msg.getHeader(), Frames.IMU); // populate header
+            }
+            publisher.publish(msg);
+            record(msg);
+            // update() rewrites every field of the next one
+            msg = nextMessage();
+            return true;
+        }
+        return false;
+    }
+
+    private void record(Imu m) {
+        MessageSink r = recorder;
+        if (r != null) {
+            r.record(publisher.getTopicName().toString(), m, m.getHeader().getStamp().totalNsecs());
+        }
+    }
+
+    private boolean flush() {
+        if (batchSize == 0) {
+            return false;
+        }
+        for (int i = 0; i < batchSize; ++i) {
+            publisher.publish(batch[i]);
+            record(batch[i]);
+            batch[i] = null;
+        }
+        batchSize = 0;
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * Inertial and magnetic samples, as delivered by the platform's sensor callbacks. Stamps are in
+ * the sensor clock (SensorEvent.timestamp on Android); arrays may be reused once a call returns.
+ */
+public interface ImuListener {
+    /** @param v acceleration in m/s^2, with or without gravity, see {@link #setRawAccelerometer} */
+    void onAcceleration(long stamp, float[] v);
+
+    /** @param v angular velocity in rad/s */
+    void onGyroscope(long stamp, float[] v);
+
+    /** @param q orientation in ENU, w,x,y,z */
+    void onOrientation(long stamp, float[] q);
+
+    /** @param v field in uT */
+    void onMagneticField(long stamp, float[] v);
+
+    /** Whether the accelerometer input includes gravity, or is linear acceleration. */
+    void setRawAccelerometer(boolean raw);
+}
@@ -0,0 +1,102 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * Streaming accelerometer / gyroscope alignment.
+ *
+ * One stream is the reference (normally the gyro); every reference sample is emitted together
+ * with the other stream linearly interpolated to the reference timestamp. Only the two samples of
+ * the other stream that bracket the current reference sample are kept, so the stage needs no
+ * memory beyond the input ring buffers and never allocates.
+ *
+ * If the other stream stops or lags by more than {@code maxWaitNs}, the newest value seen is held
+ * so that reference samples keep flowing. If it never started (sensor disabled or missing), the
+ * reference is released zero-filled once it is {@code maxWaitNs} deep.
+ */
+public class ImuSynchronizer {
+    private final SampleRingBuffer reference;
+    private final SampleRingBuffer other;
+    private final long maxWaitNs;
+    private final int width;
+
+    // bracketing samples of the other stream : t0 <= t_ref <= t1
+    private final float[] v0;
+    private final float[] v1;
+    private long t0 = -1;
+    private long t1 = -1;
+
+    private long emitted;
+    private long held;
+
+    /**
+     * @param reference stream whose timestamps are kept
+     * @param other stream that is interpolated onto the reference timestamps
+     * @param maxWaitNs how far the reference may run ahead of the other stream before the last
+     *                  value of the other stream is held instead of waiting
+     */
+    public ImuSynchronizer(SampleRingBuffer reference, SampleRingBuffer other, long maxWaitNs) {
+        this.reference = reference;
+        this.other = other;
+        this.maxWaitNs = maxWaitNs;
+        this.width = other.getWidth();
+        this.v0 = new float[width];
+        this.v1 = new float[width];
+    }
+
+    /**
+     * Produces the next time-aligned sample.
+     * @param refOut receives the reference sample
+     * @param otherOut receives the other stream, interpolated to the reference timestamp
+     * @return the sample timestamp, or -1 if more input is needed
+     */
+    public long next(float[] refOut, float[] otherOut) {
+        long tr = reference.peekTimestamp();
+        if (tr == -1) {
+            return -1;
+        }
+
+        // slide the bracket forward until it covers tr
+        while (t1 < tr && other.peekTimestamp() != -1) {
+            System.arraycopy(v1, 0, v0, 0, width);
+            t0 = t1;
+            t1 = other.poll(v1);
+        }
+
+        if (t1 >= tr) {
+            if (t0 != -1 && t0 <= tr && t1 > t0) {
+                float a = (float) ((double) (tr - t0) / (t1 - t0));
+                for (int i = 0; i < width; ++i) {
+                    otherOut[i] = v0[i] + a * (v1[i] - v0[i]);
+                }
+            } else {
+                // reference precedes everything seen of the other stream
+                System.arraycopy(v1, 0, otherOut, 0, width);
+            }
+        } else if (t1 != -1 && tr - t1 > maxWaitNs) {
+            // other stream is lagging or stopped
+            System.arraycopy(v1, 0, otherOut, 0, width);
+            ++held;
+        } else if (t1 == -1 && reference.peekLatestTimestamp() - tr > maxWaitNs) {
+            // other stream never started; don't hold the reference back any longer than a lag
+            for (int i = 0; i < width; ++i) {
+                otherOut[i] = 0f;
+            }
+            ++held;
+        } else {
+            // wait for the other stream to catch up
+            return -1;
+        }
+
+        ++emitted;
+        return reference.poll(refOut);
+    }
+
+    /** Samples emitted so far. */
+    public long getEmitted() {
+        return emitted;
+    }
+
+    /** Samples emitted with a held (not interpolated) value of the other stream. */
+    public long getHeld() {
+        return held;
+    }
+}
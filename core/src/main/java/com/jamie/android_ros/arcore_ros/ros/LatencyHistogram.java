@@ -0,0 +1,137 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of durations in nanoseconds, in the manner of HdrHistogram.
+ *
+ * Each power of two is split into {@link #SUB_BUCKETS} linear buckets, so a recorded value is
+ * known to within 1/16 (6.25%) from 16 ns up to {@link #MAX_VALUE}; larger values land in the
+ * last bucket. {@link #record(long)} is a couple of shifts and one atomic increment, lock-free and
+ * allocation free, so it can sit on the sensor, GL and publish threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 44; // 2^44 ns, almost 5 h
+    public static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long ns) {
+        if (ns < 0) {
+            ns = 0; // clocks of different sources, or a stamp from the future
+        } else if (ns > MAX_VALUE) {
+            ns = MAX_VALUE;
+        }
+        counts.incrementAndGet(index(ns));
+        long m = max.get();
+        while (ns > m && !max.compareAndSet(m, ns)) {
+            m = max.get();
+        }
+    }
+
+    static int index(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (v >>> shift) - SUB_BUCKETS;
+    }
+
+    /** Largest value that falls into bucket {@code i}. */
+    static long highestValue(int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        int shift = i / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + i % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /** Copies the counts since construction into {@code out}; concurrent records may be missed. */
+    public void snapshot(Snapshot out) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            long c = counts.get(i);
+            out.counts[i] = c;
+            total += c;
+        }
+        out.total = total;
+        out.max = max.get();
+    }
+
+    /** Counts copied out of a histogram, or the difference of two such copies. */
+    public static final class Snapshot {
+        private final long[] counts = new long[BUCKETS];
+        private long total;
+        private long max;
+
+        /** this = this - older; the max stays the all-time one. */
+        public void subtract(Snapshot older) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                counts[i] -= older.counts[i];
+                total += counts[i];
+            }
+            this.total = total;
+        }
+
+        public void copyFrom(Snapshot other) {
+            System.arraycopy(other.counts, 0, counts, 0, BUCKETS);
+            total = other.total;
+            max = other.max;
+        }
+
+        public long getCount() {
+            return total;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /** Upper bound of the bucket holding the {@code percentile}th value, 0 if empty. */
+        public long getValueAtPercentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        /** Mean, with every value taken at the middle of its bucket. */
+        public double getMean() {
+            if (total == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                if (counts[i] != 0) {
+                    long lo = i == 0 ? 0 : highestValue(i - 1) + 1;
+                    sum += counts[i] * (lo + highestValue(i)) / 2.0;
+                }
+            }
+            return sum / total;
+        }
+
+        /** Non-empty buckets as {@code upper bound (ns), count} lines. */
+        public void appendBuckets(StringBuilder sb) {
+            for (int i = 0; i < BUCKETS; ++i) {
+                if (counts[i] != 0) {
+                    sb.append(highestValue(i)).append(' ').append(counts[i]).append('\n');
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Named {@link LatencyHistogram}s for the hot paths, exported through {@link DiagnosticsPublisher}
+ * and dumped to a text file on demand.
+ *
+ * Histograms are looked up by name once, at setup; the hot paths keep the reference and only call
+ * record(). Everything else here runs on the diagnostics loop or the thread asking for a dump.
+ */
+public class LatencyMonitor {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final List<String> names = new ArrayList<>();
+    private final List<LatencyHistogram> histograms = new ArrayList<>();
+
+    /** The histogram called {@code name}, created on first use. */
+    public synchronized LatencyHistogram histogram(String name) {
+        int i = names.indexOf(name);
+        if (i >= 0) {
+            return histograms.get(i);
+        }
+        LatencyHistogram h = new LatencyHistogram();
+        names.add(name);
+        histograms.add(h);
+        return h;
+    }
+
+    /** Registers a histogram that was created elsewhere, e.g. before this monitor existed. */
+    public synchronized void add(String name, LatencyHistogram histogram) {
+        int i = names.indexOf(name);
+        if (i >= 0) {
+            histograms.set(i, histogram);
+        } else {
+            names.add(name);
+            histograms.add(histogram);
+        }
+    }
+
+    /**
+     * Adds one status per histogram known so far, with the percentiles of the values recorded
+     * since the previous report.
+     */
+    public synchronized void addDiagnostics(DiagnosticsPublisher diagnostics) {
+        for (int i = 0; i < names.size(); ++i) {
+            diagnostics.add("latency: " + names.get(i), new HistogramSource(histograms.get(i)));
+        }
+    }
+
+    private static final class HistogramSource implements DiagnosticsPublisher.Source {
+        private final LatencyHistogram histogram;
+        // diagnostics loop only, preallocated
+        private final LatencyHistogram.Snapshot previous = new LatencyHistogram.Snapshot();
+        private final LatencyHistogram.Snapshot current = new LatencyHistogram.Snapshot();
+        private final LatencyHistogram.Snapshot interval = new LatencyHistogram.Snapshot();
+
+        HistogramSource(LatencyHistogram histogram) {
+            this.histogram = histogram;
+            histogram.snapshot(previous);
+        }
+
+        @Override
+        public void report(DiagnosticsPublisher.Status status) {
+            histogram.snapshot(current);
+            interval.copyFrom(current);
+            interval.subtract(previous);
+            previous.copyFrom(current);
+
+            status.put("count", interval.getCount());
+            status.put("mean (ms)", interval.getMean() / 1e6);
+            for (double p : PERCENTILES) {
+                status.put(String.format(Locale.US, "p%s (ms)", trim(p)), interval.getValueAtPercentile(p) / 1e6);
+            }
+            status.put("max since start (ms)", current.getMax() / 1e6);
+            status.put("count since start", current.getCount());
+        }
+    }
+
+    /**
+     * Writes every histogram, since start, to {@code file} : a summary line per histogram followed
+     * by its non-empty buckets.
+     */
+    public void dump(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        LatencyHistogram.Snapshot s = new LatencyHistogram.Snapshot();
+        synchronized (this) {
+            for (int i = 0; i < names.size(); ++i) {
+                histograms.get(i).snapshot(s);
+                sb.append("# ").append(names.get(i))
+                        .append(" count=").append(s.getCount())
+                        .append(" mean_ns=").append((long) s.getMean());
+                for (double p : PERCENTILES) {
+                    sb.append(" p").append(trim(p)).append("_ns=").append(s.getValueAtPercentile(p));
+                }
+                sb.append(" max_ns=").append(s.getMax()).append('\n');
+                s.appendBuckets(sb);
+            }
+        }
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"))) {
+            w.write(sb.toString());
+        }
+    }
+
+    private static String trim(double p) {
+        return p == Math.rint(p) ? Long.toString((long) p) : Double.toString(p);
+    }
+}
@@ -0,0 +1,65 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import sensor_msgs.MagneticField;
+
+/**
+ * Publishes the calibrated magnetometer as sensor_msgs/MagneticField, in the IMU frame.
+ */
+public class MagneticFieldPublisher {
+    private static final double MICROTESLA = 1e-6; // Android reports uT, ROS expects T
+
+    private final Publisher<MagneticField> publisher;
+    private final MagneticField[] pool = new MagneticField[Utilities.PUBLISHER_POOL_SIZE];
+    private int poolIndex;
+    private boolean updated;
+    private long stamp;
+    private final double[] field = new double[3]; // T
+    private volatile MessageSink recorder;
+
+    public MagneticFieldPublisher(final ConnectedNode connectedNode) {
+        this.publisher = connectedNode.newPublisher("android/magnetic_field", MagneticField._TYPE);
+        for (int i = 0; i < pool.length; ++i) {
+            pool[i] = publisher.newMessage();
+            // unknown covariance
+            pool[i].setMagneticFieldCovariance(new double[9]);
+        }
+        updated = false;
+    }
+
+    /** Also writes every published message to {@code recorder}; null to stop. */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    /** @param stamp acquisition time in ROS nanoseconds */
+    public void update(long stamp, float[] field) {
+        updated = true;
+        this.stamp = stamp;
+        this.field[0] = field[0] * MICROTESLA;
+        this.field[1] = field[1] * MICROTESLA;
+        this.field[2] = field[2] * MICROTESLA;
+    }
+
+    public boolean publish() {
+        //only publish when data got updated
+        if (updated) {
+            updated = false;
+            MagneticField msg = pool[poolIndex];
+            poolIndex = (poolIndex + 1) % pool.length;
+            msg.getMagneticField().setX(field[0]);
+            msg.getMagneticField().setY(field[1]);
+            msg.getMagneticField().setZ(field[2]);
+            Utilities.setHeader(msg.getHeader(), Frames.IMU, stamp);
+            publisher.publish(msg);
+            MessageSink r = recorder;
+            if (r != null) {
+                r.record(publisher.getTopicName().toString(), msg, stamp);
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.ros.internal.message.DefaultMessageSerializer;
+import org.ros.internal.message.Message;
+import org.ros.internal.message.MessageBuffers;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializes every message it is handed into a stream, right away on the publishing thread.
+ *
+ * rosjava serializes a published message later, on its own thread, and the publishers reuse
+ * pooled messages; at full replay speed a message can be rewritten before it goes out, so what
+ * reaches the wire is not reproducible. The bytes captured here are taken before publish()
+ * returns to the pipeline, which makes two replays of the same log comparable byte for byte.
+ *
+ * Records (big endian) : topic (modified UTF-8), stamp ns (long), length (int), serialized message.
+ */
+public class MessageCapture implements MessageSink, Closeable {
+    private final DataOutputStream out;
+    private final DefaultMessageSerializer serializer = new DefaultMessageSerializer();
+    private final ChannelBuffer buffer = MessageBuffers.dynamicBuffer();
+    private long messages;
+    private IOException error;
+
+    public MessageCapture(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    @Override
+    public synchronized boolean record(String topic, Message msg, long stamp) {
+        if (error != null) {
+            return false;
+        }
+        buffer.clear();
+        serializer.serialize(msg, buffer);
+        int n = buffer.readableBytes();
+        try {
+            out.writeUTF(topic);
+            out.writeLong(stamp);
+            out.writeInt(n);
+            buffer.getBytes(buffer.readerIndex(), out, n);
+        } catch (IOException e) {
+            error = e;
+            return false;
+        }
+        ++messages;
+        return true;
+    }
+
+    @Override
+    public boolean isRecording() {
+        return true;
+    }
+
+    public synchronized long getMessages() {
+        return messages;
+    }
+
+    /** Set if a write failed; nothing is captured after that. */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
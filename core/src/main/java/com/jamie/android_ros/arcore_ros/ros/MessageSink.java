@@ -0,0 +1,41 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.internal.message.Message;
+
+/**
+ * Receives a copy of every published message, e.g. the app's BagRecorder or StoreAndForward.
+ * Called on the publishing thread, right after Publisher.publish().
+ */
+public interface MessageSink {
+    /**
+     * @param topic resolved topic name
+     * @param stamp in ROS nanoseconds
+     * @return false if the message was not kept
+     */
+    boolean record(String topic, Message msg, long stamp);
+
+    /** Whether messages are currently kept; publishers skip expensive work for no subscriber otherwise. */
+    boolean isRecording();
+
+    /** Hands every message to both sinks. */
+    class Both implements MessageSink {
+        private final MessageSink a;
+        private final MessageSink b;
+
+        public Both(MessageSink a, MessageSink b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public boolean record(String topic, Message msg, long stamp) {
+            boolean kept = a.record(topic, msg, stamp);
+            return b.record(topic, msg, stamp) || kept;
+        }
+
+        @Override
+        public boolean isRecording() {
+            return a.isRecording() || b.isRecording();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import geometry_msgs.Pose;
+import geometry_msgs.Twist;
+import nav_msgs.Odometry;
+
+public class OdomPublisher {
+    // base standard deviations while tracking normally
+    private static final double POSITION_STD = 0.01; // m
+    private static final double ORIENTATION_STD = 0.01; // rad
+    private static final double LINEAR_VEL_STD = 0.05; // m/s
+    private static final double ANGULAR_VEL_STD = 0.02; // rad/s
+
+    // variance multiplier right after tracking is lost or the pose jumps; decays back to 1
+    private static final double LOST_INFLATION = 100.0;
+    private static final double INFLATION_HALF_LIFE = 2.0; // s
+
+    // a pose moving faster than this is treated as a relocalization, not as motion
+    private static final double MAX_SPEED = 5.0; // m/s
+    // no finite difference over gaps longer than this
+    private static final double MAX_DT = 0.5; // s
+    // smoothing of the finite-difference twist, 1 = no smoothing
+    private static final double TWIST_ALPHA = 0.5;
+
+    private final Publisher<Odometry> publisher;
+    private final Odometry[] pool = new Odometry[Utilities.PUBLISHER_POOL_SIZE];
+    private int poolIndex;
+    private boolean updated;
+    private long stamp = -1; // acquisition time in ROS nanoseconds, -1 to stamp at publish time
+    private volatile MessageSink recorder;
+
+    // previous pose for the finite difference
+    private boolean hasPrev = false;
+    private long prevStamp;
+    private double px, py, pz;
+    private final Quaternion prevRot = new Quaternion(1, 0, 0, 0);
+    private final Quaternion rot = new Quaternion(1, 0, 0, 0);
+    private final Quaternion delta = new Quaternion(1, 0, 0, 0);
+    private final float[] vel = new float[3];
+
+    // latest pose, rxn {x,y,z,w}
+    private final float[] position = new float[3];
+    private final float[] orientation = {0f, 0f, 0f, 1f};
+
+    // smoothed twist, in the child (device) frame
+    private final double[] linear = new double[3];
+    private final double[] angular = new double[3];
+
+    private double inflation = 1.0;
+    private final double[] poseCovariance = new double[36];
+    private final double[] twistCovariance = new double[36];
+
+    public OdomPublisher(final ConnectedNode connectedNode) {
+        this.publisher = connectedNode.newPublisher("android/odom", Odometry._TYPE);
+        for (int i = 0; i < pool.length; ++i) {
+            pool[i] = publisher.newMessage();
+            pool[i].setChildFrameId(Frames.DEVICE);
+        }
+        updateCovariance(inflation);
+        updated = false;
+    }
+
+    public void update(float[] txn, float[] rxn) {
+        update(-1, txn, rxn);
+    }
+
+    public void update(long stamp, float[] txn, float[] rxn) {
+        // rxn formatted {x,y,z,w}
+
+        updated = true;
+        System.arraycopy(txn, 0, position, 0, 3);
+        System.arraycopy(rxn, 0, orientation, 0, 4);
+
+        rot.set(rxn[3], rxn[0], rxn[1], rxn[2]);
+        if (stamp != -1) {
+            updateTwist(stamp, txn);
+        }
+        this.stamp = stamp;
+
+        updateCovariance(inflation);
+    }
+
+    private void updateTwist(long stamp, float[] txn) {
+        double dt = (stamp - prevStamp) * 1e-9;
+        if (hasPrev && dt > 0 && dt <= MAX_DT) {
+            // world-frame velocity, rotated into the device frame
+            vel[0] = (float) ((txn[0] - px) / dt);
+            vel[1] = (float) ((txn[1] - py) / dt);
+            vel[2] = (float) ((txn[2] - pz) / dt);
+            double speed = Math.sqrt(vel[0] * vel[0] + vel[1] * vel[1] + vel[2] * vel[2]);
+
+            if (speed > MAX_SPEED) {
+                // ARCore snapped to a different solution
+                onTrackingLost();
+            } else {
+                rot.conjugate(delta).rotate(vel, 0, vel, 0);
+
+                // body-frame rotation between frames, prev^-1 * cur, as a rotation vector
+                prevRot.conjugate(delta).mul(rot, delta);
+                if (delta.w < 0) {
+                    delta.set(-delta.w, -delta.x, -delta.y, -delta.z);
+                }
+                double s = Math.sqrt(delta.x * delta.x + delta.y * delta.y + delta.z * delta.z);
+                double k = s > 1e-9 ? 2 * Math.atan2(s, delta.w) / (s * dt) : 2 / dt;
+
+                smooth(linear, vel[0], vel[1], vel[2]);
+                smooth(angular, delta.x * k, delta.y * k, delta.z * k);
+                decayInflation(dt);
+            }
+        } else {
+            // first pose, or a gap : restart the difference
+            linear[0] = linear[1] = linear[2] = 0;
+            angular[0] = angular[1] = angular[2] = 0;
+        }
+
+        hasPrev = true;
+        prevStamp = stamp;
+        px = txn[0];
+        py = txn[1];
+        pz = txn[2];
+        prevRot.set(rot.w, rot.x, rot.y, rot.z);
+    }
+
+    private static void smooth(double[] v, double x, double y, double z) {
+        v[0] += TWIST_ALPHA * (x - v[0]);
+        v[1] += TWIST_ALPHA * (y - v[1]);
+        v[2] += TWIST_ALPHA * (z - v[2]);
+    }
+
+    private void decayInflation(double dt) {
+        if (inflation > 1.0) {
+            inflation = Math.max(1.0, inflation * Math.pow(0.5, dt / INFLATION_HALF_LIFE));
+        }
+    }
+
+    /**
+     * Tracking was lost (e.g. TrackingState.PAUSED) or the pose jumped. Covariances are inflated
+     * and the twist restarts from the next pose.
+     */
+    public void onTrackingLost() {
+        inflation = LOST_INFLATION;
+        hasPrev = false;
+        linear[0] = linear[1] = linear[2] = 0;
+        angular[0] = angular[1] = angular[2] = 0;
+        updateCovariance(inflation);
+    }
+
+    /** Fills the diagonal pose and twist covariances, scaled by {@code a}. */
+    public void updateCovariance(double a){
+        double pv = a * POSITION_STD * POSITION_STD;
+        double ov = a * ORIENTATION_STD * ORIENTATION_STD;
+        double lv = a * LINEAR_VEL_STD * LINEAR_VEL_STD;
+        double av = a * ANGULAR_VEL_STD * ANGULAR_VEL_STD;
+        for (int i = 0; i < 3; ++i) {
+            poseCovariance[i * 7] = pv;
+            poseCovariance[(i + 3) * 7] = ov;
+            twistCovariance[i * 7] = lv;
+            twistCovariance[(i + 3) * 7] = av;
+        }
+    }
+
+    private void fill(Odometry msg) {
+        Pose p = msg.getPose().getPose();
+        p.getPosition().setX(position[0]);
+        p.getPosition().setY(position[1]);
+        p.getPosition().setZ(position[2]);
+        p.getOrientation().setX(orientation[0]);
+        p.getOrientation().setY(orientation[1]);
+        p.getOrientation().setZ(orientation[2]);
+        p.getOrientation().setW(orientation[3]);
+
+        Twist t = msg.getTwist().getTwist();
+        t.getLinear().setX(linear[0]);
+        t.getLinear().setY(linear[1]);
+        t.getLinear().setZ(linear[2]);
+        t.getAngular().setX(angular[0]);
+        t.getAngular().setY(angular[1]);
+        t.getAngular().setZ(angular[2]);
+
+        // into the message's own arrays, queued messages share nothing
+        System.arraycopy(poseCovariance, 0, msg.getPose().getCovariance(), 0, 36);
+        System.arraycopy(twistCovariance, 0, msg.getTwist().getCovariance(), 0, 36);
+    }
+
+    /** Also writes every published message to {@code recorder}; null to stop. */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    public boolean publish() {
+        //only publish when data got updated
+        if(updated){
+            updated = false;
+            Odometry msg = pool[poolIndex];
+            poolIndex = (poolIndex + 1) % pool.length;
+            fill(msg);
+            if (stamp != -1) {
+                Utilities.setHeader(msg.getHeader(), Frames.ODOM, stamp);
+            } else {
+                Utilities.setHeader(msg.getHeader(), Frames.ODOM); // populate header
+            }
+            publisher.publish(msg);
+            MessageSink r = recorder;
+            if (r != null) {
+                r.record(publisher.getTopicName().toString(), msg, msg.getHeader().getStamp().totalNsecs());
+            }
+            return true;
+        }
+        return false;
+    }
+}
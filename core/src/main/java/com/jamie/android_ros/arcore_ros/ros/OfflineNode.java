@@ -0,0 +1,105 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.internal.message.DefaultMessageFactory;
+import org.ros.internal.message.definition.MessageDefinitionReflectionProvider;
+import org.ros.message.MessageFactory;
+import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.node.parameter.ParameterTree;
+import org.ros.node.topic.Publisher;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * A ConnectedNode that needs no master, so the publishers can run while the device is offline and
+ * their output still reaches a {@link MessageSink}. The replay test and the benchmarks run the
+ * publishers on it too, which measures them and nothing of the transport.
+ *
+ * Its publishers hand out real rosjava messages and have no subscribers; publish() discards the
+ * message. Every parameter lookup returns the default it is given. Anything else returns null,
+ * zero or false.
+ */
+public final class OfflineNode {
+    private static final MessageFactory MESSAGE_FACTORY =
+            new DefaultMessageFactory(new MessageDefinitionReflectionProvider());
+
+    private static final ParameterTree PARAMETERS = proxy(ParameterTree.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().startsWith("get") && args != null && args.length == 2) {
+                return args[1];
+            }
+            return defaultValue(method);
+        }
+    });
+
+    private OfflineNode() {
+    }
+
+    /** Creates real rosjava messages of any type, e.g. for the tests and benchmarks. */
+    public static MessageFactory getMessageFactory() {
+        return MESSAGE_FACTORY;
+    }
+
+    public static ConnectedNode newConnectedNode() {
+        return proxy(ConnectedNode.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "newPublisher":
+                        return newPublisher(args[0].toString(), (String) args[1]);
+                    case "getTopicMessageFactory":
+                        return MESSAGE_FACTORY;
+                    case "getParameterTree":
+                        return PARAMETERS;
+                    case "getName":
+                        return GraphName.of("android_sensors").toGlobal();
+                    default:
+                        return defaultValue(method);
+                }
+            }
+        });
+    }
+
+    private static Publisher<?> newPublisher(String topic, final String type) {
+        final GraphName name = GraphName.of(topic).toGlobal();
+        return proxy(Publisher.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "newMessage":
+                        return MESSAGE_FACTORY.newFromType(type);
+                    case "getTopicName":
+                        return name;
+                    case "getTopicMessageType":
+                        return type;
+                    default:
+                        return defaultValue(method);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(OfflineNode.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> r = method.getReturnType();
+        if (r == boolean.class) {
+            return false;
+        } else if (r == int.class) {
+            return 0;
+        } else if (r == long.class) {
+            return 0L;
+        } else if (r == float.class) {
+            return 0f;
+        } else if (r == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,156 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * Bounded map from ARCore point id to the latest position and confidence of that point.
+ *
+ * Keys are plain ints in an open-addressing table (linear probing, backward-shift deletion), and
+ * entries live in parallel primitive arrays threaded on an LRU list. Once full, inserting a new id
+ * evicts the point that was seen least recently. Nothing is allocated after construction.
+ */
+public class PointMap {
+    private static final int NIL = -1;
+
+    private final int capacity;
+    private final int mask;
+    private final int[] table; // entry index + 1, 0 = empty
+
+    private final int[] ids;
+    private final float[] xyzc; // x,y,z,confidence per entry
+    private final int[] prev;
+    private final int[] next;
+    private int head = NIL; // most recently seen
+    private int tail = NIL; // least recently seen
+    private int size;
+    private long evictions;
+
+    public PointMap(int capacity) {
+        this.capacity = capacity;
+        int t = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1) << 1;
+        this.mask = t - 1;
+        this.table = new int[t];
+        this.ids = new int[capacity];
+        this.xyzc = new float[capacity * 4];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(table, 0);
+        head = tail = NIL;
+        size = 0;
+    }
+
+    /** Inserts or refreshes a point and marks it most recently seen. */
+    public void put(int id, float x, float y, float z, float confidence) {
+        int e = find(id);
+        if (e == NIL) {
+            if (size == capacity) {
+                e = tail;
+                remove(ids[e]);
+                unlink(e);
+                ++evictions;
+            } else {
+                e = size;
+            }
+            ++size;
+            ids[e] = id;
+            insert(id, e);
+        } else {
+            unlink(e);
+        }
+        pushFront(e);
+
+        int o = e * 4;
+        xyzc[o] = x;
+        xyzc[o + 1] = y;
+        xyzc[o + 2] = z;
+        xyzc[o + 3] = confidence;
+    }
+
+    /* Iteration, most recently seen first : for (int e = first(); e != -1; e = next(e)) */
+
+    public int first() {
+        return head;
+    }
+
+    public int next(int entry) {
+        return next[entry];
+    }
+
+    public int id(int entry) {
+        return ids[entry];
+    }
+
+    /** x,y,z,confidence of an entry, at {@code entry * 4} */
+    public float[] values() {
+        return xyzc;
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int find(int id) {
+        for (int i = hash(id) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int e = table[i] - 1;
+            if (ids[e] == id) {
+                return e;
+            }
+        }
+        return NIL;
+    }
+
+    private void insert(int id, int e) {
+        int i = hash(id) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = e + 1;
+    }
+
+    private void remove(int id) {
+        int i = hash(id) & mask;
+        while (ids[table[i] - 1] != id) {
+            i = (i + 1) & mask;
+        }
+        // backward-shift deletion keeps probe chains intact without tombstones
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == 0) {
+                break;
+            }
+            int k = hash(ids[table[j] - 1]) & mask;
+            boolean movable = (j > i) ? (k <= i || k > j) : (k <= i && k > j);
+            if (movable) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = 0;
+        --size;
+    }
+
+    private void unlink(int e) {
+        int p = prev[e], n = next[e];
+        if (p != NIL) next[p] = n; else head = n;
+        if (n != NIL) prev[n] = p; else tail = p;
+    }
+
+    private void pushFront(int e) {
+        prev[e] = NIL;
+        next[e] = head;
+        if (head != NIL) prev[head] = e;
+        head = e;
+        if (tail == NIL) tail = e;
+    }
+}
@@ -0,0 +1,21 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * Camera poses from the visual tracker (ARCore on Android), in the odom frame.
+ */
+public interface PoseListener {
+    /**
+     * A tracked camera pose.
+     * @param stamp tracker clock, ARCore Frame.getTimestamp()
+     * @param rxn {x,y,z,w}
+     * @param gravity gravity in the odom frame
+     */
+    void onPose(long stamp, float[] txn, float[] rxn, float[] gravity);
+
+    void onTrackingLost();
+
+    /** camera -> IMU; the camera and the IMU are rigidly attached, so once is enough. */
+    void setImuExtrinsic(float[] txn, float[] rxn);
+
+    boolean isImuExtrinsicKnown();
+}
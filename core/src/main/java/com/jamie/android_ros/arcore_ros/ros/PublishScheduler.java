@@ -0,0 +1,277 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Event-driven publish loop.
+ *
+ * Producers call {@link #signal(int)} when new data is available for a topic; the publish
+ * thread sleeps in {@link #runOnce()} until a topic is due instead of spinning over the
+ * publishers. Each topic has a target rate (an upper bound on how often it is published) and a
+ * max latency (an upper bound on how long a pending update may be held back by the rate limit).
+ *
+ * signal() never blocks or allocates, so it is safe to call from sensor callbacks.
+ */
+public class PublishScheduler {
+
+    public interface Task {
+        /**
+         * Publish whatever is pending for this topic.
+         * @return true if at least one message went out
+         */
+        boolean publish();
+    }
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final long STATS_WINDOW_NS = TimeUnit.SECONDS.toNanos(1);
+    // upper bound on a single sleep, so achieved-rate windows keep rolling while idle
+    private static final long MAX_PARK_NS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final int capacity;
+    private final TimeSource time;
+    private int size;
+
+    private final String[] names;
+    private final Task[] tasks;
+    private final long[] periodNs;
+    private final long[] maxLatencyNs;
+
+    // time of the first signal that is still waiting to be published, 0 when nothing is pending
+    private final AtomicLongArray pendingSince;
+
+    // publish-thread only
+    private final long[] lastPublishNs;
+    private final int[] windowCount;
+    private final double[] achievedRate;
+    private final long[] windowLatencySum;
+    private final int[] windowLatencyCount;
+    private final long[] windowLatencyMax;
+    private final double[] meanLatencyNs;
+    private final long[] maxLatencyInWindowNs;
+    private final LatencyHistogram[] publishTime;
+
+    private volatile Thread worker;
+
+    private long windowStartNs;
+    private long windowIdleNs;
+    private volatile double idleFraction = 1.0; // until the first window is complete
+
+    public PublishScheduler(int capacity) {
+        this(capacity, TimeSource.SYSTEM);
+    }
+
+    public PublishScheduler(int capacity, TimeSource time) {
+        this.capacity = capacity;
+        this.time = time;
+        names = new String[capacity];
+        tasks = new Task[capacity];
+        periodNs = new long[capacity];
+        maxLatencyNs = new long[capacity];
+        pendingSince = new AtomicLongArray(capacity);
+        lastPublishNs = new long[capacity];
+        windowCount = new int[capacity];
+        achievedRate = new double[capacity];
+        windowLatencySum = new long[capacity];
+        windowLatencyCount = new int[capacity];
+        windowLatencyMax = new long[capacity];
+        meanLatencyNs = new double[capacity];
+        maxLatencyInWindowNs = new long[capacity];
+        publishTime = new LatencyHistogram[capacity];
+    }
+
+    /**
+     * Registers a topic. Must be called before the publish thread starts.
+     * @param targetRate max publish rate in Hz, 0 for unlimited
+     * @param maxLatencyMs max time a pending update may be delayed by the rate limit
+     * @return topic id to pass to {@link #signal(int)}
+     */
+    public int register(String name, Task task, double targetRate, long maxLatencyMs) {
+        if (size == capacity) {
+            throw new IllegalStateException("PublishScheduler is full : " + capacity);
+        }
+        int id = size++;
+        names[id] = name;
+        tasks[id] = task;
+        periodNs[id] = targetRate > 0 ? (long) (1e9 / targetRate) : 0;
+        maxLatencyNs[id] = TimeUnit.MILLISECONDS.toNanos(maxLatencyMs);
+        return id;
+    }
+
+    /** Forgets every topic, so that a restarted node can register them again. */
+    public void clear() {
+        for (int i = 0; i < size; ++i) {
+            tasks[i] = null;
+            pendingSince.set(i, 0);
+            lastPublishNs[i] = 0;
+            windowCount[i] = 0;
+            achievedRate[i] = 0;
+            windowLatencySum[i] = 0;
+            windowLatencyCount[i] = 0;
+            windowLatencyMax[i] = 0;
+            meanLatencyNs[i] = 0;
+            maxLatencyInWindowNs[i] = 0;
+            publishTime[i] = null;
+        }
+        size = 0;
+    }
+
+    /** Records how long each publish of the topic takes into {@code histogram}; null to stop. */
+    public void setPublishHistogram(int id, LatencyHistogram histogram) {
+        publishTime[id] = histogram;
+    }
+
+    public void setTargetRate(int id, double targetRate) {
+        periodNs[id] = targetRate > 0 ? (long) (1e9 / targetRate) : 0;
+    }
+
+    public void setMaxLatency(int id, long maxLatencyMs) {
+        maxLatencyNs[id] = TimeUnit.MILLISECONDS.toNanos(maxLatencyMs);
+    }
+
+    /** Marks a topic as having new data and wakes the publish thread. */
+    public void signal(int id) {
+        if (pendingSince.get(id) == 0 && pendingSince.compareAndSet(id, 0, time.nanoTime())) {
+            Thread t = worker;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /** Wakes the publish thread without marking any topic, e.g. so that it notices a stop. */
+    public void wake() {
+        Thread t = worker;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Publish thread only, from a {@link Task} : records how old the data of a message that just
+     * went out was, i.e. publish time minus acquisition time.
+     */
+    public void recordLatency(int id, long latencyNs) {
+        windowLatencySum[id] += latencyNs;
+        ++windowLatencyCount[id];
+        if (latencyNs > windowLatencyMax[id]) {
+            windowLatencyMax[id] = latencyNs;
+        }
+    }
+
+    /**
+     * Publishes every topic that is due, then sleeps until the next one is.
+     * Intended to be called repeatedly from the publish thread (e.g. a CancellableLoop).
+     */
+    public void runOnce() throws InterruptedException {
+        worker = Thread.currentThread();
+
+        long now = time.nanoTime();
+        long deadline = dispatch(now);
+
+        long wait = Math.min(deadline - time.nanoTime(), MAX_PARK_NS);
+        if (wait > 0) {
+            long t0 = time.nanoTime();
+            LockSupport.parkNanos(this, wait);
+            windowIdleNs += time.nanoTime() - t0;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Publishes every topic that is due at {@code now}.
+     * @return time at which the next pending topic becomes due, or Long.MAX_VALUE if none are pending
+     */
+    public long dispatch(long now) {
+        long next = NO_DEADLINE;
+        for (int i = 0; i < size; ++i) {
+            long since = pendingSince.get(i);
+            if (since == 0) {
+                continue;
+            }
+            long due = dueTime(i, since);
+            if (due <= now) {
+                // clear before publishing so that a signal raised meanwhile is not lost
+                pendingSince.set(i, 0);
+                LatencyHistogram h = publishTime[i];
+                // duration of the call on the real clock, also when replaying on a virtual one
+                long t0 = h != null ? System.nanoTime() : 0;
+                boolean sent = tasks[i].publish();
+                if (h != null) {
+                    h.record(System.nanoTime() - t0);
+                }
+                if (sent) {
+                    lastPublishNs[i] = now;
+                    ++windowCount[i];
+                }
+            } else if (due < next) {
+                next = due;
+            }
+        }
+        updateStats(now);
+        return next;
+    }
+
+    private long dueTime(int i, long since) {
+        if (lastPublishNs[i] == 0) {
+            return since;
+        }
+        long byRate = lastPublishNs[i] + periodNs[i];
+        long byLatency = since + maxLatencyNs[i];
+        return Math.max(since, Math.min(byRate, byLatency));
+    }
+
+    private void updateStats(long now) {
+        if (windowStartNs == 0) {
+            windowStartNs = now;
+            return;
+        }
+        long elapsed = now - windowStartNs;
+        if (elapsed < STATS_WINDOW_NS) {
+            return;
+        }
+        for (int i = 0; i < size; ++i) {
+            achievedRate[i] = windowCount[i] * 1e9 / elapsed;
+            windowCount[i] = 0;
+            meanLatencyNs[i] = windowLatencyCount[i] > 0
+                    ? (double) windowLatencySum[i] / windowLatencyCount[i] : 0;
+            maxLatencyInWindowNs[i] = windowLatencyMax[i];
+            windowLatencySum[i] = 0;
+            windowLatencyCount[i] = 0;
+            windowLatencyMax[i] = 0;
+        }
+        idleFraction = Math.min(1.0, (double) windowIdleNs / elapsed);
+        windowIdleNs = 0;
+        windowStartNs = now;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /** Messages per second published for the topic over the last stats window. */
+    public double getAchievedRate(int id) {
+        return achievedRate[id];
+    }
+
+    /** Mean acquisition-to-publish latency over the last stats window, see {@link #recordLatency}. */
+    public double getMeanLatencyNanos(int id) {
+        return meanLatencyNs[id];
+    }
+
+    public long getMaxLatencyNanos(int id) {
+        return maxLatencyInWindowNs[id];
+    }
+
+    /** Fraction of the last stats window that the publish thread spent sleeping. */
+    public double getIdleFraction() {
+        return idleFraction;
+    }
+}
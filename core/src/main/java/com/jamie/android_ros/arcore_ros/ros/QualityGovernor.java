@@ -0,0 +1,138 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Steps the non-essential output (images, point clouds, preview, IMU rate) down when the
+ * device runs hot or falls behind, and back up once it has had headroom for a while. Odometry,
+ * fused odometry included, is never touched : the point is to keep tracking alive.
+ *
+ * {@link #evaluate} is called about once a second with the current thermal status, the recent
+ * frame time and whether any output queue is backing up. The thermal status sets a floor on the
+ * level right away; overload that lasts two evaluations raises the level one step at a time, at
+ * most every {@link #STEP_DOWN_HOLD_MS}; the level only comes back down after {@link #STEP_UP_HOLD_MS} without
+ * pressure, since the temperature lags the load by tens of seconds.
+ */
+public class QualityGovernor implements DiagnosticsPublisher.Source {
+    /** 0 is full quality, {@link #MAX_LEVEL} the most degraded. */
+    public static final int MAX_LEVEL = 3;
+
+    // PowerManager.THERMAL_STATUS_* values
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_LIGHT = 1;
+    public static final int THERMAL_MODERATE = 2;
+    public static final int THERMAL_SEVERE = 3;
+
+    private static final int OVERLOAD_SAMPLES = 2; // consecutive overloaded evaluations before a step
+    private static final long STEP_DOWN_HOLD_MS = 3000;
+    private static final long STEP_UP_HOLD_MS = 30000;
+
+    public interface Listener {
+        /** Called on the thread that runs {@link #evaluate}; apply the settings of {@code level}. */
+        void onLevelChanged(int level);
+    }
+
+    private final long frameBudgetNs;
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean enabled = true;
+
+    // written by evaluate() only, read by the diagnostics loop
+    private volatile int level = 0;
+    private volatile String reason = "";
+    private volatile long transitions = 0;
+    private volatile int thermal = THERMAL_NONE;
+    private volatile long frameTimeNs = 0;
+    private volatile boolean backlogged = false;
+    private long lastChangeMs = Long.MIN_VALUE / 2;
+    private long lastPressureMs = Long.MIN_VALUE / 2;
+    private int overloads = 0;
+    private volatile long levelSinceMs = 0;
+    private volatile long lastEvaluateMs = 0;
+
+    /** @param frameBudgetNs frame time above which the device counts as overloaded */
+    public QualityGovernor(long frameBudgetNs) {
+        this.frameBudgetNs = frameBudgetNs;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /** When disabled, the governor goes back to full quality and stays there. */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param nowMs monotonic time
+     * @param thermalStatus one of the THERMAL_ constants, higher PowerManager values count as SEVERE
+     * @param frameTimeNs a high percentile of the recent frame times, 0 if unknown
+     * @param backlogged whether an output queue is growing or dropping
+     */
+    public void evaluate(long nowMs, int thermalStatus, long frameTimeNs, boolean backlogged) {
+        this.thermal = thermalStatus;
+        this.frameTimeNs = frameTimeNs;
+        this.backlogged = backlogged;
+        lastEvaluateMs = nowMs;
+        if (levelSinceMs == 0) {
+            levelSinceMs = nowMs;
+        }
+
+        if (!enabled) {
+            change(nowMs, 0, "disabled");
+            return;
+        }
+        int floor = Math.min(MAX_LEVEL, Math.max(0, thermalStatus));
+        boolean overloaded = backlogged || (frameTimeNs > frameBudgetNs);
+        overloads = overloaded ? overloads + 1 : 0;
+        if (overloaded || (floor > 0 && floor >= level)) {
+            // the thermal floor holds the level; a cooler floor lets it recover
+            lastPressureMs = nowMs;
+        }
+
+        if (level < floor) {
+            change(nowMs, floor, "thermal status " + thermalStatus);
+        } else if (overloads >= OVERLOAD_SAMPLES && level < MAX_LEVEL && nowMs - lastChangeMs >= STEP_DOWN_HOLD_MS) {
+            change(nowMs, level + 1, backlogged ? "output backlog" : "frame time "
+                    + frameTimeNs / 1000000 + " ms");
+        } else if (!overloaded && level > floor && nowMs - lastPressureMs >= STEP_UP_HOLD_MS
+                && nowMs - lastChangeMs >= STEP_UP_HOLD_MS) {
+            change(nowMs, level - 1, "headroom");
+        }
+    }
+
+    private void change(long nowMs, int newLevel, String why) {
+        if (newLevel == level) {
+            return;
+        }
+        level = newLevel;
+        reason = why;
+        transitions = transitions + 1;
+        lastChangeMs = nowMs;
+        levelSinceMs = nowMs;
+        for (Listener l : listeners) {
+            l.onLevelChanged(newLevel);
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public void report(DiagnosticsPublisher.Status status) {
+        int l = level;
+        status.put("level", l);
+        status.put("reason", reason);
+        status.put("transitions", transitions);
+        status.put("time at level (s)", (lastEvaluateMs - levelSinceMs) / 1000.0);
+        status.put("thermal status", thermal);
+        status.put("frame time (ms)", frameTimeNs / 1e6);
+        status.put("backlogged", Boolean.toString(backlogged));
+        status.put("enabled", Boolean.toString(enabled));
+        if (l > 0) {
+            status.warn("output reduced to level " + l + " : " + reason);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * Created by jamiecho on 2/5/17.
+ */
+
+public class Quaternion {
+    // data class
+    public float w,x,y,z;
+    public Quaternion(float w, float x, float y, float z){
+        this.w = w;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+    public Quaternion(float[] v){
+        this(v[0],v[1],v[2],v[3]);
+    }
+    public Quaternion(Quaternion q){
+        this(q.w,q.x,q.y,q.z);
+    }
+    static Quaternion fromAxisAngle(float[] axis, float angle){
+        final float qw = (float)Math.cos(angle/2);
+        final float s = (float)Math.sin(angle/2);
+        final float qx = axis[0] * s;
+        final float qy = axis[1] * s;
+        final float qz = axis[2] * s;
+
+        return new Quaternion(qw,qx,qy,qz);
+    }
+    Quaternion mul(Quaternion q){
+        final float qx = this.w * q.x + this.x * q.w + this.y * q.z - this.z * q.y;
+        final float qy = this.w * q.y + this.y * q.w + this.z * q.x - this.x * q.z;
+        final float qz = this.w * q.z + this.z * q.w + this.x * q.y - this.y * q.x;
+        final float qw = this.w * q.w - this.x * q.x - this.y * q.y - this.z * q.z;
+
+        return new Quaternion(qw,qx,qy,qz);
+    }
+
+    /* In-place variants, these don't allocate */
+
+    public Quaternion set(float w, float x, float y, float z){
+        this.w = w;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /** out = this * q, out may alias either operand */
+    public Quaternion mul(Quaternion q, Quaternion out){
+        final float qx = this.w * q.x + this.x * q.w + this.y * q.z - this.z * q.y;
+        final float qy = this.w * q.y + this.y * q.w + this.z * q.x - this.x * q.z;
+        final float qz = this.w * q.z + this.z * q.w + this.x * q.y - this.y * q.x;
+        final float qw = this.w * q.w - this.x * q.x - this.y * q.y - this.z * q.z;
+
+        return out.set(qw,qx,qy,qz);
+    }
+
+    /** out = conjugate of this (the inverse for unit quaternions), out may alias this */
+    public Quaternion conjugate(Quaternion out){
+        return out.set(w,-x,-y,-z);
+    }
+
+    /** rotates v[off..off+2] by this (unit) quaternion into out[outOff..outOff+2], may alias */
+    public void rotate(float[] v, int off, float[] out, int outOff){
+        // t = 2 * cross(q.xyz, v); v' = v + w * t + cross(q.xyz, t)
+        final float vx = v[off], vy = v[off+1], vz = v[off+2];
+        final float tx = 2 * (y * vz - z * vy);
+        final float ty = 2 * (z * vx - x * vz);
+        final float tz = 2 * (x * vy - y * vx);
+        out[outOff]   = vx + w * tx + (y * tz - z * ty);
+        out[outOff+1] = vy + w * ty + (z * tx - x * tz);
+        out[outOff+2] = vz + w * tz + (x * ty - y * tx);
+    }
+
+    public float norm(){
+        return (float)Math.sqrt(x*x+y*y+z*z+w*w);
+    }
+
+    public void normalize(){
+        float s = norm();
+        w /= s;
+        x /= s;
+        y /= s;
+        z /= s;
+    }
+}
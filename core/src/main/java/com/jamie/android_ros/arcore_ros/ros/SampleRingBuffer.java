@@ -0,0 +1,166 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer / single-consumer ring buffer of timestamped float samples.
+ *
+ * The producer (a sensor callback) copies values into preallocated storage and never blocks;
+ * the consumer (the publish thread) only sees a sample once it has been completely written.
+ * When the buffer is full, new samples are rejected and counted rather than overwriting ones the
+ * consumer has not read yet.
+ */
+public class SampleRingBuffer {
+    private final int capacity;
+    private final int mask;
+    private final int width;
+
+    private final long[] timestamps;
+    private final float[] values;
+
+    // next slot to write (producer) / read (consumer)
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    // producer-side cache of head, avoids a volatile read per sample
+    private long headCache;
+    private boolean full;
+
+    private volatile long dropped;
+    private volatile long overruns;
+
+    /**
+     * @param capacity number of samples, rounded up to a power of two
+     * @param width number of floats per sample
+     */
+    public SampleRingBuffer(int capacity, int width) {
+        int c = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.capacity = c;
+        this.mask = c - 1;
+        this.width = width;
+        this.timestamps = new long[c];
+        this.values = new float[c * width];
+    }
+
+    /* Producer side */
+
+    /**
+     * Copies a sample into the buffer. Extra values beyond the buffer width are ignored, missing
+     * ones are zero-filled.
+     * @return false if the buffer was full and the sample was dropped
+     */
+    public boolean offer(long timestamp, float[] v) {
+        long t = tail.get();
+        if (t - headCache >= capacity) {
+            headCache = head.get();
+            if (t - headCache >= capacity) {
+                if (!full) {
+                    full = true;
+                    overruns = overruns + 1;
+                }
+                dropped = dropped + 1;
+                return false;
+            }
+        }
+        full = false;
+
+        int slot = (int) (t & mask);
+        int n = Math.min(width, v.length);
+        int base = slot * width;
+        System.arraycopy(v, 0, values, base, n);
+        for (int i = n; i < width; ++i) {
+            values[base + i] = 0f;
+        }
+        timestamps[slot] = timestamp;
+
+        // ordered store publishes the sample to the consumer
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /* Consumer side */
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /** @return timestamp of the oldest unread sample, or -1 if empty */
+    public long peekTimestamp() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return -1;
+        }
+        return timestamps[(int) (h & mask)];
+    }
+
+    /** @return timestamp of the newest unread sample, or -1 if empty */
+    public long peekLatestTimestamp() {
+        long t = tail.get();
+        if (head.get() == t) {
+            return -1;
+        }
+        return timestamps[(int) ((t - 1) & mask)];
+    }
+
+    /**
+     * Copies the oldest unread sample into {@code out} without consuming it.
+     * @return its timestamp, or -1 if empty
+     */
+    public long peek(float[] out) {
+        long h = head.get();
+        if (h == tail.get()) {
+            return -1;
+        }
+        int slot = (int) (h & mask);
+        System.arraycopy(values, slot * width, out, 0, width);
+        return timestamps[slot];
+    }
+
+    /**
+     * Copies the oldest unread sample into {@code out} and consumes it.
+     * @return its timestamp, or -1 if empty
+     */
+    public long poll(float[] out) {
+        long ts = peek(out);
+        if (ts != -1) {
+            head.lazySet(head.get() + 1);
+        }
+        return ts;
+    }
+
+    /**
+     * Consumes every unread sample, keeping only the newest in {@code out}.
+     * @return its timestamp, or -1 if empty
+     */
+    public long pollLatest(float[] out) {
+        long h = head.get();
+        long t = tail.get();
+        if (h == t) {
+            return -1;
+        }
+        head.lazySet(t - 1);
+        return poll(out);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /** Samples rejected because the buffer was full. */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /** Number of times the buffer filled up, i.e. the consumer fell behind. */
+    public long getOverruns() {
+        return overruns;
+    }
+}
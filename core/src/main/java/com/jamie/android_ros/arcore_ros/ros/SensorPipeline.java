@@ -0,0 +1,754 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.node.ConnectedNode;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Everything between the data sources and the IMU / GPS / odometry topics : sample buffers, IMU
+ * alignment, the fused odometry and GPS alignment, TF and the publish scheduling.
+ *
+ * Nothing in here depends on Android or ARCore. The app's SensorPublisher feeds it from
+ * SensorEventListener, the location callback and the frames of Session.update(); a
+ * {@link SessionReplay} feeds it from a {@link SessionLog} on a plain JVM. With a
+ * {@link TimeSource} that follows the recorded arrival times, the same input always produces the
+ * same messages.
+ *
+ * The inputs may be called from the sensor, tracking and location threads; everything else runs
+ * on the publish thread, i.e. from the scheduler.
+ */
+public class SensorPipeline implements ImuListener, FixListener, PoseListener {
+    private final TimeSource time;
+
+    // wakes the publish loop when new data arrives
+    private final PublishScheduler scheduler;
+    private int imuTopic, gpsTopic, odomTopic, magTopic, fusedTopic;
+
+    // per-topic publish limits : target rate (Hz), max latency (ms)
+    private static final double IMU_RATE = 200.0;
+    private static final long IMU_LATENCY = 5;
+    private static final double GPS_RATE = 0.0; // as fast as fixes arrive
+    private static final long GPS_LATENCY = 0;
+    private static final double ODOM_RATE = 0.0; // every tracked frame
+    private static final long ODOM_LATENCY = 0;
+    private static final double MAG_RATE = 0.0; // as configured in SensorConfig
+    private static final long MAG_LATENCY = 0;
+
+    // ROS Publishers, created in start()
+    private IMUPublisher imuPublisher;
+    private GPSPublisher gpsPublisher;
+    private OdomPublisher odomPublisher;
+    private MagneticFieldPublisher magneticFieldPublisher;
+    private GlobalPosePublisher globalPosePublisher;
+    private FusedOdomPublisher fusedOdomPublisher;
+    private volatile TFPublisher tfPublisher;
+
+    // IMU data, written by the sensor thread and drained by the publish thread
+    private static final int IMU_BUFFER_SIZE = 512; // > 1s of gyro at SENSOR_DELAY_FASTEST
+    private final SampleRingBuffer mAccelBuffer = new SampleRingBuffer(IMU_BUFFER_SIZE, 3);
+    private final SampleRingBuffer mGyroBuffer = new SampleRingBuffer(IMU_BUFFER_SIZE, 3);
+    private final SampleRingBuffer mOrientationBuffer = new SampleRingBuffer(64, 4);
+    private final SampleRingBuffer mMagBuffer = new SampleRingBuffer(64, 3);
+    private final float[] mMagneticField = new float[3]; // publish thread only
+
+    // interpolates accelerometer readings onto gyro timestamps
+    private static final long IMU_SYNC_WAIT = 50000000L; // ns
+    private final ImuSynchronizer mImuSync =
+            new ImuSynchronizer(mGyroBuffer, mAccelBuffer, IMU_SYNC_WAIT);
+
+    // latest values, publish thread only
+    private final float[] mAcceleration = new float[3]; //linear acceleration
+    private final float[] mOrientation = new float[]{1, 0, 0, 0}; // w,x,y,z
+    private final float[] mGyroscope = new float[3]; // angular velocity
+
+    // Odometry data, written by the tracking thread : position, orientation x,y,z,w, gravity in odom
+    private final SampleRingBuffer mOdomBuffer = new SampleRingBuffer(16, 10);
+    private final float[] mOdomScratch = new float[10]; // tracking thread only
+    private final float[] mTxn = new float[3]; // publish thread only
+    private final float[] mRxn = new float[4];
+    private final float[] mOdom = new float[10];
+
+    // map (ENU at the first fix) -> odom, estimated from GPS fixes; publish thread only
+    private static final long MAX_FIX_ODOM_GAP = 1000000000L; // ns between odom poses a fix is interpolated over
+    private final GpsAlignment mAlignment = new GpsAlignment();
+    private long mLastOdomStamp = -1;
+    // recent odom positions, to pair a fix with the position at its own stamp
+    private static final int ODOM_HISTORY = 64; // > 2s at 30 fps
+    private final long[] mOdomHistoryStamp = new long[ODOM_HISTORY];
+    private final float[] mOdomHistory = new float[3 * ODOM_HISTORY];
+    private int mOdomHistorySize = 0;
+    private int mOdomHistoryNext = 0;
+    private final float[] mFixTxn = new float[3];
+    private final float[] mGravity = new float[3];
+    private final float[] mMapTxn = new float[3];
+    private final float[] mMapRxn = new float[4];
+
+    // optional IMU-rate odometry : ARCore poses propagated with the IMU between frames
+    private static final int FUSION_HISTORY = 512; // IMU samples, > 1s at 400 Hz
+    private static final double FUSED_RATE = 200.0;
+    private static final long FUSED_LATENCY = 5;
+    private final FusedOdometry mFusion = new FusedOdometry(FUSION_HISTORY);
+    private volatile boolean mFuseRequested = false;
+    private volatile boolean mFusing = false; // fixed at node start
+    private volatile boolean mRawAccel = false; // accelerometer includes gravity
+    private final Quaternion mImuToDevice = new Quaternion(1, 0, 0, 0); // publish thread only
+    private boolean mImuToDeviceSet = false;
+    private final float[] mGyroDevice = new float[3];
+    private final float[] mAccelDevice = new float[3];
+
+    // "latest only" publishes a snapshot per tick, "every sample" one message per gyro sample
+    private volatile IMUPublisher.Mode mImuModeRequested = IMUPublisher.Mode.LATEST_ONLY;
+    private IMUPublisher.Mode mImuMode = IMUPublisher.Mode.LATEST_ONLY; // fixed at node start
+    private static final double IMU_BATCH_RATE = 50.0; // flushes per second in EVERY_SAMPLE
+    private static final long IMU_BATCH_LATENCY = 20;
+    // the IMU topic runs this many times slower while the device is under load
+    private volatile int mImuRateDivisor = 1;
+    private int mAppliedImuRateDivisor = 1; // publish thread only
+
+    // maps sensor, camera and fix timestamps to ROS time
+    private final ClockService mClock;
+
+    // hot-path timings, e.g. how long each topic's publish takes
+    private final LatencyMonitor mLatencies = new LatencyMonitor();
+
+    // android -> android_camera_optical : ARCore camera axes (y up, z back) to optical (y down, z forward)
+    private static final float[] ZERO_TXN = {0, 0, 0};
+    private static final float[] OPTICAL_RXN = {1, 0, 0, 0}; // x,y,z,w
+    // android -> android_imu, read off the first tracked frame
+    private final float[] mImuTxn = new float[3];
+    private final float[] mImuRxn = new float[4];
+    private volatile boolean mImuExtrinsicKnown = false;
+
+    // bumped by the tracking thread whenever tracking stops
+    private volatile int mTrackingLosses = 0;
+    private int mHandledLosses = 0; // publish thread only
+
+    // latest GPS fix, handed over to the publish thread
+    private static final class Fix {
+        final long elapsed; // elapsed-realtime ns, 0 if unknown
+        final double latitude, longitude, altitude;
+        final float accuracy; // m, 0 if unknown
+
+        Fix(long elapsed, double latitude, double longitude, double altitude, float accuracy) {
+            this.elapsed = elapsed;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.altitude = altitude;
+            this.accuracy = accuracy;
+        }
+    }
+    private volatile Fix mPendingFix;
+
+    // ROS stamps of the data last handed to each publisher, for latency; publish thread only
+    private long mImuStamp, mMagStamp, mFixStamp;
+
+    // the publish loop is considered saturated below this idle fraction
+    private static final double BUSY_IDLE_FRACTION = 0.1;
+
+    // every input is appended here while set
+    private volatile SessionLog.Writer mLog;
+
+    // the thread in publishLoop(), if any; stop() raises the flag and waits on the latch
+    private final Object mLoopLock = new Object();
+    private volatile boolean mStopping = false;
+    private CountDownLatch mLoopExited;
+
+    public SensorPipeline() {
+        this(TimeSource.SYSTEM);
+    }
+
+    public SensorPipeline(TimeSource time) {
+        this.time = time;
+        this.scheduler = new PublishScheduler(8, time);
+        this.mClock = new ClockService(time);
+    }
+
+    /* Inputs */
+
+    @Override
+    public void onAcceleration(long stamp, float[] v) {
+        mClock.observe(ClockService.SENSOR, stamp);
+        mAccelBuffer.offer(stamp, v);
+        scheduler.signal(imuTopic);
+        SessionLog.Writer log = mLog;
+        if (log != null) {
+            log.sample(SessionLog.ACCEL, stamp, v);
+        }
+    }
+
+    @Override
+    public void onGyroscope(long stamp, float[] v) {
+        mClock.observe(ClockService.SENSOR, stamp);
+        mGyroBuffer.offer(stamp, v);
+        scheduler.signal(imuTopic);
+        if (mFusing) {
+            // the fused topic drains the IMU itself, so its rate does not follow the IMU flushes
+            scheduler.signal(fusedTopic);
+        }
+        SessionLog.Writer log = mLog;
+        if (log != null) {
+            log.sample(SessionLog.GYRO, stamp, v);
+        }
+    }
+
+    @Override
+    public void onOrientation(long stamp, float[] q) {
+        mClock.observe(ClockService.SENSOR, stamp);
+        mOrientationBuffer.offer(stamp, q);
+        SessionLog.Writer log = mLog;
+        if (log != null) {
+            log.sample(SessionLog.ORIENTATION, stamp, q);
+        }
+    }
+
+    @Override
+    public void onMagneticField(long stamp, float[] v) {
+        mClock.observe(ClockService.SENSOR, stamp);
+        mMagBuffer.offer(stamp, v);
+        scheduler.signal(magTopic);
+        SessionLog.Writer log = mLog;
+        if (log != null) {
+            log.sample(SessionLog.MAGNETIC_FIELD, stamp, v);
+        }
+    }
+
+    @Override
+    public void onFix(long elapsedNow, long stamp, double latitude, double longitude, double altitude,
+                      float accuracy) {
+        mClock.observe(ClockService.ELAPSED, elapsedNow);
+        mPendingFix = new Fix(stamp, latitude, longitude, altitude, accuracy);
+        scheduler.signal(gpsTopic);
+        SessionLog.Writer log = mLog;
+        if (log != null) {
+            log.fix(stamp, elapsedNow, latitude, longitude, altitude, accuracy);
+        }
+    }
+
+    @Override
+    public void onPose(long stamp, float[] txn, float[] rxn, float[] gravity) {
+        mClock.observe(ClockService.CAMERA, stamp);
+        System.arraycopy(txn, 0, mOdomScratch, 0, 3);
+        System.arraycopy(rxn, 0, mOdomScratch, 3, 4);
+        System.arraycopy(gravity, 0, mOdomScratch, 7, 3);
+        mOdomBuffer.offer(stamp, mOdomScratch);
+        scheduler.signal(odomTopic);
+        SessionLog.Writer log = mLog;
+        if (log != null) {
+            log.sample(SessionLog.POSE, stamp, mOdomScratch);
+        }
+    }
+
+    @Override
+    public void onTrackingLost() {
+        mTrackingLosses = mTrackingLosses + 1;
+        scheduler.signal(odomTopic);
+        SessionLog.Writer log = mLog;
+        if (log != null) {
+            log.event(SessionLog.TRACKING_LOST, false);
+        }
+    }
+
+    /** android -> android_imu */
+    @Override
+    public void setImuExtrinsic(float[] txn, float[] rxn) {
+        System.arraycopy(txn, 0, mImuTxn, 0, 3);
+        System.arraycopy(rxn, 0, mImuRxn, 0, 4);
+        mImuExtrinsicKnown = true;
+        TFPublisher tf = tfPublisher;
+        if (tf != null) {
+            tf.setStatic(Frames.DEVICE, Frames.IMU, mImuTxn, mImuRxn);
+        }
+        SessionLog.Writer log = mLog;
+        if (log != null) {
+            float[] v = new float[7];
+            System.arraycopy(txn, 0, v, 0, 3);
+            System.arraycopy(rxn, 0, v, 3, 4);
+            log.sample(SessionLog.IMU_EXTRINSIC, 0, v);
+        }
+    }
+
+    @Override
+    public boolean isImuExtrinsicKnown() {
+        return mImuExtrinsicKnown;
+    }
+
+    @Override
+    public void setRawAccelerometer(boolean raw) {
+        mRawAccel = raw;
+        SessionLog.Writer log = mLog;
+        if (log != null) {
+            log.event(SessionLog.RAW_ACCEL, raw);
+        }
+    }
+
+    /** Appends every input to {@code log}; null to stop. */
+    public void setLog(SessionLog.Writer log) {
+        mLog = log;
+        if (log != null) {
+            // state set before the log was attached
+            log.event(SessionLog.RAW_ACCEL, mRawAccel);
+            if (mImuExtrinsicKnown) {
+                float[] v = new float[7];
+                System.arraycopy(mImuTxn, 0, v, 0, 3);
+                System.arraycopy(mImuRxn, 0, v, 3, 4);
+                log.sample(SessionLog.IMU_EXTRINSIC, 0, v);
+            }
+        }
+    }
+
+    /* Publish thread : drain buffered samples into the messages */
+    private boolean publishImu() {
+        int divisor = mImuRateDivisor;
+        if (divisor != mAppliedImuRateDivisor) {
+            mAppliedImuRateDivisor = divisor;
+            boolean everySample = mImuMode == IMUPublisher.Mode.EVERY_SAMPLE;
+            scheduler.setTargetRate(imuTopic, (everySample ? IMU_BATCH_RATE : IMU_RATE) / divisor);
+            scheduler.setMaxLatency(imuTopic, (everySample ? IMU_BATCH_LATENCY : IMU_LATENCY) * divisor);
+        }
+        drainImu();
+        return published(imuTopic, imuPublisher.publish(), mImuStamp);
+    }
+
+    /**
+     * Moves the aligned IMU samples into the IMU message(s) and the fused odometry. Called by both
+     * the IMU and the fused topic, whichever runs first.
+     */
+    private void drainImu() {
+        // gyro samples with the accelerometer interpolated to the same instant
+        boolean everySample = mImuMode == IMUPublisher.Mode.EVERY_SAMPLE;
+        long t, last = -1;
+        while ((t = mImuSync.next(mGyroscope, mAcceleration)) != -1) {
+            while (mOrientationBuffer.peekTimestamp() != -1 && mOrientationBuffer.peekTimestamp() <= t) {
+                mOrientationBuffer.poll(mOrientation);
+            }
+            if (everySample) {
+                long stamp = mClock.toRos(ClockService.SENSOR, t);
+                if (imuPublisher.add(stamp, mAcceleration, mGyroscope, mOrientation) && imuPublisher.publish()) {
+                    recordLatency(imuTopic, stamp);
+                }
+            }
+            if (mFusing) {
+                fuse(t);
+            }
+            last = t;
+        }
+        if (last != -1) {
+            mImuStamp = mClock.toRos(ClockService.SENSOR, last);
+            if (!everySample) {
+                // only the newest aligned sample goes out
+                imuPublisher.update(mImuStamp, mAcceleration, mGyroscope, mOrientation);
+            }
+        }
+    }
+
+    /** Records the latency of a message stamped {@code stamp} if it went out. */
+    private boolean published(int topic, boolean sent, long stamp) {
+        if (sent) {
+            recordLatency(topic, stamp);
+        }
+        return sent;
+    }
+
+    private void recordLatency(int topic, long stamp) {
+        scheduler.recordLatency(topic, mClock.now() - stamp);
+    }
+
+    private void fuse(long t) {
+        if (!mImuToDeviceSet) {
+            if (!mImuExtrinsicKnown) {
+                return;
+            }
+            mImuToDevice.set(mImuRxn[3], mImuRxn[0], mImuRxn[1], mImuRxn[2]);
+            mImuToDeviceSet = true;
+        }
+        // the IMU is a few cm from the camera; the lever arm is ignored
+        mImuToDevice.rotate(mGyroscope, 0, mGyroDevice, 0);
+        mImuToDevice.rotate(mAcceleration, 0, mAccelDevice, 0);
+        mFusion.propagate(mClock.toRos(ClockService.SENSOR, t), mGyroDevice, mAccelDevice);
+    }
+
+    private boolean publishFused() {
+        drainImu();
+        return published(fusedTopic, fusedOdomPublisher.publish(mFusion), mFusion.getTime());
+    }
+
+    private boolean publishMagneticField() {
+        long t = mMagBuffer.pollLatest(mMagneticField);
+        if (t != -1) {
+            mMagStamp = mClock.toRos(ClockService.SENSOR, t);
+            magneticFieldPublisher.update(mMagStamp, mMagneticField);
+        }
+        return published(magTopic, magneticFieldPublisher.publish(), mMagStamp);
+    }
+
+    private boolean publishGps() {
+        Fix fix = mPendingFix;
+        if (fix != null) {
+            mPendingFix = null;
+            long stamp = fix.elapsed != 0 ? mClock.toRos(ClockService.ELAPSED, fix.elapsed) : mClock.now();
+            mFixStamp = stamp;
+            gpsPublisher.update(stamp, fix.latitude, fix.longitude, fix.altitude, fix.accuracy);
+            if (fix.accuracy > 0 && odomPositionAt(stamp, mFixTxn)) {
+                // O(1) per fix; the map -> odom transform goes out with the next odometry
+                mAlignment.addFix(fix.latitude, fix.longitude, fix.altitude, fix.accuracy, mFixTxn, mGravity);
+            }
+        }
+        return published(gpsTopic, gpsPublisher.publish(), mFixStamp);
+    }
+
+    /**
+     * Odom position at {@code stamp}, interpolated between the two poses around it. A stamp past
+     * the newest pose gets that pose, if it is recent enough.
+     * @return false if the history does not cover {@code stamp}
+     */
+    private boolean odomPositionAt(long stamp, float[] out) {
+        int newer = -1;
+        for (int k = 0; k < mOdomHistorySize; ++k) {
+            int i = (mOdomHistoryNext - 1 - k + ODOM_HISTORY) % ODOM_HISTORY;
+            long t = mOdomHistoryStamp[i];
+            if (t > stamp) {
+                newer = i;
+                continue;
+            }
+            if (newer == -1) {
+                if (stamp - t >= MAX_FIX_ODOM_GAP) {
+                    return false;
+                }
+                System.arraycopy(mOdomHistory, 3 * i, out, 0, 3);
+                return true;
+            }
+            long t1 = mOdomHistoryStamp[newer];
+            if (t1 - t >= MAX_FIX_ODOM_GAP) {
+                return false; // tracking gap
+            }
+            float a = (float) ((double) (stamp - t) / (t1 - t));
+            for (int j = 0; j < 3; ++j) {
+                float p0 = mOdomHistory[3 * i + j];
+                out[j] = p0 + a * (mOdomHistory[3 * newer + j] - p0);
+            }
+            return true;
+        }
+        return false; // older than the history
+    }
+
+    private boolean publishOdom() {
+        int losses = mTrackingLosses;
+        if (losses != mHandledLosses) {
+            mHandledLosses = losses;
+            odomPublisher.onTrackingLost();
+            mOdomHistorySize = 0;
+            if (mFusing) {
+                mFusion.reset();
+            }
+        }
+        TFPublisher tf = tfPublisher;
+        long t = mOdomBuffer.pollLatest(mOdom);
+        if (t != -1) {
+            System.arraycopy(mOdom, 0, mTxn, 0, 3);
+            System.arraycopy(mOdom, 3, mRxn, 0, 4);
+            long stamp = mClock.toRos(ClockService.CAMERA, t);
+            odomPublisher.update(stamp, mTxn, mRxn);
+            mLastOdomStamp = stamp;
+            mOdomHistoryStamp[mOdomHistoryNext] = stamp;
+            System.arraycopy(mTxn, 0, mOdomHistory, 3 * mOdomHistoryNext, 3);
+            mOdomHistoryNext = (mOdomHistoryNext + 1) % ODOM_HISTORY;
+            mOdomHistorySize = Math.min(mOdomHistorySize + 1, ODOM_HISTORY);
+            System.arraycopy(mOdom, 7, mGravity, 0, 3);
+            if (mAlignment.isValid()) {
+                mAlignment.getTranslation(mMapTxn);
+                mAlignment.getRotation(mMapRxn);
+                if (tf != null) {
+                    tf.update(Frames.MAP, Frames.ODOM, stamp, mMapTxn, mMapRxn);
+                }
+                globalPosePublisher.publish(mAlignment, stamp, mTxn, mRxn);
+            }
+            if (mFusing) {
+                if (mRawAccel) {
+                    mFusion.setGravity(mOdom[7], mOdom[8], mOdom[9]);
+                } else {
+                    mFusion.setGravity(0, 0, 0);
+                }
+                mFusion.correct(stamp, mTxn, mRxn);
+                scheduler.signal(fusedTopic);
+            }
+            if (tf != null) {
+                tf.update(Frames.ODOM, Frames.DEVICE, stamp, mTxn, mRxn);
+            }
+        }
+        if (tf != null) {
+            // all transforms of this tick go out in one TFMessage
+            tf.publish();
+        }
+        return published(odomTopic, odomPublisher.publish(), mLastOdomStamp);
+    }
+
+    /* Lifecycle */
+
+    /**
+     * Creates the publishers and registers their topics; the caller then runs {@link #publishLoop()}
+     * on its publish thread. A loop still running from the previous start is stopped first.
+     */
+    public void start(ConnectedNode connectedNode) {
+        stopLoop();
+        mStopping = false;
+        mImuMode = IMUPublisher.parseMode(connectedNode.getParameterTree().getString("~imu_mode", ""),
+                mImuModeRequested);
+        imuPublisher = new IMUPublisher(connectedNode, mImuMode);
+        gpsPublisher = new GPSPublisher(connectedNode);
+        odomPublisher = new OdomPublisher(connectedNode);
+        globalPosePublisher = new GlobalPosePublisher(connectedNode);
+        magneticFieldPublisher = new MagneticFieldPublisher(connectedNode);
+        mFusing = connectedNode.getParameterTree().getBoolean("~fused_odometry", mFuseRequested);
+        if (mFusing) {
+            fusedOdomPublisher = new FusedOdomPublisher(connectedNode);
+        }
+        TFPublisher tf = new TFPublisher(connectedNode);
+        tf.setStatic(Frames.DEVICE, Frames.CAMERA_OPTICAL, ZERO_TXN, OPTICAL_RXN);
+        tfPublisher = tf;
+        if (mImuExtrinsicKnown) {
+            tf.setStatic(Frames.DEVICE, Frames.IMU, mImuTxn, mImuRxn);
+        }
+
+        // a restarted node registers its topics again
+        scheduler.clear();
+        mAppliedImuRateDivisor = 1;
+        imuTopic = scheduler.register("android/imu", new PublishScheduler.Task() {
+            @Override
+            public boolean publish() {
+                return publishImu();
+            }
+        }, mImuMode == IMUPublisher.Mode.EVERY_SAMPLE ? IMU_BATCH_RATE : IMU_RATE,
+                mImuMode == IMUPublisher.Mode.EVERY_SAMPLE ? IMU_BATCH_LATENCY : IMU_LATENCY);
+        gpsTopic = scheduler.register("android/gps", new PublishScheduler.Task() {
+            @Override
+            public boolean publish() {
+                return publishGps();
+            }
+        }, GPS_RATE, GPS_LATENCY);
+        odomTopic = scheduler.register("android/odom", new PublishScheduler.Task() {
+            @Override
+            public boolean publish() {
+                return publishOdom();
+            }
+        }, ODOM_RATE, ODOM_LATENCY);
+        magTopic = scheduler.register("android/magnetic_field", new PublishScheduler.Task() {
+            @Override
+            public boolean publish() {
+                return publishMagneticField();
+            }
+        }, MAG_RATE, MAG_LATENCY);
+        if (mFusing) {
+            fusedTopic = scheduler.register("android/odom/fused", new PublishScheduler.Task() {
+                @Override
+                public boolean publish() {
+                    return publishFused();
+                }
+            }, FUSED_RATE, FUSED_LATENCY);
+        }
+        for (int topic = 0; topic < scheduler.size(); ++topic) {
+            scheduler.setPublishHistogram(topic, mLatencies.histogram(scheduler.getName(topic) + " publish"));
+        }
+    }
+
+    /** Returns once the publish loop, if any, has exited. */
+    public void stop() {
+        stopLoop();
+        tfPublisher = null;
+    }
+
+    /**
+     * Runs the scheduler on the calling thread until {@link #stop()}, the next {@link #start} or an
+     * interrupt. The rings are single-consumer, so only one thread may run it at a time.
+     */
+    public void publishLoop() throws InterruptedException {
+        CountDownLatch exited = new CountDownLatch(1);
+        synchronized (mLoopLock) {
+            if (mStopping) {
+                return;
+            }
+            if (mLoopExited != null) {
+                throw new IllegalStateException("The publish loop is already running");
+            }
+            mLoopExited = exited;
+        }
+        try {
+            while (!mStopping) {
+                scheduler.runOnce();
+            }
+        } finally {
+            synchronized (mLoopLock) {
+                mLoopExited = null;
+            }
+            exited.countDown();
+        }
+    }
+
+    private void stopLoop() {
+        CountDownLatch exited;
+        synchronized (mLoopLock) {
+            mStopping = true;
+            exited = mLoopExited;
+        }
+        if (exited == null) {
+            return;
+        }
+        scheduler.wake();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                exited.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Also writes every message the pipeline publishes, /tf_static aside, to {@code recorder};
+     * after {@link #start}.
+     */
+    public void setRecorder(MessageSink recorder) {
+        imuPublisher.setRecorder(recorder);
+        gpsPublisher.setRecorder(recorder);
+        odomPublisher.setRecorder(recorder);
+        magneticFieldPublisher.setRecorder(recorder);
+        globalPosePublisher.setRecorder(recorder);
+        if (fusedOdomPublisher != null) {
+            fusedOdomPublisher.setRecorder(recorder);
+        }
+        TFPublisher tf = tfPublisher;
+        if (tf != null) {
+            tf.setRecorder(recorder);
+        }
+    }
+
+    /**
+     * Adds a status per topic, and one for the publish loop, to {@code diagnostics}; after
+     * {@link #start}. The reports read counters only, from the diagnostics loop.
+     */
+    public void addDiagnostics(DiagnosticsPublisher diagnostics) {
+        diagnostics.add("publish loop", new DiagnosticsPublisher.Source() {
+            @Override
+            public void report(DiagnosticsPublisher.Status status) {
+                double idle = scheduler.getIdleFraction();
+                status.put("idle fraction", idle);
+                status.put("tracking losses", mTrackingLosses);
+                for (int source = ClockService.SENSOR; source <= ClockService.ELAPSED; ++source) {
+                    status.put(ClockService.sourceName(source) + " clock drift (ppm)", mClock.getDriftPpm(source));
+                }
+                if (idle < BUSY_IDLE_FRACTION) {
+                    status.warn("publish thread saturated");
+                }
+            }
+        });
+        addTopicDiagnostics(diagnostics, imuTopic, mGyroBuffer, mAccelBuffer, mOrientationBuffer);
+        addTopicDiagnostics(diagnostics, gpsTopic);
+        addTopicDiagnostics(diagnostics, odomTopic, mOdomBuffer);
+        addTopicDiagnostics(diagnostics, magTopic, mMagBuffer);
+        if (mFusing) {
+            addTopicDiagnostics(diagnostics, fusedTopic);
+        }
+    }
+
+    /** @param buffers the sample buffers feeding the topic, for queue depth and drops */
+    private void addTopicDiagnostics(DiagnosticsPublisher diagnostics, final int topic,
+                                     final SampleRingBuffer... buffers) {
+        diagnostics.add(scheduler.getName(topic), new DiagnosticsPublisher.Source() {
+            private long lastDropped;
+
+            @Override
+            public void report(DiagnosticsPublisher.Status status) {
+                status.put("rate (Hz)", scheduler.getAchievedRate(topic));
+                status.put("latency mean (ms)", scheduler.getMeanLatencyNanos(topic) / 1e6);
+                status.put("latency max (ms)", scheduler.getMaxLatencyNanos(topic) / 1e6);
+                if (buffers.length == 0) {
+                    return;
+                }
+                int depth = 0;
+                long dropped = 0;
+                for (SampleRingBuffer b : buffers) {
+                    depth += b.size();
+                    dropped += b.getDropped();
+                }
+                status.put("queue depth", depth);
+                status.put("dropped", dropped);
+                if (dropped > lastDropped) {
+                    status.warn((dropped - lastDropped) + " samples dropped");
+                }
+                lastDropped = dropped;
+            }
+        });
+    }
+
+    /**
+     * Runs the IMU topic {@code divisor} times slower; 1 is the default. In LATEST_ONLY that many
+     * times fewer snapshots go out. In EVERY_SAMPLE every sample still goes out and only the
+     * flushes thin out, and no further than one full batch (the rosjava queue) per flush, e.g. 25
+     * flushes per second for a 400 Hz gyroscope. Takes effect with the next IMU publish. The fused
+     * odometry drains the IMU on its own schedule and keeps its rate.
+     */
+    public void setImuRateDivisor(int divisor) {
+        mImuRateDivisor = Math.max(1, divisor);
+    }
+
+    /* Configuration, takes effect on the next start */
+
+    /** Overridden by the ~imu_mode parameter. */
+    public void setImuMode(IMUPublisher.Mode mode) {
+        mImuModeRequested = mode;
+    }
+
+    /** Publishes IMU-rate fused odometry on android/odom/fused. */
+    public void setFusedOdometry(boolean enabled) {
+        mFuseRequested = enabled;
+    }
+
+    /** Whether the publish thread hardly slept over the last second. */
+    public boolean isPublishLoopSaturated() {
+        return scheduler.getIdleFraction() < BUSY_IDLE_FRACTION;
+    }
+
+    public TimeSource getTimeSource() {
+        return time;
+    }
+
+    public PublishScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public ClockService getClock() {
+        return mClock;
+    }
+
+    public LatencyMonitor getLatencies() {
+        return mLatencies;
+    }
+
+    public FusedOdometry getFusedOdometry() {
+        return mFusion;
+    }
+
+    public GpsAlignment getGpsAlignment() {
+        return mAlignment;
+    }
+
+    public TFPublisher getTfPublisher() {
+        return tfPublisher;
+    }
+
+    public SampleRingBuffer getAccelBuffer() {
+        return mAccelBuffer;
+    }
+
+    public SampleRingBuffer getGyroBuffer() {
+        return mGyroBuffer;
+    }
+
+    public SampleRingBuffer getOdomBuffer() {
+        return mOdomBuffer;
+    }
+}
@@ -0,0 +1,326 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Binary log of everything that enters a {@link SensorPipeline} : IMU samples, orientation, ARCore
+ * poses, fixes and tracking losses, each with the monotonic time at which it arrived. Replaying
+ * it through {@link SessionReplay} reproduces the pipeline's input exactly.
+ *
+ * Layout (big endian) : magic, version, start monotonic ns, start wall ns, then records of
+ * kind (byte), arrival ns, source stamp ns and a payload that depends on the kind.
+ */
+public class SessionLog {
+    private static final byte[] MAGIC = {'A', 'R', 'S', 'L', 'O', 'G'};
+    private static final short VERSION = 1;
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    public static final byte ACCEL = 1;           // 3 floats, m/s^2
+    public static final byte GYRO = 2;            // 3 floats, rad/s
+    public static final byte ORIENTATION = 3;     // 4 floats, w,x,y,z in ENU
+    public static final byte MAGNETIC_FIELD = 4;  // 3 floats, uT
+    public static final byte POSE = 5;            // 10 floats : txn, rxn x,y,z,w, gravity in odom
+    public static final byte FIX = 6;             // elapsed ns at arrival, lat, lon, alt, accuracy
+    public static final byte TRACKING_LOST = 7;   // no payload
+    public static final byte IMU_EXTRINSIC = 8;   // 7 floats : txn, rxn x,y,z,w
+    public static final byte RAW_ACCEL = 9;       // 1 byte : accelerometer includes gravity
+
+    private static int width(byte kind) {
+        switch (kind) {
+            case ACCEL:
+            case GYRO:
+            case MAGNETIC_FIELD:
+                return 3;
+            case ORIENTATION:
+                return 4;
+            case POSE:
+                return 10;
+            case IMU_EXTRINSIC:
+                return 7;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Appends records; safe from any thread and never blocks on the file. Records go into a
+     * preallocated ring, under a lock held only to copy them in, and a low-priority thread writes
+     * them out, like the app's BagRecorder. When the ring is full the record is dropped and counted.
+     * Arrival times are taken under the lock, so records are in arrival order. Write errors close
+     * the log rather than reaching the callers.
+     */
+    public static class Writer implements Closeable {
+        private static final int DEFAULT_CAPACITY = 4096; // a few seconds of every sensor at full rate
+        private static final long POLL_NS = 5000000L;
+
+        private final TimeSource time;
+        private final DataOutputStream out;
+        private final Thread writer;
+        private volatile boolean running = true;
+
+        // the ring : one fixed-size record per slot, head owned by the writer, tail by the lock
+        private final int mask;
+        private final byte[] kinds;
+        private final long[] arrivals;
+        private final long[] stamps;
+        private final float[] values; // 10 per slot
+        private final long[] elapsed;
+        private final double[] coords; // latitude, longitude, altitude per slot
+        private final float[] accuracies;
+        private final boolean[] flags;
+        private volatile long head = 0;
+        private volatile long tail = 0;
+
+        private volatile long records;
+        private volatile long dropped;
+
+        public Writer(File file, TimeSource time) throws IOException {
+            this(file, time, DEFAULT_CAPACITY);
+        }
+
+        /** @param capacity records the ring holds, rounded up to a power of two */
+        public Writer(File file, TimeSource time, int capacity) throws IOException {
+            this.time = time;
+            int n = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+            mask = n - 1;
+            kinds = new byte[n];
+            arrivals = new long[n];
+            stamps = new long[n];
+            values = new float[n * 10];
+            elapsed = new long[n];
+            coords = new double[n * 3];
+            accuracies = new float[n];
+            flags = new boolean[n];
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            out.write(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(time.nanoTime());
+            out.writeLong(time.currentTimeNanos());
+            writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, "SessionLog");
+            writer.setPriority(Thread.MIN_PRIORITY);
+            writer.start();
+        }
+
+        public synchronized void sample(byte kind, long stamp, float[] v) {
+            int i = claim(kind, stamp);
+            if (i < 0) {
+                return;
+            }
+            System.arraycopy(v, 0, values, i * 10, width(kind));
+            tail = tail + 1;
+        }
+
+        public synchronized void fix(long stamp, long elapsedNow, double latitude, double longitude,
+                                     double altitude, float accuracy) {
+            int i = claim(FIX, stamp);
+            if (i < 0) {
+                return;
+            }
+            elapsed[i] = elapsedNow;
+            coords[i * 3] = latitude;
+            coords[i * 3 + 1] = longitude;
+            coords[i * 3 + 2] = altitude;
+            accuracies[i] = accuracy;
+            tail = tail + 1;
+        }
+
+        public synchronized void event(byte kind, boolean flag) {
+            int i = claim(kind, 0);
+            if (i < 0) {
+                return;
+            }
+            flags[i] = flag;
+            tail = tail + 1;
+        }
+
+        /** Fills in the common fields of the next slot; -1 if closed or full. Caller holds the lock. */
+        private int claim(byte kind, long stamp) {
+            if (!running) {
+                return -1;
+            }
+            if (tail - head > mask) {
+                ++dropped;
+                return -1;
+            }
+            int i = (int) tail & mask;
+            kinds[i] = kind;
+            arrivals[i] = time.nanoTime();
+            stamps[i] = stamp;
+            return i;
+        }
+
+        /** Records written to the file so far. */
+        public long getRecords() {
+            return records;
+        }
+
+        /** Records lost because the writer fell a full ring behind. */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /** Writes out what is queued and closes the file. */
+        @Override
+        public void close() {
+            running = false;
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /* Writer thread */
+
+        private void writeLoop() {
+            try {
+                while (running || head != tail) {
+                    if (head == tail) {
+                        out.flush();
+                        LockSupport.parkNanos(POLL_NS);
+                        continue;
+                    }
+                    write((int) head & mask);
+                    head = head + 1;
+                    ++records;
+                }
+            } catch (IOException e) {
+                running = false;
+            } finally {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing left to do
+                }
+            }
+        }
+
+        private void write(int i) throws IOException {
+            byte kind = kinds[i];
+            out.writeByte(kind);
+            out.writeLong(arrivals[i]);
+            out.writeLong(stamps[i]);
+            switch (kind) {
+                case FIX:
+                    out.writeLong(elapsed[i]);
+                    out.writeDouble(coords[i * 3]);
+                    out.writeDouble(coords[i * 3 + 1]);
+                    out.writeDouble(coords[i * 3 + 2]);
+                    out.writeFloat(accuracies[i]);
+                    break;
+                case RAW_ACCEL:
+                    out.writeBoolean(flags[i]);
+                    break;
+                default:
+                    for (int k = 0, n = width(kind); k < n; ++k) {
+                        out.writeFloat(values[i * 10 + k]);
+                    }
+            }
+        }
+    }
+
+    /** One record, reused by {@link Reader#next}. */
+    public static class Event {
+        public byte kind;
+        public long arrival; // monotonic ns
+        public long stamp;   // source ns
+        public final float[] values = new float[10];
+        public long elapsedNow;
+        public double latitude, longitude, altitude;
+        public float accuracy;
+        public boolean flag;
+    }
+
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startTime;
+        private final long startWallTime;
+
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            short version = in.readShort();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                in.close();
+                throw new IOException("Not a session log : " + file);
+            }
+            startTime = in.readLong();
+            startWallTime = in.readLong();
+        }
+
+        /** Monotonic time at which the log was opened. */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /** Wall-clock time at which the log was opened, ns since the epoch. */
+        public long getStartWallTime() {
+            return startWallTime;
+        }
+
+        /**
+         * Reads the next record into {@code e}.
+         * @return false at the end of the log, including a record cut short by a crash
+         */
+        public boolean next(Event e) throws IOException {
+            try {
+                e.kind = in.readByte();
+                e.arrival = in.readLong();
+                e.stamp = in.readLong();
+                switch (e.kind) {
+                    case FIX:
+                        e.elapsedNow = in.readLong();
+                        e.latitude = in.readDouble();
+                        e.longitude = in.readDouble();
+                        e.altitude = in.readDouble();
+                        e.accuracy = in.readFloat();
+                        break;
+                    case RAW_ACCEL:
+                        e.flag = in.readBoolean();
+                        break;
+                    case TRACKING_LOST:
+                        break;
+                    default:
+                        int n = width(e.kind);
+                        if (n == 0) {
+                            throw new IOException("Unknown record kind " + e.kind);
+                        }
+                        for (int i = 0; i < n; ++i) {
+                            e.values[i] = in.readFloat();
+                        }
+                }
+                return true;
+            } catch (EOFException eof) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.RosCore;
+import org.ros.address.InetAddressFactory;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.DefaultNodeMainExecutor;
+import org.ros.node.NodeConfiguration;
+import org.ros.node.NodeMainExecutor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link SessionLog} back through a {@link SensorPipeline}, on a plain JVM.
+ *
+ * The pipeline runs on a {@link TimeSource} that follows the recorded arrival times, and the
+ * scheduler is dispatched at exactly the times its topics fall due, all on one thread. The
+ * messages therefore only depend on the log, whatever the replay speed :
+ * {@code speed} 1 is real time, larger values are faster, and 0 runs at full throughput.
+ *
+ * Per event, the wall-clock time spent in the pipeline is measured, and in paced replays how late
+ * the event was delivered, so that latency and throughput can be compared between builds.
+ *
+ * Messages on the wire are serialized later by rosjava, from pooled messages that a fast replay
+ * may already have rewritten. To compare the output of two runs, capture it with a
+ * {@link MessageCapture} (--capture), which serializes every message as it is published.
+ *
+ *     java ... SessionReplay session.slog [--speed 4 | --max] [--master http://host:11311]
+ *                                        [--fused] [--every-sample] [--capture out.bin]
+ *
+ * Without --master, a private ROS core is started in process.
+ */
+public class SessionReplay extends AbstractNodeMain {
+
+    /** Virtual time, set by the replay thread to the arrival time of the current event. */
+    private static class ReplayTime implements TimeSource {
+        private final long wallAnchor;
+        private final long monoAnchor;
+        private volatile long now;
+
+        ReplayTime(long monoAnchor, long wallAnchor) {
+            this.monoAnchor = monoAnchor;
+            this.wallAnchor = wallAnchor;
+            this.now = monoAnchor;
+        }
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public long currentTimeNanos() {
+            return wallAnchor + (now - monoAnchor);
+        }
+    }
+
+    private final File file;
+    private final double speed;
+    private final SessionLog.Reader reader;
+    private final ReplayTime time;
+    private final SensorPipeline pipeline;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private MessageSink capture;
+
+    // results, written by the replay thread before done is released
+    private long events;
+    private long wallNs;
+    private long totalCostNs;
+    private long maxCostNs;
+    private long maxLagNs;
+    private IOException error;
+
+    // scratch for the inputs
+    private final SessionLog.Event event = new SessionLog.Event();
+    private final float[] txn = new float[3];
+    private final float[] rxn = new float[4];
+    private final float[] gravity = new float[3];
+
+    /** @param speed replay rate relative to real time, 0 for as fast as possible */
+    public SessionReplay(File file, double speed) throws IOException {
+        this.file = file;
+        this.speed = speed;
+        this.reader = new SessionLog.Reader(file);
+        this.time = new ReplayTime(reader.getStartTime(), reader.getStartWallTime());
+        this.pipeline = new SensorPipeline(time);
+    }
+
+    /** Configure before the node starts. */
+    public SensorPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /** Also hands every published message to {@code capture}, on the replay thread; before the node starts. */
+    public void setCapture(MessageSink capture) {
+        this.capture = capture;
+    }
+
+    @Override
+    public GraphName getDefaultNodeName() {
+        return GraphName.of("android_sensors");
+    }
+
+    @Override
+    public void onStart(final ConnectedNode connectedNode) {
+        connectedNode.getScheduledExecutorService().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SessionReplay.this.run(connectedNode);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        });
+    }
+
+    /** Starts the pipeline on {@code connectedNode} and plays the whole log on the calling thread. */
+    public void run(ConnectedNode connectedNode) throws IOException {
+        try {
+            pipeline.start(connectedNode);
+            if (capture != null) {
+                pipeline.setRecorder(capture);
+            }
+            replay();
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // already read
+            }
+            done.countDown();
+        }
+    }
+
+    private void replay() throws IOException {
+        PublishScheduler scheduler = pipeline.getScheduler();
+        long first = -1;
+        long next = Long.MAX_VALUE; // when the next pending topic falls due
+        long wallStart = System.nanoTime();
+
+        while (reader.next(event)) {
+            long t = Math.max(event.arrival, time.now);
+            if (first == -1) {
+                first = t;
+            }
+            // topics that fell due before this event go out at their own due time
+            while (next <= t) {
+                time.now = Math.max(next, time.now);
+                next = scheduler.dispatch(time.now);
+            }
+            if (speed > 0) {
+                long target = wallStart + (long) ((t - first) / speed);
+                long wait;
+                while ((wait = target - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                maxLagNs = Math.max(maxLagNs, System.nanoTime() - target);
+            }
+
+            time.now = t;
+            long t0 = System.nanoTime();
+            deliver(event);
+            next = scheduler.dispatch(t);
+            long cost = System.nanoTime() - t0;
+            totalCostNs += cost;
+            maxCostNs = Math.max(maxCostNs, cost);
+            ++events;
+        }
+        // drain whatever is still held back by the rate limits
+        while (next != Long.MAX_VALUE) {
+            time.now = Math.max(next, time.now);
+            next = scheduler.dispatch(time.now);
+        }
+        wallNs = System.nanoTime() - wallStart;
+    }
+
+    private void deliver(SessionLog.Event e) {
+        float[] v = e.values;
+        switch (e.kind) {
+            case SessionLog.ACCEL:
+                pipeline.onAcceleration(e.stamp, v);
+                break;
+            case SessionLog.GYRO:
+                pipeline.onGyroscope(e.stamp, v);
+                break;
+            case SessionLog.ORIENTATION:
+                pipeline.onOrientation(e.stamp, v);
+                break;
+            case SessionLog.MAGNETIC_FIELD:
+                pipeline.onMagneticField(e.stamp, v);
+                break;
+            case SessionLog.POSE:
+                System.arraycopy(v, 0, txn, 0, 3);
+                System.arraycopy(v, 3, rxn, 0, 4);
+                System.arraycopy(v, 7, gravity, 0, 3);
+                pipeline.onPose(e.stamp, txn, rxn, gravity);
+                break;
+            case SessionLog.FIX:
+                pipeline.onFix(e.elapsedNow, e.stamp, e.latitude, e.longitude, e.altitude, e.accuracy);
+                break;
+            case SessionLog.TRACKING_LOST:
+                pipeline.onTrackingLost();
+                break;
+            case SessionLog.IMU_EXTRINSIC:
+                System.arraycopy(v, 0, txn, 0, 3);
+                System.arraycopy(v, 3, rxn, 0, 4);
+                pipeline.setImuExtrinsic(txn, rxn);
+                break;
+            case SessionLog.RAW_ACCEL:
+                pipeline.setRawAccelerometer(e.flag);
+                break;
+        }
+    }
+
+    /** Blocks until the whole log has been played. */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /** Set if the log could not be read to the end. */
+    public IOException getError() {
+        return error;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    /** Recorded time covered by the replay, in ns. */
+    public long getDuration() {
+        return time.now - reader.getStartTime();
+    }
+
+    public long getWallTime() {
+        return wallNs;
+    }
+
+    /** Mean wall-clock time the pipeline spent on an event, including the publishes it triggered. */
+    public double getMeanCost() {
+        return events > 0 ? (double) totalCostNs / events : 0;
+    }
+
+    public long getMaxCost() {
+        return maxCostNs;
+    }
+
+    /** Latest an event was delivered relative to the paced schedule; 0 at full throughput. */
+    public long getMaxLag() {
+        return maxLagNs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s : %d events, %.1f s recorded in %.2f s (%.0f events/s), "
+                        + "cost mean %.1f us max %.1f us, max lag %.2f ms",
+                file.getName(), events, getDuration() * 1e-9, wallNs * 1e-9,
+                wallNs > 0 ? events * 1e9 / wallNs : 0, getMeanCost() * 1e-3, maxCostNs * 1e-3,
+                maxLagNs * 1e-6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage : SessionReplay <session.slog> [--speed x | --max] "
+                    + "[--master uri] [--fused] [--every-sample] [--capture file]");
+            System.exit(2);
+        }
+        double speed = 1.0;
+        String master = null;
+        boolean fused = false;
+        boolean everySample = false;
+        File captureFile = null;
+        for (int i = 1; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--speed":
+                    speed = Double.parseDouble(args[++i]);
+                    break;
+                case "--max":
+                    speed = 0;
+                    break;
+                case "--master":
+                    master = args[++i];
+                    break;
+                case "--fused":
+                    fused = true;
+                    break;
+                case "--every-sample":
+                    everySample = true;
+                    break;
+                case "--capture":
+                    captureFile = new File(args[++i]);
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        SessionReplay replay = new SessionReplay(new File(args[0]), speed);
+        replay.getPipeline().setFusedOdometry(fused);
+        if (everySample) {
+            replay.getPipeline().setImuMode(IMUPublisher.Mode.EVERY_SAMPLE);
+        }
+        MessageCapture capture = null;
+        if (captureFile != null) {
+            capture = new MessageCapture(new FileOutputStream(captureFile));
+            replay.setCapture(capture);
+        }
+
+        RosCore core = null;
+        NodeConfiguration configuration;
+        if (master == null) {
+            core = RosCore.newPrivate();
+            core.start();
+            core.awaitStart();
+            configuration = NodeConfiguration.newPrivate(core.getUri());
+        } else {
+            String host = InetAddressFactory.newNonLoopback().getHostAddress();
+            configuration = NodeConfiguration.newPublic(host, new URI(master));
+        }
+
+        NodeMainExecutor executor = DefaultNodeMainExecutor.newDefault();
+        executor.execute(replay, configuration);
+        replay.await(Long.MAX_VALUE, TimeUnit.DAYS);
+        executor.shutdown();
+        if (core != null) {
+            core.shutdown();
+        }
+
+        if (capture != null) {
+            capture.close();
+            System.out.println(capture.getMessages() + " messages captured to " + captureFile);
+        }
+        System.out.println(replay);
+        if (replay.getError() != null) {
+            replay.getError().printStackTrace();
+            System.exit(1);
+        }
+    }
+}
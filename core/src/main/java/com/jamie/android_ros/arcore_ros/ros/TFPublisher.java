@@ -0,0 +1,160 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.message.MessageFactory;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import geometry_msgs.Transform;
+import geometry_msgs.TransformStamped;
+import tf2_msgs.TFMessage;
+
+/**
+ * Broadcasts transforms on /tf and /tf_static.
+ *
+ * Dynamic transforms are updated in place with {@link #update} and go out together, as a single
+ * TFMessage, on the next {@link #publish()}; only the ones updated since the previous tick are
+ * included. Static transforms are kept in one latched TFMessage that is republished whenever one
+ * of them is set, so late subscribers always receive the full set.
+ */
+public class TFPublisher {
+    private static final int MAX_TRANSFORMS = 4;
+    private static final int POOL_SIZE = Utilities.PUBLISHER_POOL_SIZE;
+
+    private final Publisher<TFMessage> publisher;
+    private final Publisher<TFMessage> staticPublisher;
+    private final MessageFactory messageFactory;
+
+    // dynamic transforms, publish thread only
+    private final String[] parents = new String[MAX_TRANSFORMS];
+    private final String[] children = new String[MAX_TRANSFORMS];
+    private final long[] stamps = new long[MAX_TRANSFORMS];
+    private final double[] values = new double[MAX_TRANSFORMS * 7]; // x,y,z,qx,qy,qz,qw
+    private final boolean[] dirty = new boolean[MAX_TRANSFORMS];
+    private int count;
+
+    private final TFMessage[] pool = new TFMessage[POOL_SIZE];
+    private final TransformStamped[][] poolTransforms = new TransformStamped[POOL_SIZE][MAX_TRANSFORMS];
+    private int poolIndex;
+
+    private List<TransformStamped> staticTransforms = new ArrayList<>();
+    private volatile MessageSink recorder;
+
+    public TFPublisher(ConnectedNode connectedNode) {
+        this.publisher = connectedNode.newPublisher("/tf", TFMessage._TYPE);
+        this.staticPublisher = connectedNode.newPublisher("/tf_static", TFMessage._TYPE);
+        this.staticPublisher.setLatchMode(true);
+        this.messageFactory = connectedNode.getTopicMessageFactory();
+
+        for (int i = 0; i < POOL_SIZE; ++i) {
+            pool[i] = publisher.newMessage();
+            pool[i].setTransforms(new ArrayList<TransformStamped>(MAX_TRANSFORMS));
+            for (int j = 0; j < MAX_TRANSFORMS; ++j) {
+                poolTransforms[i][j] = messageFactory.newFromType(TransformStamped._TYPE);
+            }
+        }
+    }
+
+    /**
+     * Also writes every /tf message to {@code recorder}; null to stop. The static transforms are
+     * configuration, stamped with the wall clock, and are not recorded.
+     */
+    public void setRecorder(MessageSink recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Sets the transform parent -> child at {@code stamp} (ROS nanoseconds); rxn is {x,y,z,w}.
+     * Call from the publish thread.
+     */
+    public void update(String parent, String child, long stamp, float[] txn, float[] rxn) {
+        int i = 0;
+        while (i < count && !children[i].equals(child)) {
+            ++i;
+        }
+        if (i == count) {
+            if (count == MAX_TRANSFORMS) {
+                throw new IllegalStateException("too many transforms : " + child);
+            }
+            ++count;
+            children[i] = child;
+        }
+        parents[i] = parent;
+        stamps[i] = stamp;
+        int o = i * 7;
+        values[o] = txn[0];
+        values[o + 1] = txn[1];
+        values[o + 2] = txn[2];
+        values[o + 3] = rxn[0];
+        values[o + 4] = rxn[1];
+        values[o + 5] = rxn[2];
+        values[o + 6] = rxn[3];
+        dirty[i] = true;
+    }
+
+    /** Sends every transform updated since the last call in one message. */
+    public boolean publish() {
+        TFMessage msg = pool[poolIndex];
+        TransformStamped[] transforms = poolTransforms[poolIndex];
+        List<TransformStamped> list = msg.getTransforms();
+        list.clear();
+        for (int i = 0; i < count; ++i) {
+            if (!dirty[i]) {
+                continue;
+            }
+            dirty[i] = false;
+            TransformStamped t = transforms[list.size()];
+            Utilities.setHeader(t.getHeader(), parents[i], stamps[i]);
+            t.setChildFrameId(children[i]);
+            int o = i * 7;
+            set(t.getTransform(), values[o], values[o + 1], values[o + 2],
+                    values[o + 3], values[o + 4], values[o + 5], values[o + 6]);
+            list.add(t);
+        }
+        if (list.isEmpty()) {
+            return false;
+        }
+        poolIndex = (poolIndex + 1) % POOL_SIZE;
+        publisher.publish(msg);
+        MessageSink r = recorder;
+        if (r != null) {
+            r.record(publisher.getTopicName().toString(), msg, list.get(0).getHeader().getStamp().totalNsecs());
+        }
+        return true;
+    }
+
+    /** Sets a fixed transform parent -> child and republishes all static transforms; rxn is {x,y,z,w}. */
+    public synchronized void setStatic(String parent, String child, float[] txn, float[] rxn) {
+        // rarely called : a fresh message and transform, so nothing already queued is modified
+        TransformStamped t = messageFactory.newFromType(TransformStamped._TYPE);
+        Utilities.setHeader(t.getHeader(), parent);
+        t.setChildFrameId(child);
+        set(t.getTransform(), txn[0], txn[1], txn[2], rxn[0], rxn[1], rxn[2], rxn[3]);
+
+        List<TransformStamped> list = new ArrayList<>(staticTransforms.size() + 1);
+        for (TransformStamped s : staticTransforms) {
+            if (!s.getChildFrameId().equals(child)) {
+                list.add(s);
+            }
+        }
+        list.add(t);
+        staticTransforms = list;
+
+        TFMessage msg = staticPublisher.newMessage();
+        msg.setTransforms(list);
+        staticPublisher.publish(msg);
+    }
+
+    private static void set(Transform t, double x, double y, double z,
+                            double qx, double qy, double qz, double qw) {
+        t.getTranslation().setX(x);
+        t.getTranslation().setY(y);
+        t.getTranslation().setZ(z);
+        t.getRotation().setX(qx);
+        t.getRotation().setY(qy);
+        t.getRotation().setZ(qz);
+        t.getRotation().setW(qw);
+    }
+}
@@ -0,0 +1,26 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/**
+ * Where {@link ClockService} and {@link PublishScheduler} read the time. On the device this is
+ * {@link #SYSTEM}; a replay substitutes the recorded arrival times, which makes the publish
+ * pipeline deterministic.
+ */
+public interface TimeSource {
+    /** Monotonic time in nanoseconds, as {@link System#nanoTime()}. */
+    long nanoTime();
+
+    /** Wall-clock time in nanoseconds since the epoch; only read to anchor ROS time. */
+    long currentTimeNanos();
+
+    TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentTimeNanos() {
+            return System.currentTimeMillis() * 1000000L;
+        }
+    };
+}
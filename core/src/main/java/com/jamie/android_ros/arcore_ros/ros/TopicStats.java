@@ -0,0 +1,64 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publish rate and stamp latency of a topic that is published outside the
+ * {@link PublishScheduler}, e.g. from the camera frame or an encoder thread. Reported with the
+ * same keys as the scheduled topics, over the interval since the previous report.
+ *
+ * {@link #published(long)} may be called from any number of threads; it is a few atomic updates
+ * and allocates nothing.
+ */
+public class TopicStats implements DiagnosticsPublisher.Source {
+    private final TimeSource time;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong latencySum = new AtomicLong();
+    private final AtomicLong latencyMax = new AtomicLong(); // since the previous report
+
+    // diagnostics loop only
+    private long lastCount;
+    private long lastLatencySum;
+    private long lastReportNs = -1;
+
+    public TopicStats() {
+        this(TimeSource.SYSTEM);
+    }
+
+    public TopicStats(TimeSource time) {
+        this.time = time;
+    }
+
+    /** @param latencyNs ROS time at publish minus the message stamp */
+    public void published(long latencyNs) {
+        count.incrementAndGet();
+        latencySum.addAndGet(latencyNs);
+        long m = latencyMax.get();
+        while (latencyNs > m && !latencyMax.compareAndSet(m, latencyNs)) {
+            m = latencyMax.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public void report(DiagnosticsPublisher.Status status) {
+        long now = time.nanoTime();
+        long max = latencyMax.getAndSet(0);
+        long n = count.get();
+        long sum = latencySum.get();
+        if (lastReportNs >= 0 && now > lastReportNs) {
+            long dn = n - lastCount;
+            status.put("rate (Hz)", dn * 1e9 / (now - lastReportNs));
+            status.put("latency mean (ms)", dn > 0 ? (sum - lastLatencySum) / (double) dn / 1e6 : 0.0);
+            status.put("latency max (ms)", max / 1e6);
+        }
+        status.put("count", n);
+        lastCount = n;
+        lastLatencySum = sum;
+        lastReportNs = now;
+    }
+}
@@ -0,0 +1,37 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.ros.message.Time;
+
+import std_msgs.Header;
+
+/**
+ * Created by jamiecho on 2/4/17.
+ */
+
+public class Utilities {
+    // rosjava queues up to this many messages per publisher until they are serialized, and drops
+    // the oldest beyond that
+    public static final int PUBLISHER_QUEUE_SIZE = 16;
+    // messages a publisher rotates through so that none is rewritten while rosjava still holds
+    // it : a full queue, the one being serialized and the one being filled
+    public static final int PUBLISHER_POOL_SIZE = PUBLISHER_QUEUE_SIZE + 2;
+
+    public static void setHeader(Header h, String frame){
+        // utility function to populate the header
+        // timestamp obtained by curret time
+        // frame-id is all going to be "android"
+        h.setStamp(Time.fromMillis(System.currentTimeMillis()));
+        h.setFrameId(frame);
+    }
+    public static void setHeader(Header h, String frame, long stampNanos){
+        // populate the header with the time the data was acquired
+        // the stamp is written in place to avoid allocating a Time per message
+        Time t = h.getStamp();
+        t.secs = (int) (stampNanos / 1000000000L);
+        t.nsecs = (int) (stampNanos % 1000000000L);
+        h.setFrameId(frame);
+    }
+    public static void setHeader(Header h){
+        setHeader(h, "android");
+    }
+}
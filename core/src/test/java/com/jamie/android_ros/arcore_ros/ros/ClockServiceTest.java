@@ -0,0 +1,61 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClockServiceTest {
+    private final ManualTime time = new ManualTime(500);
+    private final ClockService clock = new ClockService(time);
+
+    @Test
+    public void rosTimeFollowsTheMonotonicClockFromTheWallAnchor() {
+        assertEquals(ManualTime.WALL_ANCHOR + 500, clock.now());
+        time.now = 2500;
+        assertEquals(ManualTime.WALL_ANCHOR + 2500, clock.now());
+    }
+
+    @Test
+    public void unobservedSourceFallsBackToNow() {
+        time.now = 1500;
+        assertEquals(ManualTime.WALL_ANCHOR + 1500, clock.toRos(ClockService.CAMERA, 42));
+    }
+
+    @Test
+    public void offsetSnapsDownAndOnlyLeaksUp() {
+        clock.observe(ClockService.SENSOR, 1000, 6000);
+        assertEquals(5000, clock.getOffsetNanos(ClockService.SENSOR));
+
+        // 1000 ns later than predicted : a thousandth of it is taken
+        clock.observe(ClockService.SENSOR, 2000, 8000);
+        assertEquals(5001, clock.getOffsetNanos(ClockService.SENSOR));
+
+        // anything earlier than predicted is taken as is
+        clock.observe(ClockService.SENSOR, 3000, 7500);
+        assertEquals(4500, clock.getOffsetNanos(ClockService.SENSOR));
+        assertEquals(8500, clock.toRos(ClockService.SENSOR, 4000));
+
+        // sources are independent
+        assertEquals(ManualTime.WALL_ANCHOR + 500, clock.toRos(ClockService.CAMERA, 4000));
+    }
+
+    @Test
+    public void driftIsMeasuredOverTheWindow() {
+        clock.observe(ClockService.ELAPSED, 0, 1000);
+        // 10 s later the offset is 100 us lower : the source runs 10 ppm fast
+        clock.observe(ClockService.ELAPSED, 10000000000L, 10000000000L - 99000);
+        assertEquals(-99000, clock.getOffsetNanos(ClockService.ELAPSED));
+        // a fifth of the measured slope is applied
+        assertEquals(-2.0, clock.getDriftPpm(ClockService.ELAPSED), 1e-9);
+
+        // 1 s past the reference : -99000 offset, -2000 drift
+        assertEquals(11000000000L - 99000 - 2000, clock.toRos(ClockService.ELAPSED, 11000000000L));
+    }
+
+    @Test
+    public void noDriftWithinTheFirstWindow() {
+        clock.observe(ClockService.ELAPSED, 0, 1000);
+        clock.observe(ClockService.ELAPSED, 9999999999L, 9999999999L - 99000);
+        assertEquals(0.0, clock.getDriftPpm(ClockService.ELAPSED), 0.0);
+    }
+}
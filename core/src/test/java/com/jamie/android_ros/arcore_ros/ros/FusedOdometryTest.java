@@ -0,0 +1,87 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FusedOdometryTest {
+    private static final long T0 = 1000000000L;
+    private static final long MS = 1000000L;
+    private static final float[] IDENTITY = {0f, 0f, 0f, 1f};
+    private static final float[] NO_ROTATION = {0f, 0f, 0f};
+    private static final float[] ACCEL_X = {1f, 0f, 0f};
+
+    private final FusedOdometry odometry = new FusedOdometry(8);
+    private final double[] out = new double[4];
+
+    @Test
+    public void samplesBeforeTheFirstPoseAreDropped() {
+        assertFalse(odometry.propagate(T0, NO_ROTATION, ACCEL_X));
+        odometry.correct(T0, new float[3], IDENTITY);
+        assertTrue(odometry.isInitialized());
+        // not newer than the state
+        assertFalse(odometry.propagate(T0, NO_ROTATION, ACCEL_X));
+        assertEquals(2, odometry.getDropped());
+    }
+
+    @Test
+    public void integratesAccelerationFromRest() {
+        odometry.correct(T0, new float[3], IDENTITY);
+        odometry.propagate(T0 + 10 * MS, NO_ROTATION, ACCEL_X);
+        odometry.propagate(T0 + 20 * MS, NO_ROTATION, ACCEL_X);
+        // x = a t^2 / 2, v = a t
+        odometry.getPosition(out);
+        assertEquals(2e-4, out[0], 1e-12);
+        odometry.getVelocity(out);
+        assertEquals(0.02, out[0], 1e-12);
+        assertEquals(T0 + 20 * MS, odometry.getTime());
+        assertEquals(0.02, odometry.getTimeSinceCorrection(), 1e-12);
+    }
+
+    @Test
+    public void integratesBodyRates() {
+        odometry.correct(T0, new float[3], IDENTITY);
+        odometry.propagate(T0 + 50 * MS, new float[]{0f, 0f, 10f}, new float[3]);
+        // 0.5 rad about z
+        odometry.getOrientation(out);
+        assertArrayEquals(new double[]{0, 0, Math.sin(0.25), Math.cos(0.25)}, out, 1e-9);
+    }
+
+    @Test
+    public void latePoseRewritesTheHistoryAndReplaysTheSamplesAfterIt() {
+        odometry.correct(T0, new float[3], IDENTITY);
+        odometry.propagate(T0 + 10 * MS, NO_ROTATION, ACCEL_X);
+        odometry.propagate(T0 + 20 * MS, NO_ROTATION, ACCEL_X);
+
+        // a pose for the first sample arrives after the second one
+        odometry.correct(T0 + 10 * MS, new float[]{1f, 0f, 0f}, IDENTITY);
+
+        // velocity there : 0.01 + 0.2 * (1 m / 10 ms - 0.01) = 20.008
+        // replayed sample : x = 1 + 20.008 * 0.01 + 0.5 * 1e-4, v = 20.008 + 0.01
+        odometry.getPosition(out);
+        assertEquals(1.20013, out[0], 1e-9);
+        assertEquals(0.0, out[1], 0.0);
+        odometry.getVelocity(out);
+        assertEquals(20.018, out[0], 1e-9);
+        assertEquals(T0 + 20 * MS, odometry.getTime());
+        assertEquals(2, odometry.getCorrections());
+        assertEquals(1, odometry.getReplayed());
+        assertEquals(0.01, odometry.getTimeSinceCorrection(), 1e-12);
+    }
+
+    @Test
+    public void poseNewerThanEverySampleBecomesTheLatestState() {
+        odometry.correct(T0, new float[3], IDENTITY);
+        odometry.propagate(T0 + 10 * MS, NO_ROTATION, ACCEL_X);
+        odometry.correct(T0 + 15 * MS, new float[]{0f, 2f, 0f}, new float[]{0f, 0f, 1f, 0f});
+        assertEquals(T0 + 15 * MS, odometry.getTime());
+        odometry.getPosition(out);
+        assertArrayEquals(new double[]{0, 2, 0}, new double[]{out[0], out[1], out[2]}, 0.0);
+        odometry.getOrientation(out);
+        assertArrayEquals(new double[]{0, 0, 1, 0}, out, 0.0);
+        assertEquals(0, odometry.getReplayed());
+    }
+}
@@ -0,0 +1,88 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GpsAlignmentTest {
+    private static final double EARTH_RADIUS = 6378137.0;
+    // odom z already up, so levelling is the identity
+    private static final float[] DOWN = {0f, 0f, -9.81f};
+
+    private final GpsAlignment alignment = new GpsAlignment();
+
+    /** Fix at {@code east}, {@code north} m from (0, 0), where a degree of longitude is as long as one of latitude. */
+    private boolean fix(double east, double north, double altitude, float... odom) {
+        return alignment.addFix(Math.toDegrees(north / EARTH_RADIUS), Math.toDegrees(east / EARTH_RADIUS),
+                altitude, 2.0, odom, DOWN);
+    }
+
+    // odom x points north : the map is odom turned by 90 degrees, plus (1, -2)
+    // odom (2, 1) -> (-1, 2) + (1, -2) = (0, 0), (12, 1) -> (0, 10), (2, 11) -> (-10, 0)
+    private void addTriangle(double alt0, double alt1, double alt2) {
+        assertFalse(fix(0, 0, alt0, 2f, 1f, 0.5f));
+        fix(0, 10, alt1, 12f, 1f, 0.5f);
+        assertTrue(fix(-10, 0, alt2, 2f, 11f, 0.5f));
+    }
+
+    @Test
+    public void solvesYawAndTranslation() {
+        addTriangle(101, 101, 101);
+        assertEquals(Math.PI / 2, alignment.getYaw(), 1e-9);
+        float[] t = new float[3];
+        alignment.getTranslation(t);
+        assertArrayEquals(new float[]{1f, -2f, -0.5f}, t, 1e-6f);
+        float[] r = new float[4];
+        alignment.getRotation(r);
+        float h = (float) Math.sqrt(0.5);
+        assertArrayEquals(new float[]{0f, 0f, h, h}, r, 1e-6f);
+        assertArrayEquals(new double[]{0, 0, 101}, alignment.getDatum(), 0.0);
+
+        double[] pos = new double[3];
+        double[] rxn = new double[4];
+        alignment.transform(new float[]{12f, 1f, 0.5f}, new float[]{0f, 0f, 0f, 1f}, pos, rxn);
+        assertArrayEquals(new double[]{0, 10, 0}, pos, 1e-6);
+        assertArrayEquals(new double[]{0, 0, h, h}, rxn, 1e-6);
+    }
+
+    @Test
+    public void needsSpreadBeforeTheYawIsTrusted() {
+        assertFalse(fix(0, 0, 101, 0f, 0f, 0f));
+        // 2 m apart : an rms spread of 1 m
+        assertFalse(fix(0, 2, 101, 2f, 0f, 0f));
+        assertEquals(2, alignment.getFixCount());
+        assertFalse(alignment.isValid());
+    }
+
+    @Test
+    public void fixesWithoutAltitudeOnlyAlignHorizontally() {
+        addTriangle(Double.NaN, 101, 101);
+        float[] t = new float[3];
+        alignment.getTranslation(t);
+        assertArrayEquals(new float[]{1f, -2f, -0.5f}, t, 1e-6f);
+        // the datum altitude comes from the second fix
+        assertEquals(101, alignment.getDatum()[2], 0.0);
+    }
+
+    @Test
+    public void noAltitudeAtAllLeavesTheVerticalAtZero() {
+        addTriangle(Double.NaN, Double.NaN, Double.NaN);
+        assertEquals(Math.PI / 2, alignment.getYaw(), 1e-9);
+        float[] t = new float[3];
+        alignment.getTranslation(t);
+        assertArrayEquals(new float[]{1f, -2f, 0f}, t, 1e-6f);
+        assertTrue(Double.isNaN(alignment.getDatum()[2]));
+    }
+
+    @Test
+    public void gravityChangeRestartsTheEstimate() {
+        addTriangle(101, 101, 101);
+        assertFalse(alignment.addFix(0, 0, 101, 2.0, new float[3], new float[]{0f, -9.81f, 0f}));
+        assertEquals(1, alignment.getFixCount());
+        // the datum is kept
+        assertArrayEquals(new double[]{0, 0, 101}, alignment.getDatum(), 0.0);
+    }
+}
@@ -0,0 +1,80 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ImuSynchronizerTest {
+    private final SampleRingBuffer gyro = new SampleRingBuffer(8, 3);
+    private final SampleRingBuffer accel = new SampleRingBuffer(8, 3);
+    private final float[] g = new float[3];
+    private final float[] a = new float[3];
+
+    @Test
+    public void otherStreamIsInterpolatedToTheReferenceStamp() {
+        ImuSynchronizer sync = new ImuSynchronizer(gyro, accel, 1000);
+        accel.offer(100, new float[]{0f, 0f, 0f});
+        accel.offer(200, new float[]{10f, 20f, 30f});
+        gyro.offer(150, new float[]{1f, 2f, 3f});
+        gyro.offer(200, new float[]{4f, 5f, 6f});
+
+        assertEquals(150, sync.next(g, a));
+        assertArrayEquals(new float[]{1f, 2f, 3f}, g, 0f);
+        assertArrayEquals(new float[]{5f, 10f, 15f}, a, 0f);
+        assertEquals(200, sync.next(g, a));
+        assertArrayEquals(new float[]{10f, 20f, 30f}, a, 0f);
+        assertEquals(2, sync.getEmitted());
+        assertEquals(0, sync.getHeld());
+    }
+
+    @Test
+    public void referenceBeforeTheOtherStreamTakesItsFirstValue() {
+        ImuSynchronizer sync = new ImuSynchronizer(gyro, accel, 1000);
+        accel.offer(200, new float[]{10f, 20f, 30f});
+        gyro.offer(150, new float[]{1f, 2f, 3f});
+        assertEquals(150, sync.next(g, a));
+        assertArrayEquals(new float[]{10f, 20f, 30f}, a, 0f);
+    }
+
+    @Test
+    public void waitsForALaggingStreamWithinMaxWait() {
+        ImuSynchronizer sync = new ImuSynchronizer(gyro, accel, 1000);
+        accel.offer(100, new float[]{1f, 2f, 3f});
+        gyro.offer(150, new float[]{1f, 2f, 3f});
+        assertEquals(-1, sync.next(g, a));
+        assertEquals(1, gyro.size());
+
+        accel.offer(300, new float[]{5f, 6f, 7f});
+        assertEquals(150, sync.next(g, a));
+        assertArrayEquals(new float[]{2f, 3f, 4f}, a, 0f);
+    }
+
+    @Test
+    public void holdsTheLastValueBeyondMaxWait() {
+        ImuSynchronizer sync = new ImuSynchronizer(gyro, accel, 20);
+        accel.offer(100, new float[]{1f, 2f, 3f});
+        gyro.offer(150, new float[]{0f, 0f, 0f});
+        assertEquals(150, sync.next(g, a));
+        assertArrayEquals(new float[]{1f, 2f, 3f}, a, 0f);
+        assertEquals(1, sync.getHeld());
+    }
+
+    @Test
+    public void zeroFillsOnceTheReferenceRunsMaxWaitAheadWithoutOtherSamples() {
+        ImuSynchronizer sync = new ImuSynchronizer(gyro, accel, 20);
+        gyro.offer(10, new float[]{1f, 1f, 1f});
+        gyro.offer(30, new float[]{3f, 3f, 3f});
+        // 20 ns deep : keep waiting
+        assertEquals(-1, sync.next(g, a));
+        gyro.offer(40, new float[]{4f, 4f, 4f});
+        a[0] = a[1] = a[2] = 9f;
+        assertEquals(10, sync.next(g, a));
+        assertArrayEquals(new float[]{0f, 0f, 0f}, a, 0f);
+        // 30 is within 20 of 40 again
+        assertEquals(-1, sync.next(g, a));
+        assertEquals(1, sync.getHeld());
+        assertEquals(1, sync.getEmitted());
+        assertEquals(2, gyro.size());
+    }
+}
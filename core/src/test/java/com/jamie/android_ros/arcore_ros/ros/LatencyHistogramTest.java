@@ -0,0 +1,70 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveABucketEach() {
+        for (int v = 0; v < LatencyHistogram.SUB_BUCKETS; ++v) {
+            assertEquals(v, LatencyHistogram.index(v));
+            assertEquals(v, LatencyHistogram.highestValue(v));
+        }
+    }
+
+    @Test
+    public void largerValuesAreSplitLogLinearly() {
+        assertEquals(16, LatencyHistogram.index(16));
+        assertEquals(31, LatencyHistogram.index(31));
+        // from 32 on, buckets are 2 wide
+        assertEquals(32, LatencyHistogram.index(32));
+        assertEquals(32, LatencyHistogram.index(33));
+        assertEquals(33, LatencyHistogram.highestValue(32));
+        // 1000 = 31 << 5 + 8 : bucket 992..1023
+        assertEquals(111, LatencyHistogram.index(1000));
+        assertEquals(1023, LatencyHistogram.highestValue(111));
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void bucketBoundsRoundTrip() {
+        for (int i = 0; i < LatencyHistogram.BUCKETS; ++i) {
+            long hi = LatencyHistogram.highestValue(i);
+            assertEquals(i, LatencyHistogram.index(hi));
+            if (i + 1 < LatencyHistogram.BUCKETS) {
+                assertEquals(i + 1, LatencyHistogram.index(hi + 1));
+            }
+        }
+    }
+
+    @Test
+    public void snapshotPercentilesAndClamping() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(10);
+        h.record(1000);
+        h.record(1000);
+        h.record(1000);
+        LatencyHistogram.Snapshot s = new LatencyHistogram.Snapshot();
+        h.snapshot(s);
+        assertEquals(4, s.getCount());
+        assertEquals(10, s.getValueAtPercentile(25));
+        // bucket bound 1023, capped at the largest value seen
+        assertEquals(1000, s.getValueAtPercentile(50));
+        assertEquals(1000, s.getMax());
+        // bucket middles : (10 + 3 * (992 + 1023) / 2) / 4
+        assertEquals(758.125, s.getMean(), 1e-9);
+
+        LatencyHistogram.Snapshot older = new LatencyHistogram.Snapshot();
+        older.copyFrom(s);
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        h.snapshot(s);
+        assertEquals(LatencyHistogram.MAX_VALUE, s.getMax());
+        s.subtract(older);
+        assertEquals(2, s.getCount());
+        assertEquals(0, s.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, s.getValueAtPercentile(100));
+    }
+}
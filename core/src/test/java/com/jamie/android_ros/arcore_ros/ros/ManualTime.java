@@ -0,0 +1,22 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+/** A {@link TimeSource} that only moves when a test sets it. */
+final class ManualTime implements TimeSource {
+    static final long WALL_ANCHOR = 1000000000000L;
+
+    long now;
+
+    ManualTime(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public long currentTimeNanos() {
+        return WALL_ANCHOR + now;
+    }
+}
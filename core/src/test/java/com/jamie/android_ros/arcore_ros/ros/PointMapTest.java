@@ -0,0 +1,85 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PointMapTest {
+
+    private static int[] ids(PointMap map) {
+        int[] out = new int[map.size()];
+        int n = 0;
+        for (int e = map.first(); e != -1; e = map.next(e)) {
+            out[n++] = map.id(e);
+        }
+        assertEquals(map.size(), n);
+        return out;
+    }
+
+    @Test
+    public void putRefreshesAnExistingPoint() {
+        PointMap map = new PointMap(4);
+        map.put(7, 1f, 2f, 3f, 0.5f);
+        map.put(7, 4f, 5f, 6f, 0.9f);
+        assertEquals(1, map.size());
+        int e = map.first();
+        assertEquals(7, map.id(e));
+        float[] v = map.values();
+        assertArrayEquals(new float[]{4f, 5f, 6f, 0.9f},
+                new float[]{v[e * 4], v[e * 4 + 1], v[e * 4 + 2], v[e * 4 + 3]}, 0f);
+    }
+
+    @Test
+    public void evictsTheLeastRecentlySeenPoint() {
+        PointMap map = new PointMap(3);
+        map.put(1, 0f, 0f, 0f, 0f);
+        map.put(2, 0f, 0f, 0f, 0f);
+        map.put(3, 0f, 0f, 0f, 0f);
+        map.put(1, 0f, 0f, 0f, 0f); // 2 is now the oldest
+        map.put(4, 0f, 0f, 0f, 0f);
+        assertEquals(3, map.size());
+        assertEquals(1, map.getEvictions());
+        assertArrayEquals(new int[]{4, 1, 3}, ids(map));
+    }
+
+    @Test
+    public void deletionKeepsCollidingKeysReachable() {
+        // capacity 3 gives an 8-slot table; 15, 16 and 32 all hash to slot 7, so they sit in
+        // slots 7, 0 and 1 and the chain wraps around the end of the table
+        PointMap map = new PointMap(3);
+        map.put(15, 0f, 0f, 0f, 0f);
+        map.put(16, 0f, 0f, 0f, 0f);
+        map.put(32, 0f, 0f, 0f, 0f);
+        // evicts 15; 16 and 32 must be shifted back into the hole
+        map.put(6, 0f, 0f, 0f, 0f);
+        assertEquals(1, map.getEvictions());
+
+        // refreshing them finds the existing entries instead of evicting again
+        map.put(16, 1f, 0f, 0f, 0f);
+        map.put(32, 2f, 0f, 0f, 0f);
+        assertEquals(3, map.size());
+        assertEquals(1, map.getEvictions());
+        assertArrayEquals(new int[]{32, 16, 6}, ids(map));
+
+        // and so does a lookup after a second removal from the same chain
+        map.put(40, 0f, 0f, 0f, 0f); // evicts 6
+        map.put(41, 0f, 0f, 0f, 0f); // evicts 16
+        map.put(32, 3f, 0f, 0f, 0f);
+        assertEquals(3, map.getEvictions());
+        assertArrayEquals(new int[]{32, 41, 40}, ids(map));
+    }
+
+    @Test
+    public void clearEmptiesTheMap() {
+        PointMap map = new PointMap(2);
+        map.put(1, 0f, 0f, 0f, 0f);
+        map.put(2, 0f, 0f, 0f, 0f);
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.first());
+        map.put(2, 0f, 0f, 0f, 0f);
+        assertArrayEquals(new int[]{2}, ids(map));
+        assertEquals(0, map.getEvictions());
+    }
+}
@@ -0,0 +1,130 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PublishSchedulerTest {
+    private static final long MS = 1000000L;
+
+    private final ManualTime time = new ManualTime(1000);
+    private final PublishScheduler scheduler = new PublishScheduler(2, time);
+
+    private static class CountingTask implements PublishScheduler.Task {
+        int published;
+        boolean sends = true;
+
+        @Override
+        public boolean publish() {
+            ++published;
+            return sends;
+        }
+    }
+
+    private void signalAt(long t, int id) {
+        time.now = t;
+        scheduler.signal(id);
+    }
+
+    @Test
+    public void firstSignalIsDueRightAway() {
+        CountingTask task = new CountingTask();
+        int id = scheduler.register("a", task, 10, 50);
+        signalAt(1000, id);
+        assertEquals(Long.MAX_VALUE, scheduler.dispatch(1000));
+        assertEquals(1, task.published);
+    }
+
+    @Test
+    public void maxLatencyCutsTheRateLimitShort() {
+        CountingTask task = new CountingTask();
+        int id = scheduler.register("a", task, 10, 50); // 100 ms period
+        signalAt(1000, id);
+        scheduler.dispatch(1000);
+
+        signalAt(2000, id);
+        // min(1000 + 100 ms, 2000 + 50 ms)
+        assertEquals(2000 + 50 * MS, scheduler.dispatch(2000));
+        assertEquals(1, task.published);
+        // more signals do not push the deadline back
+        signalAt(40 * MS, id);
+        assertEquals(2000 + 50 * MS, scheduler.dispatch(40 * MS));
+        assertEquals(Long.MAX_VALUE, scheduler.dispatch(2000 + 50 * MS));
+        assertEquals(2, task.published);
+    }
+
+    @Test
+    public void rateLimitHoldsWhenItIsSooner() {
+        CountingTask task = new CountingTask();
+        int id = scheduler.register("a", task, 10, 1000);
+        signalAt(1000, id);
+        scheduler.dispatch(1000);
+        signalAt(2000, id);
+        // min(1000 + 100 ms, 2000 + 1000 ms)
+        assertEquals(1000 + 100 * MS, scheduler.dispatch(2000));
+        assertEquals(Long.MAX_VALUE, scheduler.dispatch(1000 + 100 * MS));
+        assertEquals(2, task.published);
+    }
+
+    @Test
+    public void unlimitedTopicIsDueAtItsSignal() {
+        CountingTask task = new CountingTask();
+        int id = scheduler.register("a", task, 0, 50);
+        signalAt(1000, id);
+        scheduler.dispatch(1000);
+        signalAt(1001, id);
+        assertEquals(Long.MAX_VALUE, scheduler.dispatch(1001));
+        assertEquals(2, task.published);
+    }
+
+    @Test
+    public void publishThatSendsNothingDoesNotStartThePeriod() {
+        CountingTask task = new CountingTask();
+        int id = scheduler.register("a", task, 10, 1000);
+        signalAt(1000, id);
+        scheduler.dispatch(1000);
+        task.sends = false;
+        signalAt(2000, id);
+        scheduler.dispatch(1000 + 100 * MS);
+        signalAt(1000 + 100 * MS + 1, id);
+        // the period runs from the publish at 1000, not from the empty one, so this is due now
+        assertEquals(Long.MAX_VALUE, scheduler.dispatch(1000 + 100 * MS + 1));
+        assertEquals(3, task.published);
+    }
+
+    @Test
+    public void nextDeadlineIsTheEarliestOfThePendingTopics() {
+        int a = scheduler.register("a", new CountingTask(), 10, 1000);
+        int b = scheduler.register("b", new CountingTask(), 100, 1000);
+        signalAt(1000, a);
+        signalAt(1000, b);
+        scheduler.dispatch(1000);
+        signalAt(2000, a);
+        signalAt(2000, b);
+        assertEquals(1000 + 10 * MS, scheduler.dispatch(2000));
+        assertEquals(1000 + 100 * MS, scheduler.dispatch(1000 + 10 * MS));
+    }
+
+    @Test
+    public void achievedRateIsCountedOverOneSecond() {
+        CountingTask task = new CountingTask();
+        int id = scheduler.register("a", task, 0, 0);
+        for (long t = 1; t <= 5; ++t) {
+            signalAt(t * 200 * MS, id);
+            scheduler.dispatch(t * 200 * MS);
+        }
+        // the window opened at the first dispatch, 800 ms ago
+        assertEquals(0.0, scheduler.getAchievedRate(id), 0.0);
+        signalAt(1200 * MS, id);
+        scheduler.dispatch(1200 * MS);
+        // 200, 400, 600, 800, 1000 and 1200 ms
+        assertEquals(6.0, scheduler.getAchievedRate(id), 1e-9);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void registeringPastCapacityThrows() {
+        scheduler.register("a", new CountingTask(), 0, 0);
+        scheduler.register("b", new CountingTask(), 0, 0);
+        scheduler.register("c", new CountingTask(), 0, 0);
+    }
+}
@@ -0,0 +1,101 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class QualityGovernorTest {
+    private static final long BUDGET = 20000000L; // 20 ms
+    private static final long SLOW = 30000000L;
+    private static final long FAST = 10000000L;
+
+    private final QualityGovernor governor = new QualityGovernor(BUDGET);
+    private final List<Integer> levels = new ArrayList<>();
+
+    {
+        governor.addListener(new QualityGovernor.Listener() {
+            @Override
+            public void onLevelChanged(int level) {
+                levels.add(level);
+            }
+        });
+    }
+
+    @Test
+    public void thermalStatusSetsTheFloorRightAway() {
+        governor.evaluate(1000, QualityGovernor.THERMAL_SEVERE, FAST, false);
+        assertEquals(3, governor.getLevel());
+        // above SEVERE is clamped
+        governor.evaluate(2000, 6, FAST, false);
+        assertEquals(3, governor.getLevel());
+        assertEquals(Arrays.asList(3), levels);
+    }
+
+    @Test
+    public void overloadStepsDownOneLevelAtATime() {
+        governor.evaluate(1000, QualityGovernor.THERMAL_NONE, SLOW, false);
+        assertEquals(0, governor.getLevel());
+        governor.evaluate(2000, QualityGovernor.THERMAL_NONE, SLOW, false);
+        assertEquals(1, governor.getLevel());
+        // 3 s between steps
+        governor.evaluate(3000, QualityGovernor.THERMAL_NONE, FAST, true);
+        governor.evaluate(4999, QualityGovernor.THERMAL_NONE, FAST, true);
+        assertEquals(1, governor.getLevel());
+        governor.evaluate(5000, QualityGovernor.THERMAL_NONE, FAST, true);
+        assertEquals(2, governor.getLevel());
+    }
+
+    @Test
+    public void aSingleSlowFrameIsNotAnOverload() {
+        governor.evaluate(1000, QualityGovernor.THERMAL_NONE, SLOW, false);
+        governor.evaluate(2000, QualityGovernor.THERMAL_NONE, FAST, false);
+        governor.evaluate(3000, QualityGovernor.THERMAL_NONE, SLOW, false);
+        assertEquals(0, governor.getLevel());
+    }
+
+    @Test
+    public void stepsBackUpAfterThirtySecondsOfHeadroom() {
+        governor.evaluate(1000, QualityGovernor.THERMAL_NONE, SLOW, false);
+        governor.evaluate(2000, QualityGovernor.THERMAL_NONE, SLOW, false);
+        governor.evaluate(5000, QualityGovernor.THERMAL_NONE, SLOW, false);
+        assertEquals(2, governor.getLevel());
+
+        // last pressure at 5 s
+        governor.evaluate(6000, QualityGovernor.THERMAL_NONE, FAST, false);
+        governor.evaluate(34999, QualityGovernor.THERMAL_NONE, FAST, false);
+        assertEquals(2, governor.getLevel());
+        governor.evaluate(35000, QualityGovernor.THERMAL_NONE, FAST, false);
+        assertEquals(1, governor.getLevel());
+        // and another 30 s for the next step
+        governor.evaluate(64999, QualityGovernor.THERMAL_NONE, FAST, false);
+        assertEquals(1, governor.getLevel());
+        governor.evaluate(65000, QualityGovernor.THERMAL_NONE, FAST, false);
+        assertEquals(0, governor.getLevel());
+        assertEquals(Arrays.asList(1, 2, 1, 0), levels);
+    }
+
+    @Test
+    public void aCoolerThermalFloorLetsTheLevelRecover() {
+        governor.evaluate(1000, QualityGovernor.THERMAL_SEVERE, FAST, false);
+        governor.evaluate(2000, QualityGovernor.THERMAL_MODERATE, FAST, false);
+        governor.evaluate(30999, QualityGovernor.THERMAL_MODERATE, FAST, false);
+        assertEquals(3, governor.getLevel());
+        governor.evaluate(31000, QualityGovernor.THERMAL_MODERATE, FAST, false);
+        assertEquals(2, governor.getLevel());
+        // but never below the floor
+        governor.evaluate(100000, QualityGovernor.THERMAL_MODERATE, FAST, false);
+        assertEquals(2, governor.getLevel());
+    }
+
+    @Test
+    public void disablingReturnsToFullQuality() {
+        governor.evaluate(1000, QualityGovernor.THERMAL_SEVERE, FAST, false);
+        governor.setEnabled(false);
+        governor.evaluate(2000, QualityGovernor.THERMAL_SEVERE, SLOW, true);
+        assertEquals(0, governor.getLevel());
+    }
+}
@@ -0,0 +1,87 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleRingBufferTest {
+    private final float[] out = new float[2];
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new SampleRingBuffer(1, 1).getCapacity());
+        assertEquals(4, new SampleRingBuffer(4, 1).getCapacity());
+        assertEquals(8, new SampleRingBuffer(5, 1).getCapacity());
+    }
+
+    @Test
+    public void samplesAreTruncatedOrZeroFilledToTheWidth() {
+        SampleRingBuffer b = new SampleRingBuffer(4, 2);
+        b.offer(1, new float[]{7f});
+        b.offer(2, new float[]{1f, 2f, 3f});
+        assertEquals(1, b.poll(out));
+        assertArrayEquals(new float[]{7f, 0f}, out, 0f);
+        assertEquals(2, b.poll(out));
+        assertArrayEquals(new float[]{1f, 2f}, out, 0f);
+    }
+
+    @Test
+    public void readsStayInOrderAcrossTheWrap() {
+        SampleRingBuffer b = new SampleRingBuffer(4, 2);
+        for (int t = 1; t <= 3; ++t) {
+            assertTrue(b.offer(t, new float[]{t, -t}));
+        }
+        assertEquals(1, b.poll(out));
+        assertEquals(2, b.poll(out));
+        // slots 3, 0, 1 and 2 : the last three wrap around
+        for (int t = 4; t <= 6; ++t) {
+            assertTrue(b.offer(t, new float[]{t, -t}));
+        }
+        assertEquals(4, b.size());
+        assertEquals(6, b.peekLatestTimestamp());
+        for (int t = 3; t <= 6; ++t) {
+            assertEquals(t, b.peekTimestamp());
+            assertEquals(t, b.poll(out));
+            assertArrayEquals(new float[]{t, -t}, out, 0f);
+        }
+        assertTrue(b.isEmpty());
+        assertEquals(-1, b.poll(out));
+        assertEquals(-1, b.peekLatestTimestamp());
+        assertEquals(0, b.getDropped());
+    }
+
+    @Test
+    public void overrunRejectsNewSamplesAndCountsOncePerEpisode() {
+        SampleRingBuffer b = new SampleRingBuffer(2, 2);
+        assertTrue(b.offer(1, out));
+        assertTrue(b.offer(2, out));
+        assertFalse(b.offer(3, out));
+        assertFalse(b.offer(4, out));
+        assertEquals(2, b.getDropped());
+        assertEquals(1, b.getOverruns());
+
+        // the unread samples were kept, not overwritten
+        assertEquals(1, b.poll(out));
+        assertTrue(b.offer(5, out));
+        assertFalse(b.offer(6, out));
+        assertEquals(3, b.getDropped());
+        assertEquals(2, b.getOverruns());
+        assertEquals(2, b.poll(out));
+        assertEquals(5, b.poll(out));
+    }
+
+    @Test
+    public void pollLatestSkipsToTheNewestSample() {
+        SampleRingBuffer b = new SampleRingBuffer(4, 2);
+        b.offer(1, new float[]{1f, 1f});
+        b.offer(2, new float[]{2f, 2f});
+        b.offer(3, new float[]{3f, 3f});
+        assertEquals(3, b.pollLatest(out));
+        assertArrayEquals(new float[]{3f, 3f}, out, 0f);
+        assertTrue(b.isEmpty());
+        assertEquals(-1, b.pollLatest(out));
+    }
+}
@@ -0,0 +1,71 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionLogTest {
+
+    @Test
+    public void closeWritesOutEveryQueuedRecordInArrivalOrder() throws IOException {
+        File file = File.createTempFile("session", ".slog");
+        file.deleteOnExit();
+        ManualTime time = new ManualTime(100);
+        SessionLog.Writer writer = new SessionLog.Writer(file, time, 8);
+        time.now = 200;
+        writer.sample(SessionLog.GYRO, 150, new float[]{1, 2, 3});
+        time.now = 300;
+        writer.fix(250, 260, 48.5, 2.25, 35, 4);
+        time.now = 400;
+        writer.event(SessionLog.RAW_ACCEL, true);
+        writer.event(SessionLog.TRACKING_LOST, false);
+        writer.close();
+        assertEquals(4, writer.getRecords());
+        assertEquals(0, writer.getDropped());
+
+        SessionLog.Reader reader = new SessionLog.Reader(file);
+        assertEquals(100, reader.getStartTime());
+        assertEquals(ManualTime.WALL_ANCHOR + 100, reader.getStartWallTime());
+        SessionLog.Event e = new SessionLog.Event();
+
+        assertTrue(reader.next(e));
+        assertEquals(SessionLog.GYRO, e.kind);
+        assertEquals(200, e.arrival);
+        assertEquals(150, e.stamp);
+        assertEquals(3, e.values[2], 0);
+
+        assertTrue(reader.next(e));
+        assertEquals(SessionLog.FIX, e.kind);
+        assertEquals(300, e.arrival);
+        assertEquals(260, e.elapsedNow);
+        assertEquals(2.25, e.longitude, 0);
+        assertEquals(35, e.altitude, 0);
+        assertEquals(4, e.accuracy, 0);
+
+        assertTrue(reader.next(e));
+        assertEquals(SessionLog.RAW_ACCEL, e.kind);
+        assertTrue(e.flag);
+
+        assertTrue(reader.next(e));
+        assertEquals(SessionLog.TRACKING_LOST, e.kind);
+        assertEquals(400, e.arrival);
+        assertFalse(reader.next(e));
+        reader.close();
+    }
+
+    @Test
+    public void nothingIsQueuedOnceClosed() throws IOException {
+        File file = File.createTempFile("session", ".slog");
+        file.deleteOnExit();
+        SessionLog.Writer writer = new SessionLog.Writer(file, new ManualTime(0), 8);
+        writer.close();
+        writer.sample(SessionLog.ACCEL, 1, new float[]{0, 0, 9.8f});
+        assertEquals(0, writer.getRecords());
+        assertEquals(0, writer.getDropped());
+    }
+}
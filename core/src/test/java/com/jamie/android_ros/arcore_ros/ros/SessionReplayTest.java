@@ -0,0 +1,46 @@
+package com.jamie.android_ros.arcore_ros.ros;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionReplayTest {
+
+    private static File log() throws URISyntaxException {
+        return new File(SessionReplayTest.class.getResource("/replay.slog").toURI());
+    }
+
+    private static byte[] replay(File log) throws IOException {
+        SessionReplay replay = new SessionReplay(log, 0);
+        replay.getPipeline().setFusedOdometry(true);
+        replay.getPipeline().setImuMode(IMUPublisher.Mode.EVERY_SAMPLE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MessageCapture capture = new MessageCapture(bytes);
+        replay.setCapture(capture);
+
+        replay.run(OfflineNode.newConnectedNode());
+        capture.close();
+
+        assertNull(capture.getError());
+        assertEquals(533, replay.getEvents());
+        assertTrue(capture.getMessages() > 0);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void replayAtFullSpeedIsDeterministic() throws Exception {
+        File log = log();
+        byte[] first = replay(log);
+        byte[] second = replay(log);
+        assertTrue(first.length > 0);
+        assertArrayEquals(first, second);
+    }
+}